@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.graphics.Bitmap;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+/**
+ * A small pool of reference counted bitmaps for camera frames.
+ *
+ * <p>{@link #acquire} hands out a mutable bitmap holding one reference, {@link #retain} adds one
+ * for every further holder. Each holder calls {@link #release} once it is done with the bitmap,
+ * and after the last release the bitmap is reused for a later frame of the same width, height
+ * and config. Bitmaps that are never released are simply garbage collected, and releasing a
+ * bitmap that does not come from the pool does nothing.
+ */
+public final class BitmapPool {
+  // A frame being converted, one being drawn and one to spare.
+  private static final int MAX_POOLED_BITMAPS = 3;
+
+  private static final ArrayList<Bitmap> pooledBitmaps = new ArrayList<>();
+  // Weak, so bitmaps dropped without a release don't leak their count.
+  private static final WeakHashMap<Bitmap, int[]> referenceCounts = new WeakHashMap<>();
+
+  private BitmapPool() {}
+
+  /** Returns a mutable bitmap with undefined content, holding one reference. */
+  public static synchronized Bitmap acquire(int width, int height, Bitmap.Config config) {
+    Bitmap bitmap = null;
+    for (int i = pooledBitmaps.size() - 1; i >= 0; i--) {
+      Bitmap pooled = pooledBitmaps.get(i);
+      if (pooled.getWidth() == width
+          && pooled.getHeight() == height
+          && pooled.getConfig() == config) {
+        bitmap = pooledBitmaps.remove(i);
+        break;
+      }
+    }
+    if (bitmap == null) {
+      bitmap = Bitmap.createBitmap(width, height, config);
+    }
+    referenceCounts.put(bitmap, new int[] {1});
+    return bitmap;
+  }
+
+  /** Adds a reference to a bitmap from {@link #acquire}. */
+  public static synchronized void retain(Bitmap bitmap) {
+    int[] count = referenceCounts.get(bitmap);
+    if (count != null) {
+      count[0]++;
+    }
+  }
+
+  /** Drops a reference, the bitmap must not be used by this holder afterwards. */
+  public static synchronized void release(@Nullable Bitmap bitmap) {
+    int[] count = bitmap == null ? null : referenceCounts.get(bitmap);
+    if (count == null || --count[0] > 0) {
+      return;
+    }
+    referenceCounts.remove(bitmap);
+    if (pooledBitmaps.size() == MAX_POOLED_BITMAPS) {
+      // Most likely left over from a previous resolution.
+      pooledBitmaps.remove(0);
+    }
+    pooledBitmaps.add(bitmap);
+  }
+}
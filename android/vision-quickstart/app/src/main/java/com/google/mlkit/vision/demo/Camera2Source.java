@@ -0,0 +1,677 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Range;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.WindowManager;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.RequiresPermission;
+import com.google.android.gms.common.images.Size;
+import com.google.mlkit.vision.demo.CameraSource.SizePair;
+import com.google.mlkit.vision.demo.preference.PreferenceUtils;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Live preview from the Camera2 API. Frames come from an {@link ImageReader} and go to the
+ * detector as the {@link Image}s the camera filled, without being copied into NV21 arrays first.
+ *
+ * <p>The reader holds a fixed number of images, see {@link #setMaxImages}. The processor keeps an
+ * image until the detector is done with it. When a frame arrives, older frames still waiting in the
+ * reader are skipped for it, and the reader is closed only once every image came back.
+ */
+@RequiresApi(VERSION_CODES.LOLLIPOP)
+public class Camera2Source implements LiveCameraSource {
+  private static final String TAG = "MIDemoApp:Camera2Source";
+
+  // Two frames in flight in the processor, one waiting there and one to take the latest frame.
+  private static final int DEFAULT_MAX_IMAGES = 4;
+  private static final int MIN_MAX_IMAGES = 2;
+  private static final long CAMERA_OPEN_TIMEOUT_MS = 2500;
+
+  private final Activity activity;
+  private final GraphicOverlay graphicOverlay;
+  private final CameraManager cameraManager;
+  private final Object processorLock = new Object();
+
+  @GuardedBy("processorLock")
+  private VisionImageProcessor frameProcessor;
+
+  // Scales the requested preview size and frame rate down while the detector can't keep up.
+  private final CaptureGovernor captureGovernor = new CaptureGovernor();
+  // The scale of the capture level the preview size was picked for.
+  private float captureScale;
+
+  private int facing = CameraSource.CAMERA_FACING_FRONT;
+  private int maxImages = DEFAULT_MAX_IMAGES;
+
+  // Set while started. Callbacks of the camera and the reader run on the camera thread.
+  @Nullable private HandlerThread cameraThread;
+  @Nullable private TrackedImageReader imageReader;
+  @Nullable private Size previewSize;
+  private int rotationDegrees;
+
+  // Held while the camera is being opened or closed, so stop() never misses an opening camera.
+  private final Semaphore cameraOpenCloseLock = new Semaphore(1);
+  // Written on the camera thread, closed by stop().
+  @Nullable private volatile CameraDevice cameraDevice;
+  @Nullable private volatile CameraCaptureSession captureSession;
+  // The repeating request of the session once it runs, then only changed by updateFrameRate.
+  @Nullable private volatile CaptureRequest.Builder previewRequest;
+  @Nullable private CameraCharacteristics cameraCharacteristics;
+
+  public Camera2Source(Activity activity, GraphicOverlay overlay) {
+    this.activity = activity;
+    cameraManager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
+    graphicOverlay = overlay;
+    graphicOverlay.clear();
+  }
+
+  // ==============================================================================================
+  // Public
+  // ==============================================================================================
+
+  @Override
+  public void release() {
+    // Outside of the processor lock, the camera thread takes it to hand over frames.
+    stop();
+    synchronized (processorLock) {
+      graphicOverlay.clear();
+      if (frameProcessor != null) {
+        frameProcessor.stop();
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IOException if there is no camera with the requested facing or it can't be accessed
+   */
+  @Override
+  @RequiresPermission(Manifest.permission.CAMERA)
+  public synchronized Camera2Source start() throws IOException {
+    return startCamera(/* surfaceHolder= */ null);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IOException if there is no camera with the requested facing or it can't be accessed
+   */
+  @Override
+  @RequiresPermission(Manifest.permission.CAMERA)
+  public synchronized Camera2Source start(SurfaceHolder surfaceHolder) throws IOException {
+    return startCamera(surfaceHolder);
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (cameraThread == null) {
+      return;
+    }
+    try {
+      cameraOpenCloseLock.acquire();
+      try {
+        if (captureSession != null) {
+          captureSession.close();
+          captureSession = null;
+        }
+        previewRequest = null;
+        if (cameraDevice != null) {
+          cameraDevice.close();
+          cameraDevice = null;
+        }
+      } finally {
+        cameraOpenCloseLock.release();
+      }
+    } catch (InterruptedException e) {
+      Log.d(TAG, "Interrupted while closing the camera.");
+    }
+
+    cameraThread.quitSafely();
+    try {
+      cameraThread.join();
+    } catch (InterruptedException e) {
+      Log.d(TAG, "Camera thread interrupted on stop.");
+    }
+    cameraThread = null;
+
+    Log.i(TAG, "Preview frames skipped: " + imageReader.getSkippedImageCount());
+    // The processor may still be working on images, they have to stay valid until it is done.
+    imageReader.closeWhenIdle();
+    imageReader = null;
+  }
+
+  /**
+   * Sets how many images the image reader holds, taking effect on the next start. The processor
+   * keeps one image per frame in flight or waiting, and taking the latest frame needs one more.
+   */
+  public synchronized void setMaxImages(int maxImages) {
+    if (maxImages < MIN_MAX_IMAGES) {
+      throw new IllegalArgumentException("Invalid max images: " + maxImages);
+    }
+    this.maxImages = maxImages;
+  }
+
+  @Override
+  public synchronized void setFacing(int facing) {
+    if ((facing != CameraSource.CAMERA_FACING_BACK)
+        && (facing != CameraSource.CAMERA_FACING_FRONT)) {
+      throw new IllegalArgumentException("Invalid camera: " + facing);
+    }
+    this.facing = facing;
+  }
+
+  @Override
+  public int getCameraFacing() {
+    return facing;
+  }
+
+  @Override
+  @Nullable
+  public Size getPreviewSize() {
+    return previewSize;
+  }
+
+  @Override
+  public CaptureGovernor getCaptureGovernor() {
+    return captureGovernor;
+  }
+
+  @Override
+  public synchronized boolean updateFrameRate(CaptureGovernor.Level level) {
+    if (cameraThread == null) {
+      // The next start applies it.
+      return true;
+    }
+    CameraCaptureSession session = captureSession;
+    CaptureRequest.Builder request = previewRequest;
+    if (level.scale != captureScale || session == null || request == null) {
+      return false;
+    }
+    Range<Integer> fpsRange = new CaptureRequestSettings(cameraCharacteristics, level.fps).fpsRange;
+    if (fpsRange == null) {
+      return false;
+    }
+    request.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+    try {
+      session.setRepeatingRequest(request.build(), /* listener= */ null, /* handler= */ null);
+    } catch (CameraAccessException | IllegalStateException e) {
+      Log.e(TAG, "Failed to update the preview frame rate: " + e);
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public void setMachineLearningFrameProcessor(VisionImageProcessor processor) {
+    synchronized (processorLock) {
+      graphicOverlay.clear();
+      if (frameProcessor != null) {
+        frameProcessor.stop();
+      }
+      frameProcessor = processor;
+      if (processor != null) {
+        processor.setCaptureGovernor(captureGovernor);
+      }
+    }
+  }
+
+  // ==============================================================================================
+  // Setup
+  // ==============================================================================================
+
+  @RequiresPermission(Manifest.permission.CAMERA)
+  private Camera2Source startCamera(@Nullable SurfaceHolder surfaceHolder) throws IOException {
+    if (cameraThread != null) {
+      return this;
+    }
+
+    String cameraId;
+    CameraCharacteristics characteristics;
+    try {
+      cameraId = getIdForRequestedFacing(facing);
+      if (cameraId == null) {
+        throw new IOException("Could not find requested camera.");
+      }
+      characteristics = cameraManager.getCameraCharacteristics(cameraId);
+    } catch (CameraAccessException e) {
+      throw new IOException("Could not access camera.", e);
+    }
+
+    StreamConfigurationMap map =
+        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+    captureGovernor.setEnabled(PreferenceUtils.isCaptureGovernorEnabled(activity));
+    CaptureGovernor.Level level = captureGovernor.getLevel();
+    SizePair sizePair = PreferenceUtils.getCameraPreviewSizePair(activity, facing);
+    previewSize =
+        sizePair != null
+            ? selectPreviewSize(
+                map,
+                surfaceHolder != null,
+                level.scale(sizePair.preview.getWidth()),
+                level.scale(sizePair.preview.getHeight()))
+            : selectPreviewSize(
+                map,
+                surfaceHolder != null,
+                level.scale(CameraSource.DEFAULT_REQUESTED_CAMERA_PREVIEW_WIDTH),
+                level.scale(CameraSource.DEFAULT_REQUESTED_CAMERA_PREVIEW_HEIGHT));
+    if (previewSize == null) {
+      throw new IOException("Could not find suitable preview size.");
+    }
+    Log.v(TAG, "Camera preview size: " + previewSize);
+    captureScale = level.scale;
+    cameraCharacteristics = characteristics;
+    rotationDegrees = getRotationDegrees(characteristics);
+
+    @Nullable Surface previewSurface = null;
+    if (surfaceHolder != null) {
+      // The surface gets exactly the frames of the reader, the view scales them.
+      surfaceHolder.setFixedSize(previewSize.getWidth(), previewSize.getHeight());
+      previewSurface = surfaceHolder.getSurface();
+    }
+
+    // Released once the camera is open, or failed to open.
+    try {
+      if (!cameraOpenCloseLock.tryAcquire(CAMERA_OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        throw new IOException("Timed out waiting to open the camera.");
+      }
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while opening the camera.", e);
+    }
+    cameraThread = new HandlerThread("Camera2Source");
+    cameraThread.start();
+    Handler cameraHandler = new Handler(cameraThread.getLooper());
+
+    TrackedImageReader reader =
+        new TrackedImageReader(
+            ImageReader.newInstance(
+                previewSize.getWidth(),
+                previewSize.getHeight(),
+                ImageFormat.YUV_420_888,
+                maxImages));
+    reader.imageReader.setOnImageAvailableListener(
+        unused -> onImageAvailable(reader, rotationDegrees), cameraHandler);
+    imageReader = reader;
+
+    CaptureRequestSettings settings = new CaptureRequestSettings(characteristics, level.fps);
+    try {
+      cameraManager.openCamera(
+          cameraId,
+          new CameraStateCallback(reader, previewSurface, settings, cameraHandler),
+          cameraHandler);
+    } catch (CameraAccessException e) {
+      cameraOpenCloseLock.release();
+      stop();
+      throw new IOException("Could not open camera.", e);
+    }
+    return this;
+  }
+
+  @Nullable
+  private String getIdForRequestedFacing(int facing) throws CameraAccessException {
+    int lensFacing =
+        facing == CameraSource.CAMERA_FACING_FRONT
+            ? CameraCharacteristics.LENS_FACING_FRONT
+            : CameraCharacteristics.LENS_FACING_BACK;
+    for (String cameraId : cameraManager.getCameraIdList()) {
+      Integer cameraLensFacing =
+          cameraManager.getCameraCharacteristics(cameraId).get(CameraCharacteristics.LENS_FACING);
+      if (cameraLensFacing != null && cameraLensFacing == lensFacing) {
+        return cameraId;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Selects the YUV output size closest to the desired one, which the preview surface supports too
+   * if there is one. Like the desired size, output sizes are in the sensor's landscape orientation.
+   */
+  @Nullable
+  private static Size selectPreviewSize(
+      StreamConfigurationMap map,
+      boolean withPreviewSurface,
+      int desiredWidth,
+      int desiredHeight) {
+    List<android.util.Size> surfaceSizes =
+        withPreviewSurface ? Arrays.asList(map.getOutputSizes(SurfaceHolder.class)) : null;
+    android.util.Size selectedSize = null;
+    int minDiff = Integer.MAX_VALUE;
+    for (android.util.Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+      if (surfaceSizes != null && !surfaceSizes.contains(size)) {
+        continue;
+      }
+      int diff =
+          Math.abs(size.getWidth() - desiredWidth) + Math.abs(size.getHeight() - desiredHeight);
+      if (diff < minDiff) {
+        selectedSize = size;
+        minDiff = diff;
+      }
+    }
+    return selectedSize == null
+        ? null
+        : new Size(selectedSize.getWidth(), selectedSize.getHeight());
+  }
+
+  /** Returns the clockwise rotation that makes the camera frames upright on the display. */
+  private int getRotationDegrees(CameraCharacteristics characteristics) {
+    WindowManager windowManager = (WindowManager) activity.getSystemService(Context.WINDOW_SERVICE);
+    int degrees;
+    switch (windowManager.getDefaultDisplay().getRotation()) {
+      case Surface.ROTATION_90:
+        degrees = 90;
+        break;
+      case Surface.ROTATION_180:
+        degrees = 180;
+        break;
+      case Surface.ROTATION_270:
+        degrees = 270;
+        break;
+      default:
+        degrees = 0;
+    }
+    int sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+    if (facing == CameraSource.CAMERA_FACING_FRONT) {
+      return (sensorOrientation + degrees) % 360;
+    }
+    return (sensorOrientation - degrees + 360) % 360;
+  }
+
+  /** Repeating request settings picked from the camera characteristics. */
+  private static final class CaptureRequestSettings {
+    @Nullable final Range<Integer> fpsRange;
+    final boolean continuousFocus;
+
+    CaptureRequestSettings(CameraCharacteristics characteristics, int requestedFps) {
+      // Selected like Camera1 preview ranges, so both sources run at the same rate.
+      Range<Integer> selectedRange = null;
+      Range<Integer>[] ranges =
+          characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+      if (ranges != null) {
+        int[] lowerBounds = new int[ranges.length];
+        int[] upperBounds = new int[ranges.length];
+        for (int i = 0; i < ranges.length; i++) {
+          lowerBounds[i] = ranges[i].getLower();
+          upperBounds[i] = ranges[i].getUpper();
+        }
+        int selected = FpsRangeSelector.select(lowerBounds, upperBounds, requestedFps);
+        if (selected != -1) {
+          selectedRange = ranges[selected];
+        }
+      }
+      fpsRange = selectedRange;
+
+      boolean hasContinuousFocus = false;
+      int[] focusModes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+      if (focusModes != null) {
+        for (int focusMode : focusModes) {
+          hasContinuousFocus |= focusMode == CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO;
+        }
+      }
+      continuousFocus = hasContinuousFocus;
+    }
+
+    void applyTo(CaptureRequest.Builder request) {
+      if (fpsRange != null) {
+        request.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+      }
+      if (continuousFocus) {
+        request.set(
+            CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+      } else {
+        Log.i(TAG, "Camera auto focus is not supported on this device.");
+      }
+    }
+  }
+
+  /** Starts the preview once the camera is open, on the camera thread. */
+  private class CameraStateCallback extends CameraDevice.StateCallback {
+    private final TrackedImageReader reader;
+    @Nullable private final Surface previewSurface;
+    private final CaptureRequestSettings settings;
+    private final Handler cameraHandler;
+    // Whether the open lock taken in startCamera is still held for this open. Only accessed on
+    // the camera thread.
+    private boolean openPending = true;
+
+    CameraStateCallback(
+        TrackedImageReader reader,
+        @Nullable Surface previewSurface,
+        CaptureRequestSettings settings,
+        Handler cameraHandler) {
+      this.reader = reader;
+      this.previewSurface = previewSurface;
+      this.settings = settings;
+      this.cameraHandler = cameraHandler;
+    }
+
+    @Override
+    public void onOpened(@NonNull CameraDevice camera) {
+      cameraDevice = camera;
+      releaseOpenLock();
+
+      List<Surface> targets = new ArrayList<>();
+      targets.add(reader.imageReader.getSurface());
+      if (previewSurface != null) {
+        targets.add(previewSurface);
+      }
+      try {
+        CaptureRequest.Builder request = camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+        for (Surface target : targets) {
+          request.addTarget(target);
+        }
+        settings.applyTo(request);
+        camera.createCaptureSession(
+            targets,
+            new CameraCaptureSession.StateCallback() {
+              @Override
+              public void onConfigured(@NonNull CameraCaptureSession session) {
+                captureSession = session;
+                try {
+                  session.setRepeatingRequest(request.build(), /* listener= */ null, cameraHandler);
+                  previewRequest = request;
+                } catch (CameraAccessException | IllegalStateException e) {
+                  // The camera was closed in the meantime.
+                  Log.e(TAG, "Failed to start the preview: " + e);
+                }
+              }
+
+              @Override
+              public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                Log.e(TAG, "Failed to configure the capture session.");
+              }
+            },
+            cameraHandler);
+      } catch (CameraAccessException | IllegalStateException e) {
+        Log.e(TAG, "Failed to create the capture session: " + e);
+      }
+    }
+
+    @Override
+    public void onDisconnected(@NonNull CameraDevice camera) {
+      releaseOpenLock();
+      camera.close();
+      cameraDevice = null;
+    }
+
+    @Override
+    public void onError(@NonNull CameraDevice camera, int error) {
+      Log.e(TAG, "Camera error: " + error);
+      releaseOpenLock();
+      camera.close();
+      cameraDevice = null;
+    }
+
+    /**
+     * Releases the open lock if this open still holds it. The camera can be disconnected or fail
+     * after it was opened, which must not add another permit.
+     */
+    private void releaseOpenLock() {
+      if (openPending) {
+        openPending = false;
+        cameraOpenCloseLock.release();
+      }
+    }
+  }
+
+  // ==============================================================================================
+  // Frame processing
+  // ==============================================================================================
+
+  /** Hands the latest frame of the reader to the processor, on the camera thread. */
+  private void onImageAvailable(TrackedImageReader reader, int rotationDegrees) {
+    Image image = reader.acquireLatestImage();
+    if (image == null) {
+      return;
+    }
+    ImageRelease onImageDone = new ImageRelease(reader, image);
+    synchronized (processorLock) {
+      if (frameProcessor == null) {
+        onImageDone.run();
+        return;
+      }
+      try {
+        frameProcessor.processMediaImage(image, rotationDegrees, graphicOverlay, onImageDone);
+      } catch (Exception e) {
+        Log.e(TAG, "Exception thrown from receiver.", e);
+        onImageDone.run();
+      }
+    }
+  }
+
+  /** Gives an image back to its reader, once. */
+  private static final class ImageRelease implements Runnable {
+    private final TrackedImageReader reader;
+    private final Image image;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    ImageRelease(TrackedImageReader reader, Image image) {
+      this.reader = reader;
+      this.image = image;
+    }
+
+    @Override
+    public void run() {
+      if (released.compareAndSet(false, true)) {
+        reader.release(image);
+      }
+    }
+  }
+
+  /**
+   * An image reader counting the images taken from it, so it is closed only once they all came
+   * back. Images may be given back on any thread.
+   */
+  private static final class TrackedImageReader {
+    final ImageReader imageReader;
+
+    @GuardedBy("this")
+    private int imagesInUse;
+
+    @GuardedBy("this")
+    private long skippedImages;
+
+    @GuardedBy("this")
+    private boolean closeWhenIdle;
+
+    TrackedImageReader(ImageReader imageReader) {
+      this.imageReader = imageReader;
+    }
+
+    /**
+     * Takes the latest image, closing older ones waiting in the reader. Returns {@code null} if
+     * there is none, or if every image is already taken.
+     */
+    @Nullable
+    synchronized Image acquireLatestImage() {
+      if (closeWhenIdle) {
+        return null;
+      }
+      Image latest = null;
+      while (true) {
+        Image next;
+        try {
+          next = imageReader.acquireNextImage();
+        } catch (IllegalStateException e) {
+          // Every image is taken, newer frames wait in the reader until one comes back.
+          break;
+        }
+        if (next == null) {
+          break;
+        }
+        if (latest != null) {
+          latest.close();
+          skippedImages++;
+        }
+        latest = next;
+      }
+      if (latest != null) {
+        imagesInUse++;
+      }
+      return latest;
+    }
+
+    synchronized void release(Image image) {
+      image.close();
+      imagesInUse--;
+      if (closeWhenIdle && imagesInUse == 0) {
+        imageReader.close();
+      }
+    }
+
+    /** Closes the reader once every image taken from it came back. */
+    synchronized void closeWhenIdle() {
+      closeWhenIdle = true;
+      if (imagesInUse == 0) {
+        imageReader.close();
+      }
+    }
+
+    synchronized long getSkippedImageCount() {
+      return skippedImages;
+    }
+  }
+}
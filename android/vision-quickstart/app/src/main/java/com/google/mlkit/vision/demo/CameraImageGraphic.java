@@ -20,7 +20,7 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import com.google.mlkit.vision.demo.GraphicOverlay.Graphic;
 
-/** Draw camera image to background. */
+/** Draw camera image to background. Takes over a reference to a pooled bitmap. */
 public class CameraImageGraphic extends Graphic {
 
   private final Bitmap bitmap;
@@ -34,4 +34,9 @@ public class CameraImageGraphic extends Graphic {
   public void draw(Canvas canvas) {
     canvas.drawBitmap(bitmap, getTransformationMatrix(), null);
   }
+
+  @Override
+  protected void onRemoved() {
+    BitmapPool.release(bitmap);
+  }
 }
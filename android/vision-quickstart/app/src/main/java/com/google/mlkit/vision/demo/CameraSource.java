@@ -24,10 +24,12 @@ import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.WindowManager;
+import androidx.annotation.GuardedBy;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresPermission;
 import com.google.android.gms.common.images.Size;
@@ -35,15 +37,15 @@ import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Manages the camera and allows UI updates on top of it (e.g. overlaying extra Graphics or
  * displaying extra information). This receives preview frames from the camera at a specified rate,
  * sending those frames to child classes' detectors / classifiers as fast as it is able to process.
  */
-public class CameraSource {
+public class CameraSource implements LiveCameraSource {
   @SuppressLint("InlinedApi")
   public static final int CAMERA_FACING_BACK = CameraInfo.CAMERA_FACING_BACK;
 
@@ -80,9 +82,23 @@ public class CameraSource {
 
   private Size previewSize;
 
-  private static final float REQUESTED_FPS = 30.0f;
   private static final boolean REQUESTED_AUTO_FOCUS = true;
 
+  // Six frame buffers are needed for working with the camera:
+  //
+  //   two for the frames the processor runs detection on, see FramePipeline
+  //   one for the frame waiting in the processor for a free slot
+  //   one for the next pending frame to hand to the processor
+  //   two for the frames that the camera uses to populate future preview images
+  //
+  // Through trial and error it appears that two free buffers, in addition to the buffers used in
+  // this code, are needed for the camera to work properly.  Perhaps the camera has one thread for
+  // acquiring images, and another thread for calling into user code.  If fewer buffers are used,
+  // then the camera will spew thousands of warning messages when detection takes a non-trivial
+  // amount of time.
+  private static final int DEFAULT_PREVIEW_BUFFER_COUNT = 6;
+  private static final int MIN_PREVIEW_BUFFER_COUNT = 3;
+
   // This instance needs to be held onto to avoid GC of its underlying resources. Even though it
   // isn't used outside of the method that creates it, it still must have hard references maintained
   // to it.
@@ -96,27 +112,32 @@ public class CameraSource {
    */
   private Thread processingThread;
 
-  private final FrameProcessingRunnable processingRunnable;
+  private FrameProcessingRunnable processingRunnable;
   private final Object processorLock = new Object();
 
   private VisionImageProcessor frameProcessor;
 
+  // Scales the requested preview size and frame rate down while the detector can't keep up.
+  private final CaptureGovernor captureGovernor = new CaptureGovernor();
+  // The scale of the capture level the preview size was picked for.
+  private float captureScale;
+
   /**
-   * Map to convert between a byte array, received from the camera, and its associated byte buffer.
-   * We use byte buffers internally because this is a more efficient way to call into native code
-   * later (avoids a potential copy).
-   *
-   * <p><b>Note:</b> uses IdentityHashMap here instead of HashMap because the behavior of an array's
-   * equals, hashCode and toString methods is both useless and unexpected. IdentityHashMap enforces
-   * identity ('==') check on the keys.
+   * Ring of the buffers the camera fills, handing the latest frame to the processing thread. We use
+   * byte buffers internally because this is a more efficient way to call into native code later
+   * (avoids a potential copy). Created with the camera.
    */
-  private final IdentityHashMap<byte[], ByteBuffer> bytesToByteBuffer = new IdentityHashMap<>();
+  private PreviewFrameExchanger frameExchanger;
+
+  // Gives the buffers back to the camera once the processor is done with them.
+  private PreviewBufferReturn bufferReturn;
+
+  private int previewBufferCount = DEFAULT_PREVIEW_BUFFER_COUNT;
 
   public CameraSource(Activity activity, GraphicOverlay overlay) {
     this.activity = activity;
     graphicOverlay = overlay;
     graphicOverlay.clear();
-    processingRunnable = new FrameProcessingRunnable();
   }
 
   // ==============================================================================================
@@ -124,6 +145,7 @@ public class CameraSource {
   // ==============================================================================================
 
   /** Stops the camera and releases the resources of the camera and underlying detector. */
+  @Override
   public void release() {
     synchronized (processorLock) {
       stop();
@@ -141,6 +163,7 @@ public class CameraSource {
    *
    * @throws IOException if the camera's preview texture or display could not be initialized
    */
+  @Override
   @RequiresPermission(Manifest.permission.CAMERA)
   public synchronized CameraSource start() throws IOException {
     if (camera != null) {
@@ -152,9 +175,7 @@ public class CameraSource {
     camera.setPreviewTexture(dummySurfaceTexture);
     camera.startPreview();
 
-    processingThread = new Thread(processingRunnable);
-    processingRunnable.setActive(true);
-    processingThread.start();
+    startProcessingThread();
     return this;
   }
 
@@ -165,6 +186,7 @@ public class CameraSource {
    * @param surfaceHolder the surface holder to use for the preview frames
    * @throws IOException if the supplied surface holder could not be used as the preview display
    */
+  @Override
   @RequiresPermission(Manifest.permission.CAMERA)
   public synchronized CameraSource start(SurfaceHolder surfaceHolder) throws IOException {
     if (camera != null) {
@@ -175,10 +197,14 @@ public class CameraSource {
     camera.setPreviewDisplay(surfaceHolder);
     camera.startPreview();
 
+    startProcessingThread();
+    return this;
+  }
+
+  private void startProcessingThread() {
+    processingRunnable = new FrameProcessingRunnable(frameExchanger, bufferReturn);
     processingThread = new Thread(processingRunnable);
-    processingRunnable.setActive(true);
     processingThread.start();
-    return this;
   }
 
   /**
@@ -190,21 +216,35 @@ public class CameraSource {
    * <p>Call {@link #release()} instead to completely shut down this camera source and release the
    * resources of the underlying detector.
    */
+  @Override
   public synchronized void stop() {
-    processingRunnable.setActive(false);
     if (processingThread != null) {
+      processingRunnable.stop();
       try {
         // Wait for the thread to complete to ensure that we can't have multiple threads
         // executing at the same time (i.e., which would happen if we called start too
         // quickly after stop).
         processingThread.join();
+        Log.i(
+            TAG,
+            "Preview frames processed: "
+                + frameExchanger.getProcessedFrameCount()
+                + ", dropped: "
+                + frameExchanger.getDroppedFrameCount()
+                + ", mean wait: "
+                + processingRunnable.getMeanFrameWaitMs()
+                + " ms");
       } catch (InterruptedException e) {
         Log.d(TAG, "Frame processing thread interrupted on release.");
       }
       processingThread = null;
+      processingRunnable = null;
     }
 
     if (camera != null) {
+      // The processor may still hold buffers, they are dropped with the ring once it is done.
+      bufferReturn.close();
+      bufferReturn = null;
       camera.stopPreview();
       camera.setPreviewCallbackWithBuffer(null);
       try {
@@ -219,10 +259,35 @@ public class CameraSource {
     }
 
     // Release the reference to any image buffers, since these will no longer be in use.
-    bytesToByteBuffer.clear();
+    frameExchanger = null;
+  }
+
+  /**
+   * Sets how many preview buffers the camera fills in turn, taking effect on the next start. More
+   * buffers let the camera keep delivering while frames are processed, at the cost of memory.
+   */
+  public synchronized void setPreviewBufferCount(int count) {
+    if (count < MIN_PREVIEW_BUFFER_COUNT) {
+      throw new IllegalArgumentException("Invalid preview buffer count: " + count);
+    }
+    previewBufferCount = count;
+  }
+
+  /** Returns how many preview frames were processed since the camera started, 0 if stopped. */
+  public synchronized long getProcessedFrameCount() {
+    return frameExchanger == null ? 0 : frameExchanger.getProcessedFrameCount();
+  }
+
+  /**
+   * Returns how many preview frames were dropped since the camera started, because a newer frame
+   * arrived before they were processed. Returns 0 if stopped.
+   */
+  public synchronized long getDroppedFrameCount() {
+    return frameExchanger == null ? 0 : frameExchanger.getDroppedFrameCount();
   }
 
   /** Changes the facing of the camera. */
+  @Override
   public synchronized void setFacing(int facing) {
     if ((facing != CAMERA_FACING_BACK) && (facing != CAMERA_FACING_FRONT)) {
       throw new IllegalArgumentException("Invalid camera: " + facing);
@@ -231,6 +296,7 @@ public class CameraSource {
   }
 
   /** Returns the preview size that is currently in use by the underlying camera. */
+  @Override
   public Size getPreviewSize() {
     return previewSize;
   }
@@ -239,10 +305,43 @@ public class CameraSource {
    * Returns the selected camera; one of {@link #CAMERA_FACING_BACK} or {@link
    * #CAMERA_FACING_FRONT}.
    */
+  @Override
   public int getCameraFacing() {
     return facing;
   }
 
+  /** Returns the governor picking the preview size and frame rate applied on start. */
+  @Override
+  public CaptureGovernor getCaptureGovernor() {
+    return captureGovernor;
+  }
+
+  @Override
+  public synchronized boolean updateFrameRate(CaptureGovernor.Level level) {
+    if (camera == null) {
+      // The next start applies it.
+      return true;
+    }
+    if (level.scale != captureScale) {
+      return false;
+    }
+    int[] previewFpsRange = selectPreviewFpsRange(camera, level.fps);
+    if (previewFpsRange == null) {
+      return false;
+    }
+    Camera.Parameters parameters = camera.getParameters();
+    parameters.setPreviewFpsRange(
+        previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+        previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+    try {
+      camera.setParameters(parameters);
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Failed to update the preview frame rate: " + e);
+      return false;
+    }
+    return true;
+  }
+
   /**
    * Opens the camera and applies the user settings.
    *
@@ -256,13 +355,22 @@ public class CameraSource {
     }
     Camera camera = Camera.open(requestedCameraId);
 
+    captureGovernor.setEnabled(PreferenceUtils.isCaptureGovernorEnabled(activity));
+    CaptureGovernor.Level level = captureGovernor.getLevel();
     SizePair sizePair = PreferenceUtils.getCameraPreviewSizePair(activity, requestedCameraId);
     if (sizePair == null) {
       sizePair =
           selectSizePair(
               camera,
-              DEFAULT_REQUESTED_CAMERA_PREVIEW_WIDTH,
-              DEFAULT_REQUESTED_CAMERA_PREVIEW_HEIGHT);
+              level.scale(DEFAULT_REQUESTED_CAMERA_PREVIEW_WIDTH),
+              level.scale(DEFAULT_REQUESTED_CAMERA_PREVIEW_HEIGHT));
+    } else if (level.scale < 1) {
+      // The preferred size is the one for full quality.
+      sizePair =
+          selectSizePair(
+              camera,
+              level.scale(sizePair.preview.getWidth()),
+              level.scale(sizePair.preview.getHeight()));
     }
 
     if (sizePair == null) {
@@ -270,9 +378,10 @@ public class CameraSource {
     }
 
     previewSize = sizePair.preview;
+    captureScale = level.scale;
     Log.v(TAG, "Camera preview size: " + previewSize);
 
-    int[] previewFpsRange = selectPreviewFpsRange(camera, REQUESTED_FPS);
+    int[] previewFpsRange = selectPreviewFpsRange(camera, level.fps);
     if (previewFpsRange == null) {
       throw new IOException("Could not find suitable preview frames per second range.");
     }
@@ -306,22 +415,17 @@ public class CameraSource {
 
     camera.setParameters(parameters);
 
-    // Four frame buffers are needed for working with the camera:
-    //
-    //   one for the frame that is currently being executed upon in doing detection
-    //   one for the next pending frame to process immediately upon completing detection
-    //   two for the frames that the camera uses to populate future preview images
-    //
-    // Through trial and error it appears that two free buffers, in addition to the two buffers
-    // used in this code, are needed for the camera to work properly.  Perhaps the camera has
-    // one thread for acquiring images, and another thread for calling into user code.  If only
-    // three buffers are used, then the camera will spew thousands of warning messages when
-    // detection takes a non-trivial amount of time.
-    camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
+    // See DEFAULT_PREVIEW_BUFFER_COUNT for how many buffers the camera needs.
+    ByteBuffer[] previewBuffers = new ByteBuffer[previewBufferCount];
+    for (int i = 0; i < previewBufferCount; i++) {
+      previewBuffers[i] = createPreviewBuffer(previewSize);
+    }
+    frameExchanger = new PreviewFrameExchanger(previewBuffers);
+    bufferReturn = new PreviewBufferReturn(camera);
+    camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback(frameExchanger));
+    for (int i = 0; i < frameExchanger.getBufferCount(); i++) {
+      camera.addCallbackBuffer(frameExchanger.getBuffer(i));
+    }
 
     return camera;
   }
@@ -444,7 +548,8 @@ public class CameraSource {
   }
 
   /**
-   * Selects the most suitable preview frames per second range, given the desired frames per second.
+   * Selects the most suitable preview frames per second range, given the desired frames per second,
+   * see {@link FpsRangeSelector}.
    *
    * @param camera the camera to select a frames per second range from
    * @param desiredPreviewFps the desired frames per second for the camera preview frames
@@ -456,25 +561,15 @@ public class CameraSource {
     // rates.
     int desiredPreviewFpsScaled = (int) (desiredPreviewFps * 1000.0f);
 
-    // Selects a range with whose upper bound is as close as possible to the desired fps while its
-    // lower bound is as small as possible to properly expose frames in low light conditions. Note
-    // that this may select a range that the desired value is outside of. For example, if the
-    // desired frame rate is 30.5, the range (30, 30) is probably more desirable than (30, 40).
-    int[] selectedFpsRange = null;
-    int minUpperBoundDiff = Integer.MAX_VALUE;
-    int minLowerBound = Integer.MAX_VALUE;
     List<int[]> previewFpsRangeList = camera.getParameters().getSupportedPreviewFpsRange();
-    for (int[] range : previewFpsRangeList) {
-      int upperBoundDiff =
-          Math.abs(desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
-      int lowerBound = range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
-      if (upperBoundDiff <= minUpperBoundDiff && lowerBound <= minLowerBound) {
-        selectedFpsRange = range;
-        minUpperBoundDiff = upperBoundDiff;
-        minLowerBound = lowerBound;
-      }
+    int[] lowerBounds = new int[previewFpsRangeList.size()];
+    int[] upperBounds = new int[previewFpsRangeList.size()];
+    for (int i = 0; i < previewFpsRangeList.size(); i++) {
+      lowerBounds[i] = previewFpsRangeList.get(i)[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+      upperBounds[i] = previewFpsRangeList.get(i)[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
     }
-    return selectedFpsRange;
+    int selected = FpsRangeSelector.select(lowerBounds, upperBounds, desiredPreviewFpsScaled);
+    return selected == -1 ? null : previewFpsRangeList.get(selected);
   }
 
   /**
@@ -533,7 +628,7 @@ public class CameraSource {
    * @return a new preview buffer of the appropriate size for the current camera settings
    */
   @SuppressLint("InlinedApi")
-  private byte[] createPreviewBuffer(Size previewSize) {
+  private static ByteBuffer createPreviewBuffer(Size previewSize) {
     int bitsPerPixel = ImageFormat.getBitsPerPixel(IMAGE_FORMAT);
     long sizeInBits = (long) previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
     int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
@@ -548,8 +643,7 @@ public class CameraSource {
       throw new IllegalStateException("Failed to create valid buffer for camera source.");
     }
 
-    bytesToByteBuffer.put(byteArray, buffer);
-    return byteArray;
+    return buffer;
   }
 
   // ==============================================================================================
@@ -557,13 +651,71 @@ public class CameraSource {
   // ==============================================================================================
 
   /** Called when the camera has a new preview frame. */
-  private class CameraPreviewCallback implements Camera.PreviewCallback {
+  private static class CameraPreviewCallback implements Camera.PreviewCallback {
+    private final PreviewFrameExchanger frameExchanger;
+
+    CameraPreviewCallback(PreviewFrameExchanger frameExchanger) {
+      this.frameExchanger = frameExchanger;
+    }
+
+    /**
+     * Hands the frame to the processing thread. A pending frame it replaces was never processed,
+     * its buffer goes straight back to the camera.
+     */
     @Override
     public void onPreviewFrame(byte[] data, Camera camera) {
-      processingRunnable.setNextFrame(data, camera);
+      PreviewFrameExchanger.Frame frame = frameExchanger.findFrame(data);
+      if (frame == null) {
+        Log.d(
+            TAG,
+            "Skipping frame. Could not find ByteBuffer associated with the image "
+                + "data from the camera.");
+        return;
+      }
+      PreviewFrameExchanger.Frame dropped =
+          frameExchanger.publish(frame, SystemClock.elapsedRealtimeNanos());
+      if (dropped != null) {
+        camera.addCallbackBuffer(dropped.data);
+      }
     }
   }
 
+  /**
+   * Gives preview buffers back to the camera once the processor is done with them, which may be
+   * after the camera was stopped and released.
+   */
+  private static final class PreviewBufferReturn {
+    @GuardedBy("this")
+    @Nullable
+    private Camera camera;
+
+    PreviewBufferReturn(Camera camera) {
+      this.camera = camera;
+    }
+
+    /** Returns a runnable giving {@code data} back to the camera, at most once. */
+    Runnable forBuffer(byte[] data) {
+      AtomicBoolean isReturned = new AtomicBoolean();
+      return () -> {
+        if (isReturned.compareAndSet(false, true)) {
+          give(data);
+        }
+      };
+    }
+
+    private synchronized void give(byte[] data) {
+      if (camera != null) {
+        camera.addCallbackBuffer(data);
+      }
+    }
+
+    /** Stops giving buffers back, to be called before the camera is released. */
+    synchronized void close() {
+      camera = null;
+    }
+  }
+
+  @Override
   public void setMachineLearningFrameProcessor(VisionImageProcessor processor) {
     synchronized (processorLock) {
       cleanScreen();
@@ -571,6 +723,9 @@ public class CameraSource {
         frameProcessor.stop();
       }
       frameProcessor = processor;
+      if (processor != null) {
+        processor.setCaptureGovernor(captureGovernor);
+      }
     }
   }
 
@@ -580,61 +735,44 @@ public class CameraSource {
    * (i.e., without unnecessary context switching or waiting on the next frame).
    *
    * <p>While detection is running on a frame, new frames may be received from the camera. As these
-   * frames come in, the most recent frame is held onto as pending. As soon as detection and its
-   * associated processing is done for the previous frame, detection on the mostly recently received
-   * frame will immediately start on the same thread.
+   * frames come in, the most recent frame is held onto as pending by the {@link
+   * PreviewFrameExchanger}. As soon as detection and its associated processing is done for the
+   * previous frame, detection on the mostly recently received frame will immediately start on the
+   * same thread.
    */
   private class FrameProcessingRunnable implements Runnable {
 
-    // This lock guards all of the member variables below.
-    private final Object lock = new Object();
-    private boolean active = true;
+    private final PreviewFrameExchanger frameExchanger;
+    private final PreviewBufferReturn bufferReturn;
 
-    // These pending variables hold the state associated with the new frame awaiting processing.
-    private ByteBuffer pendingFrameData;
+    // Time from the camera returning a frame to its processing start, only touched by run().
+    private long totalFrameWaitNanos;
 
-    FrameProcessingRunnable() {}
+    FrameProcessingRunnable(
+        PreviewFrameExchanger frameExchanger, PreviewBufferReturn bufferReturn) {
+      this.frameExchanger = frameExchanger;
+      this.bufferReturn = bufferReturn;
+    }
 
-    /** Marks the runnable as active/not active. Signals any blocked threads to continue. */
-    void setActive(boolean active) {
-      synchronized (lock) {
-        this.active = active;
-        lock.notifyAll();
-      }
+    /** Makes the processing loop exit once done with its current frame. */
+    void stop() {
+      frameExchanger.close();
     }
 
     /**
-     * Sets the frame data received from the camera. This adds the previous unused frame buffer (if
-     * present) back to the camera, and keeps a pending reference to the frame data for future use.
+     * Returns the mean time frames waited from the camera returning them to their processing
+     * start. Only valid once the processing thread ended.
      */
-    @SuppressWarnings("ByteBufferBackingArray")
-    void setNextFrame(byte[] data, Camera camera) {
-      synchronized (lock) {
-        if (pendingFrameData != null) {
-          camera.addCallbackBuffer(pendingFrameData.array());
-          pendingFrameData = null;
-        }
-
-        if (!bytesToByteBuffer.containsKey(data)) {
-          Log.d(
-              TAG,
-              "Skipping frame. Could not find ByteBuffer associated with the image "
-                  + "data from the camera.");
-          return;
-        }
-
-        pendingFrameData = bytesToByteBuffer.get(data);
-
-        // Notify the processor thread if it is waiting on the next frame (see below).
-        lock.notifyAll();
-      }
+    long getMeanFrameWaitMs() {
+      long processedFrames = frameExchanger.getProcessedFrameCount();
+      return processedFrames == 0 ? 0 : totalFrameWaitNanos / processedFrames / 1_000_000;
     }
 
     /**
      * As long as the processing thread is active, this executes detection on frames continuously.
      * The next pending frame is either immediately available or hasn't been received yet. Once it
-     * is available, we transfer the frame info to local variables and run detection on that frame.
-     * It immediately loops back for the next frame without pausing.
+     * is available, we run detection on that frame. It immediately loops back for the next frame
+     * without pausing.
      *
      * <p>If detection takes longer than the time in between new frames from the camera, this will
      * mean that this loop will run without ever waiting on a frame, avoiding any context switching
@@ -643,59 +781,29 @@ public class CameraSource {
      * <p>If you find that this is using more CPU than you'd like, you should probably decrease the
      * FPS setting above to allow for some idle time in between frames.
      */
-    @SuppressLint("InlinedApi")
-    @SuppressWarnings({"GuardedBy", "ByteBufferBackingArray"})
     @Override
     public void run() {
-      ByteBuffer data;
-
-      while (true) {
-        synchronized (lock) {
-          while (active && (pendingFrameData == null)) {
-            try {
-              // Wait for the next frame to be received from the camera, since we
-              // don't have it yet.
-              lock.wait();
-            } catch (InterruptedException e) {
-              Log.d(TAG, "Frame processing loop terminated.", e);
-              return;
-            }
-          }
-
-          if (!active) {
-            // Exit the loop once this camera source is stopped or released.  We check
-            // this here, immediately after the wait() above, to handle the case where
-            // setActive(false) had been called, triggering the termination of this
-            // loop.
-            return;
-          }
-
-          // Hold onto the frame data locally, so that we can use this for detection
-          // below.  We need to clear pendingFrameData to ensure that this buffer isn't
-          // recycled back to the camera before we are done using that data.
-          data = pendingFrameData;
-          pendingFrameData = null;
-        }
-
-        // The code below needs to run outside of synchronization, because this will allow
-        // the camera to add pending frame(s) while we are running detection on the current
-        // frame.
-
+      PreviewFrameExchanger.Frame frame;
+      // Exits once this camera source is stopped or released.
+      while ((frame = frameExchanger.take()) != null) {
+        totalFrameWaitNanos += SystemClock.elapsedRealtimeNanos() - frame.timestampNanos;
+        // The processor reads the buffer after returning, it gives the buffer back once done.
+        Runnable onBufferDone = bufferReturn.forBuffer(frame.data);
         try {
           synchronized (processorLock) {
             frameProcessor.processByteBuffer(
-                data,
+                frame.buffer,
                 new FrameMetadata.Builder()
                     .setWidth(previewSize.getWidth())
                     .setHeight(previewSize.getHeight())
                     .setRotation(rotationDegrees)
                     .build(),
-                graphicOverlay);
+                graphicOverlay,
+                onBufferDone);
           }
         } catch (Exception t) {
           Log.e(TAG, "Exception thrown from receiver.", t);
-        } finally {
-          camera.addCallbackBuffer(data.array());
+          onBufferDone.run();
         }
       }
     }
@@ -35,7 +35,9 @@ public class CameraSourcePreview extends ViewGroup {
   private final SurfaceView surfaceView;
   private boolean startRequested;
   private boolean surfaceAvailable;
-  private CameraSource cameraSource;
+  // Whether the camera was started here and not stopped since.
+  private boolean cameraStarted;
+  private LiveCameraSource cameraSource;
 
   private GraphicOverlay overlay;
 
@@ -50,7 +52,7 @@ public class CameraSourcePreview extends ViewGroup {
     addView(surfaceView);
   }
 
-  private void start(CameraSource cameraSource) throws IOException {
+  private void start(LiveCameraSource cameraSource) throws IOException {
     this.cameraSource = cameraSource;
 
     if (this.cameraSource != null) {
@@ -59,8 +61,17 @@ public class CameraSourcePreview extends ViewGroup {
     }
   }
 
-  public void start(CameraSource cameraSource, GraphicOverlay overlay) throws IOException {
+  public void start(LiveCameraSource cameraSource, GraphicOverlay overlay) throws IOException {
     this.overlay = overlay;
+    cameraSource
+        .getCaptureGovernor()
+        .setListener(
+            level -> {
+              // A new frame rate alone doesn't need the preview to go dark for a restart.
+              if (!cameraSource.updateFrameRate(level)) {
+                restart();
+              }
+            });
     start(cameraSource);
   }
 
@@ -68,10 +79,12 @@ public class CameraSourcePreview extends ViewGroup {
     if (cameraSource != null) {
       cameraSource.stop();
     }
+    cameraStarted = false;
   }
 
   public void release() {
     if (cameraSource != null) {
+      cameraSource.getCaptureGovernor().setListener(null);
       cameraSource.release();
       cameraSource = null;
     }
@@ -85,6 +98,7 @@ public class CameraSourcePreview extends ViewGroup {
       } else {
         cameraSource.start();
       }
+      cameraStarted = true;
       requestLayout();
 
       if (overlay != null) {
@@ -105,6 +119,20 @@ public class CameraSourcePreview extends ViewGroup {
     }
   }
 
+  /** Restarts the camera to apply a new preview size, the next start applies it otherwise. */
+  private void restart() {
+    if (!cameraStarted) {
+      return;
+    }
+    stop();
+    startRequested = true;
+    try {
+      startIfReady();
+    } catch (IOException e) {
+      Log.e(TAG, "Could not restart camera source.", e);
+    }
+  }
+
   private class SurfaceCallback implements SurfaceHolder.Callback {
     @Override
     public void surfaceCreated(SurfaceHolder surface) {
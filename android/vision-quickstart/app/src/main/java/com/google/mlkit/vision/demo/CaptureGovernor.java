@@ -0,0 +1,274 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import java.util.Locale;
+
+/**
+ * Steps the capture resolution and frame rate down when the detector can't keep up with the
+ * camera, and back up once it has room to spare.
+ *
+ * <p>The processor reports the detector latency of every frame, see {@link
+ * VisionImageProcessor#setCaptureGovernor}. The mean latency of each window of frames is compared
+ * with the frame budget of the current {@link Level}, that is the time between two frames times
+ * the number of frames the processor runs at once. Stepping down takes two windows in a row over
+ * the budget, stepping up takes four windows well under the budget of the level above, so the
+ * capture doesn't flip between two levels.
+ *
+ * <p>Camera sources apply the level when they start. The {@link Listener} applies a new frame
+ * rate to the running camera, and restarts it for a new size.
+ */
+public final class CaptureGovernor {
+  private static final String TAG = "CaptureGovernor";
+
+  /** Capture settings, the requested preview size is scaled by {@code scale}. */
+  public static final class Level {
+    public final float scale;
+    public final int fps;
+
+    Level(float scale, int fps) {
+      this.scale = scale;
+      this.fps = fps;
+    }
+
+    /** Returns the requested size scaled to this level, rounded to an even number of pixels. */
+    public int scale(int size) {
+      return Math.round(size * scale / 2) * 2;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "%d%% @ %d fps", Math.round(scale * 100), fps);
+    }
+  }
+
+  /** Called on the main thread when the capture level changes. */
+  public interface Listener {
+    void onCaptureLevelChanged(Level level);
+  }
+
+  // From full quality down, each step gives the detector more time per frame.
+  private static final Level[] LEVELS = {
+    new Level(1f, 30), new Level(1f, 24), new Level(0.75f, 24), new Level(0.75f, 15),
+    new Level(0.5f, 15),
+  };
+
+  private static final int WINDOW_SIZE = 30;
+  private static final int STEP_DOWN_WINDOWS = 2;
+  private static final int STEP_UP_WINDOWS = 4;
+  // Over budget when the mean latency is more than this times the budget.
+  private static final float STEP_DOWN_RATIO = 1.2f;
+  // Room to step up when the mean latency is less than this times the budget of the level above.
+  private static final float STEP_UP_RATIO = 0.7f;
+  // Camera timestamps jitter by a few milliseconds around the frame interval.
+  private static final long FRAME_TIMESTAMP_SLACK_NS = 3_000_000L;
+
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final int maxFramesInFlight;
+
+  @Nullable private volatile Listener listener;
+  private volatile boolean enabled = true;
+  private volatile int levelIndex;
+  private volatile long meanLatencyMs;
+  private volatile int stepDownCount;
+  private volatile int stepUpCount;
+
+  @GuardedBy("this")
+  private int framesInFlight = 1;
+
+  @GuardedBy("this")
+  private int windowFrames;
+
+  @GuardedBy("this")
+  private long windowTotalMs;
+
+  // Frames left to skip after a change, while the camera restarts and the detector warms up.
+  @GuardedBy("this")
+  private int settleFrames;
+
+  @GuardedBy("this")
+  private int overBudgetWindows;
+
+  @GuardedBy("this")
+  private int underBudgetWindows;
+
+  // Only used by shouldAnalyzeFrame, on the thread receiving the frames.
+  private long nextFrameDueNs = Long.MIN_VALUE;
+
+  public CaptureGovernor() {
+    this(Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param maxFramesInFlight how many frames the camera lets the processor run at once, whatever
+   *     the processor supports. CameraX only hands over the next frame once the last one is closed.
+   */
+  public CaptureGovernor(int maxFramesInFlight) {
+    this.maxFramesInFlight = maxFramesInFlight;
+  }
+
+  public void setListener(@Nullable Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Turns the governor on or off, off it stays at full quality. Meant to be called before the
+   * camera starts, so the listener isn't called for it.
+   */
+  public synchronized void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+    if (!enabled) {
+      levelIndex = 0;
+      restartTracking();
+    }
+  }
+
+  public Level getLevel() {
+    return LEVELS[levelIndex];
+  }
+
+  /** Returns the current level, 0 for full quality. */
+  public int getLevelIndex() {
+    return levelIndex;
+  }
+
+  /** Returns the mean detector latency of the last complete window, 0 before the first one. */
+  public long getMeanDetectorLatencyMs() {
+    return meanLatencyMs;
+  }
+
+  public int getStepDownCount() {
+    return stepDownCount;
+  }
+
+  public int getStepUpCount() {
+    return stepUpCount;
+  }
+
+  /**
+   * Returns whether a frame captured at {@code timestampNs} keeps the frame rate of the current
+   * level, for cameras that can't be set to it like CameraX image analysis. Skipped frames are
+   * closed right away. Called for every frame on the thread receiving them.
+   */
+  public boolean shouldAnalyzeFrame(long timestampNs) {
+    long frameIntervalNs = 1_000_000_000L / getLevel().fps;
+    if (nextFrameDueNs == Long.MIN_VALUE || timestampNs - nextFrameDueNs > frameIntervalNs) {
+      // Frames are due on a fixed schedule, it starts over when the camera falls behind it.
+      nextFrameDueNs = timestampNs;
+    } else if (timestampNs + FRAME_TIMESTAMP_SLACK_NS < nextFrameDueNs) {
+      return false;
+    }
+    nextFrameDueNs += frameIntervalNs;
+    return true;
+  }
+
+  /**
+   * Starts tracking a new processor running up to {@code framesInFlight} frames at a time, the
+   * latency of the previous one doesn't tell anything about it.
+   */
+  public synchronized void attach(int framesInFlight) {
+    this.framesInFlight = Math.min(framesInFlight, maxFramesInFlight);
+    restartTracking();
+  }
+
+  /** Adds the detector latency of a frame, on the thread delivering the results. */
+  public synchronized void recordDetectorLatency(long latencyMs) {
+    if (!enabled) {
+      return;
+    }
+    if (settleFrames > 0) {
+      settleFrames--;
+      return;
+    }
+    windowTotalMs += latencyMs;
+    if (++windowFrames < WINDOW_SIZE) {
+      return;
+    }
+    long meanMs = windowTotalMs / windowFrames;
+    meanLatencyMs = meanMs;
+    windowFrames = 0;
+    windowTotalMs = 0;
+
+    int index = levelIndex;
+    if (index < LEVELS.length - 1 && meanMs > STEP_DOWN_RATIO * getBudgetMs(LEVELS[index])) {
+      underBudgetWindows = 0;
+      if (++overBudgetWindows >= STEP_DOWN_WINDOWS) {
+        stepDownCount++;
+        setLevel(index + 1);
+      }
+    } else if (index > 0 && meanMs < STEP_UP_RATIO * getBudgetMs(LEVELS[index - 1])) {
+      overBudgetWindows = 0;
+      if (++underBudgetWindows >= STEP_UP_WINDOWS) {
+        stepUpCount++;
+        setLevel(index - 1);
+      }
+    } else {
+      overBudgetWindows = 0;
+      underBudgetWindows = 0;
+    }
+  }
+
+  @GuardedBy("this")
+  private float getBudgetMs(Level level) {
+    return 1000f * framesInFlight / level.fps;
+  }
+
+  private synchronized void setLevel(int index) {
+    if (index == levelIndex) {
+      return;
+    }
+    levelIndex = index;
+    restartTracking();
+    // Skip the frames captured before the change and the first ones after the restart.
+    settleFrames = WINDOW_SIZE;
+    Level level = LEVELS[index];
+    Log.i(
+        TAG,
+        "Capture level "
+            + index
+            + " ("
+            + level
+            + "), mean detector latency="
+            + meanLatencyMs
+            + " ms, steps down="
+            + stepDownCount
+            + ", up="
+            + stepUpCount);
+    mainHandler.post(
+        () -> {
+          Listener currentListener = listener;
+          // Only the latest change is applied if several are pending.
+          if (currentListener != null && levelIndex == index) {
+            currentListener.onCaptureLevelChanged(level);
+          }
+        });
+  }
+
+  @GuardedBy("this")
+  private void restartTracking() {
+    windowFrames = 0;
+    windowTotalMs = 0;
+    settleFrames = 0;
+    overBudgetWindows = 0;
+    underBudgetWindows = 0;
+  }
+}
@@ -27,6 +27,7 @@ import android.widget.TextView
 import androidx.core.app.ActivityCompat
 import androidx.core.content.ContextCompat
 import com.google.mlkit.vision.demo.java.ChooserActivity
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierRegistry
 import java.util.ArrayList
 
 class EntryChoiceActivity : AppCompatActivity(), ActivityCompat.OnRequestPermissionsResultCallback {
@@ -35,6 +36,9 @@ class EntryChoiceActivity : AppCompatActivity(), ActivityCompat.OnRequestPermiss
     super.onCreate(savedInstanceState)
     setContentView(R.layout.activity_vision_entry_choice)
 
+    // Load pose classification samples in the background so they're ready for the first frame.
+    PoseClassifierRegistry.warmUp(this)
+
     findViewById<TextView>(R.id.java_entry_point).setOnClickListener {
       val intent = Intent(this@EntryChoiceActivity, ChooserActivity::class.java)
       startActivity(intent)
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+/**
+ * Picks the preview frame rate range for a requested rate, shared by the Camera1 and Camera2
+ * sources so that both pick the same range on the same device.
+ *
+ * <p>The selected range has the upper bound closest to the requested rate and, among those, the
+ * smallest lower bound, to properly expose frames in low light conditions. Note that this may
+ * select a range that the requested rate is outside of. For example, if the requested rate is
+ * 30.5, the range (30, 30) is probably more desirable than (30, 40). Remaining ties, an upper bound
+ * as far below the requested rate as another one is above it, go to the smaller upper bound so
+ * that the result doesn't depend on the order the camera lists its ranges in.
+ */
+final class FpsRangeSelector {
+
+  private FpsRangeSelector() {}
+
+  /**
+   * Returns the index of the selected range, or -1 if there are no ranges.
+   *
+   * @param lowerBounds the lower bounds of the supported ranges
+   * @param upperBounds the upper bounds of the supported ranges, in the same order and unit
+   * @param requestedFps the requested rate, in the unit of the bounds
+   */
+  static int select(int[] lowerBounds, int[] upperBounds, int requestedFps) {
+    int selected = -1;
+    for (int i = 0; i < upperBounds.length; i++) {
+      if (selected == -1 || isBetter(lowerBounds, upperBounds, requestedFps, i, selected)) {
+        selected = i;
+      }
+    }
+    return selected;
+  }
+
+  private static boolean isBetter(
+      int[] lowerBounds, int[] upperBounds, int requestedFps, int candidate, int selected) {
+    int candidateDiff = Math.abs(requestedFps - upperBounds[candidate]);
+    int selectedDiff = Math.abs(requestedFps - upperBounds[selected]);
+    if (candidateDiff != selectedDiff) {
+      return candidateDiff < selectedDiff;
+    }
+    if (lowerBounds[candidate] != lowerBounds[selected]) {
+      return lowerBounds[candidate] < lowerBounds[selected];
+    }
+    return upperBounds[candidate] < upperBounds[selected];
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import androidx.annotation.GuardedBy;
+import com.google.common.base.Preconditions;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs camera frames through a processor with up to {@code maxFramesInFlight} frames at a time.
+ *
+ * <p>A frame is started on a single stage thread, where it is converted and handed to the
+ * detector. While the detector works on it the next frame can already be converted, and while
+ * the results of a frame are drawn the detector can already work on the next one. Results are
+ * delivered in the order the frames were started, whatever order the detector finishes them in.
+ *
+ * <p>Frames arriving while all slots are taken wait according to the {@link DropPolicy}. A
+ * pipeline with one frame in flight and {@link DropPolicy#LATEST_WINS} processes frames strictly
+ * one after the other, always picking the latest one.
+ *
+ * @param <F> the type of a frame.
+ */
+public final class FramePipeline<F> {
+
+  /** What to do with frames arriving while all slots are taken. */
+  public enum DropPolicy {
+    /** Keep only the latest frame waiting, older waiting frames are dropped. */
+    LATEST_WINS,
+    /** Keep up to a number of waiting frames, dropping the oldest when full. */
+    QUEUE_BOUNDED
+  }
+
+  /** Starts and drops frames of a {@link FramePipeline}. */
+  public interface FrameHandler<F> {
+    /**
+     * Starts processing a frame, on the stage thread. Processing must end with {@link
+     * FramePipeline#complete} for the sequence number, also when it fails or this throws, or the
+     * slot of the frame is never freed.
+     */
+    void process(F frame, long sequence);
+
+    /** Releases a frame that will not be processed. */
+    void drop(F frame);
+  }
+
+  private final int maxFramesInFlight;
+  private final DropPolicy dropPolicy;
+  private final int queueCapacity;
+  private final FrameHandler<F> handler;
+  private final ExecutorService stageExecutor = Executors.newSingleThreadExecutor();
+
+  @GuardedBy("this")
+  private final ArrayDeque<F> waitingFrames = new ArrayDeque<>();
+  // Deliveries of finished frames, frame n waits in slot n % maxFramesInFlight for its turn.
+  @GuardedBy("this")
+  private final Runnable[] deliveries;
+
+  @GuardedBy("this")
+  private long nextSequence;
+
+  @GuardedBy("this")
+  private long nextDelivery;
+
+  @GuardedBy("this")
+  private int framesInFlight;
+
+  @GuardedBy("this")
+  private boolean isShutdown;
+
+  /**
+   * @param queueCapacity how many frames may wait with {@link DropPolicy#QUEUE_BOUNDED}, ignored
+   *     with {@link DropPolicy#LATEST_WINS}.
+   */
+  public FramePipeline(
+      int maxFramesInFlight, DropPolicy dropPolicy, int queueCapacity, FrameHandler<F> handler) {
+    Preconditions.checkArgument(maxFramesInFlight > 0, "maxFramesInFlight must be positive");
+    Preconditions.checkArgument(queueCapacity > 0, "queueCapacity must be positive");
+    this.maxFramesInFlight = maxFramesInFlight;
+    this.dropPolicy = dropPolicy;
+    this.queueCapacity = dropPolicy == DropPolicy.LATEST_WINS ? 1 : queueCapacity;
+    this.handler = handler;
+    deliveries = new Runnable[maxFramesInFlight];
+  }
+
+  /** Adds a frame from the camera, it is started right away if a slot is free. */
+  public synchronized void offer(F frame) {
+    if (isShutdown) {
+      handler.drop(frame);
+      return;
+    }
+    if (waitingFrames.size() == queueCapacity) {
+      handler.drop(waitingFrames.poll());
+    }
+    waitingFrames.add(frame);
+    startWaitingFrames();
+  }
+
+  /**
+   * Marks a frame as finished, to be called on the thread results are delivered on. Runs {@code
+   * delivery} once all earlier frames are delivered, which may be right away or in a later call,
+   * and frees the slot of every delivered frame.
+   */
+  public void complete(long sequence, Runnable delivery) {
+    synchronized (this) {
+      deliveries[(int) (sequence % maxFramesInFlight)] = delivery;
+    }
+    while (true) {
+      Runnable next;
+      synchronized (this) {
+        int slot = (int) (nextDelivery % maxFramesInFlight);
+        next = deliveries[slot];
+        if (next == null) {
+          startWaitingFrames();
+          return;
+        }
+        deliveries[slot] = null;
+        nextDelivery++;
+        framesInFlight--;
+      }
+      next.run();
+    }
+  }
+
+  /** Drops the waiting frames and stops starting new ones. */
+  public synchronized void shutdown() {
+    isShutdown = true;
+    while (!waitingFrames.isEmpty()) {
+      handler.drop(waitingFrames.poll());
+    }
+    stageExecutor.shutdown();
+  }
+
+  @GuardedBy("this")
+  private void startWaitingFrames() {
+    while (!isShutdown && framesInFlight < maxFramesInFlight && !waitingFrames.isEmpty()) {
+      F frame = waitingFrames.poll();
+      long sequence = nextSequence++;
+      framesInFlight++;
+      stageExecutor.execute(() -> handler.process(frame, sequence));
+    }
+  }
+}
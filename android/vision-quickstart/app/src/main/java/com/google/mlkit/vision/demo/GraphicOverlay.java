@@ -28,6 +28,7 @@ import android.view.View;
 import com.google.common.base.Preconditions;
 import com.google.common.primitives.Ints;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -52,6 +53,8 @@ import java.util.List;
 public class GraphicOverlay extends View {
   private final Object lock = new Object();
   private final List<Graphic> graphics = new ArrayList<>();
+  // Graphics of the frame being built on the calling thread, see beginFrame().
+  private final ThreadLocal<List<Graphic>> frameInProgress = new ThreadLocal<>();
   // Matrix for transforming from image coordinates to overlay view coordinates.
   private final Matrix transformationMatrix = new Matrix();
 
@@ -96,6 +99,12 @@ public class GraphicOverlay extends View {
      */
     public abstract void draw(Canvas canvas);
 
+    /**
+     * Called when the graphic is removed from the overlay, after its last draw. Override to
+     * release what is only held for drawing.
+     */
+    protected void onRemoved() {}
+
     protected void drawRect(
         Canvas canvas, float left, float top, float right, float bottom, Paint paint) {
       canvas.drawRect(left, top, right, bottom, paint);
@@ -216,9 +225,56 @@ public class GraphicOverlay extends View {
             needUpdateTransformation = true);
   }
 
+  /**
+   * Starts building the graphics of a frame on the calling thread, which may be any thread. Until
+   * {@link #endFrame}, {@link #add}, {@link #remove} and {@link #clear} called on this thread only
+   * change the new frame, and the overlay keeps showing the previous one.
+   */
+  public void beginFrame() {
+    frameInProgress.set(new ArrayList<>());
+  }
+
+  /** Returns the graphics built since {@link #beginFrame}, to be shown with {@link #show}. */
+  public List<Graphic> endFrame() {
+    List<Graphic> frame = frameInProgress.get();
+    frameInProgress.remove();
+    return Collections.unmodifiableList(frame);
+  }
+
+  /** Replaces all graphics with a frame from {@link #endFrame}. */
+  public void show(List<Graphic> frame) {
+    synchronized (lock) {
+      for (Graphic graphic : graphics) {
+        graphic.onRemoved();
+      }
+      graphics.clear();
+      graphics.addAll(frame);
+    }
+    postInvalidate();
+  }
+
+  /** Releases the graphics of a frame from {@link #endFrame} that won't be shown. */
+  public void discard(List<Graphic> frame) {
+    for (Graphic graphic : frame) {
+      graphic.onRemoved();
+    }
+  }
+
   /** Removes all graphics from the overlay. */
   public void clear() {
+    List<Graphic> frame = frameInProgress.get();
+    if (frame != null) {
+      for (Graphic graphic : frame) {
+        graphic.onRemoved();
+      }
+      frame.clear();
+      return;
+    }
     synchronized (lock) {
+      // Drawing holds the lock too, so no graphic is being drawn while they are released.
+      for (Graphic graphic : graphics) {
+        graphic.onRemoved();
+      }
       graphics.clear();
     }
     postInvalidate();
@@ -226,6 +282,11 @@ public class GraphicOverlay extends View {
 
   /** Adds a graphic to the overlay. */
   public void add(Graphic graphic) {
+    List<Graphic> frame = frameInProgress.get();
+    if (frame != null) {
+      frame.add(graphic);
+      return;
+    }
     synchronized (lock) {
       graphics.add(graphic);
     }
@@ -233,8 +294,17 @@ public class GraphicOverlay extends View {
 
   /** Removes a graphic from the overlay. */
   public void remove(Graphic graphic) {
+    List<Graphic> frame = frameInProgress.get();
+    if (frame != null) {
+      if (frame.remove(graphic)) {
+        graphic.onRemoved();
+      }
+      return;
+    }
     synchronized (lock) {
-      graphics.remove(graphic);
+      if (graphics.remove(graphic)) {
+        graphic.onRemoved();
+      }
     }
     postInvalidate();
   }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.Manifest;
+import android.view.SurfaceHolder;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresPermission;
+import com.google.android.gms.common.images.Size;
+import java.io.IOException;
+
+/**
+ * A camera feeding live preview frames to a {@link VisionImageProcessor}, shown by {@link
+ * CameraSourcePreview}. Facings are {@link CameraSource#CAMERA_FACING_BACK} and {@link
+ * CameraSource#CAMERA_FACING_FRONT}.
+ */
+public interface LiveCameraSource {
+
+  /**
+   * Opens the camera and starts sending preview frames to the underlying detector. The preview
+   * frames are not displayed.
+   */
+  @RequiresPermission(Manifest.permission.CAMERA)
+  LiveCameraSource start() throws IOException;
+
+  /**
+   * Opens the camera and starts sending preview frames to the underlying detector. The supplied
+   * surface holder is used for the preview so frames can be displayed to the user.
+   */
+  @RequiresPermission(Manifest.permission.CAMERA)
+  LiveCameraSource start(SurfaceHolder surfaceHolder) throws IOException;
+
+  /** Closes the camera and stops sending frames, it may be started again. */
+  void stop();
+
+  /** Stops the camera and releases the resources of the camera and underlying detector. */
+  void release();
+
+  /** Changes the facing of the camera, taking effect on the next start. */
+  void setFacing(int facing);
+
+  /** Returns the facing of the camera. */
+  int getCameraFacing();
+
+  /** Returns the size of the preview frames, {@code null} until the camera is started. */
+  @Nullable
+  Size getPreviewSize();
+
+  /** Sets the processor preview frames are sent to, stopping the previous one. */
+  void setMachineLearningFrameProcessor(VisionImageProcessor processor);
+
+  /**
+   * Returns the governor adapting the capture to the detector, its level is applied when the
+   * camera starts.
+   */
+  CaptureGovernor getCaptureGovernor();
+
+  /**
+   * Applies the frame rate of a new capture level to the running camera. Returns false if the
+   * level changes the preview size too, which only a restart applies.
+   */
+  boolean updateFrameRate(CaptureGovernor.Level level);
+}
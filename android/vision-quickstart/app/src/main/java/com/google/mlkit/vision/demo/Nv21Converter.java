@@ -0,0 +1,212 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.media.Image;
+import android.media.Image.Plane;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Converts YUV_420_888 images to NV21 byte arrays taken from a pool.
+ *
+ * <p>The NV21 format consists of a single byte array containing the Y, U and V values. For an
+ * image of size S, the first S positions of the array contain all the Y values. The remaining
+ * positions contain interleaved V and U values. U and V are subsampled by a factor of 2 in both
+ * dimensions, so there are S/4 U values and S/4 V values. In summary, the NV21 array will contain
+ * S Y values followed by S/4 VU values: YYYYYYYYYYYYYY(...)YVUVUVUVU(...)VU
+ *
+ * <p>YUV_420_888 is a generic format that can describe any YUV image where U and V are subsampled
+ * by a factor of 2 in both dimensions. {@link Image#getPlanes} returns an array with the Y, U and
+ * V planes. The Y plane is guaranteed not to be interleaved, so its rows are copied in bulk. The U
+ * and V planes may already have the representation in the NV21 format. This happens if the planes
+ * share the same buffer, the V buffer is one position before the U buffer and the planes have a
+ * pixelStride of 2. If this is case, we can just copy them to the NV21 array.
+ *
+ * <p>Whether the chroma planes are NV21 only depends on the stream configuration, so it is
+ * detected once per configuration and only spot checked on the following frames. Output arrays
+ * are sized to the current resolution and reused once handed back with {@link #release}. Buffer
+ * positions of the planes are left untouched.
+ */
+final class Nv21Converter {
+  private static final int MAX_POOLED_BUFFERS = 3;
+  // Chroma bytes compared on each frame to confirm a configuration detected as NV21.
+  private static final int NUM_VERIFY_SAMPLES = 16;
+
+  private final ArrayDeque<byte[]> pool = new ArrayDeque<>();
+  private int pooledSize;
+
+  // Chroma plane configuration the layout was last detected for.
+  private int layoutWidth = -1;
+  private int layoutHeight;
+  private int layoutRowStride;
+  private int layoutPixelStride;
+  private int layoutURemaining;
+  private int layoutVRemaining;
+  private boolean layoutIsNV21;
+
+  private byte[] rowBuffer = new byte[0];
+
+  /**
+   * Converts the planes of a YUV_420_888 image to NV21. Hand the returned array back with {@link
+   * #release} once it is not used anymore.
+   */
+  synchronized byte[] convert(Plane[] yuv420888planes, int width, int height) {
+    int imageSize = width * height;
+    byte[] out = acquire(imageSize + 2 * (imageSize / 4));
+
+    copyYPlane(yuv420888planes[0], width, height, out);
+    if (areUVPlanesNV21(yuv420888planes, width, height)) {
+      ByteBuffer uBuffer = yuv420888planes[1].getBuffer().duplicate();
+      ByteBuffer vBuffer = yuv420888planes[2].getBuffer().duplicate();
+      // Get the first V value from the V buffer, since the U buffer does not contain it.
+      vBuffer.get(out, imageSize, 1);
+      // Copy the first U value and the remaining VU values from the U buffer.
+      uBuffer.get(out, imageSize + 1, 2 * imageSize / 4 - 1);
+    } else {
+      // Fallback to interleaving the UV values, which is slower but also works.
+      // Unpack U.
+      unpackPlane(yuv420888planes[1], width, height, out, imageSize + 1, 2);
+      // Unpack V.
+      unpackPlane(yuv420888planes[2], width, height, out, imageSize, 2);
+    }
+    return out;
+  }
+
+  /** Hands back an array returned by {@link #convert} for reuse. */
+  synchronized void release(byte[] nv21) {
+    if (nv21.length == pooledSize && pool.size() < MAX_POOLED_BUFFERS) {
+      pool.push(nv21);
+    }
+  }
+
+  private byte[] acquire(int size) {
+    if (size != pooledSize) {
+      // The resolution changed, the pooled arrays don't fit anymore.
+      pool.clear();
+      pooledSize = size;
+    }
+    byte[] out = pool.poll();
+    return out != null ? out : new byte[size];
+  }
+
+  private static void copyYPlane(Plane plane, int width, int height, byte[] out) {
+    ByteBuffer buffer = plane.getBuffer().duplicate();
+    buffer.rewind();
+    int rowStride = plane.getRowStride();
+    if (rowStride == width) {
+      buffer.get(out, 0, width * height);
+      return;
+    }
+    for (int row = 0; row < height; row++) {
+      buffer.position(row * rowStride);
+      buffer.get(out, row * width, width);
+    }
+  }
+
+  /** Checks if the UV plane buffers of a YUV_420_888 image are in the NV21 format. */
+  private boolean areUVPlanesNV21(Plane[] planes, int width, int height) {
+    ByteBuffer uBuffer = planes[1].getBuffer();
+    ByteBuffer vBuffer = planes[2].getBuffer();
+    if (width == layoutWidth
+        && height == layoutHeight
+        && planes[1].getRowStride() == layoutRowStride
+        && planes[1].getPixelStride() == layoutPixelStride
+        && uBuffer.remaining() == layoutURemaining
+        && vBuffer.remaining() == layoutVRemaining) {
+      // Planes that share a buffer always compare equal, so a configuration found not to be NV21
+      // never is. One found to be NV21 may have matched by chance, e.g. on a uniform frame.
+      if (!layoutIsNV21 || sampledUVPlanesEqual(uBuffer, vBuffer)) {
+        return layoutIsNV21;
+      }
+    }
+
+    layoutWidth = width;
+    layoutHeight = height;
+    layoutRowStride = planes[1].getRowStride();
+    layoutPixelStride = planes[1].getPixelStride();
+    layoutURemaining = uBuffer.remaining();
+    layoutVRemaining = vBuffer.remaining();
+    layoutIsNV21 = uvPlanesEqual(uBuffer, vBuffer, width * height);
+    return layoutIsNV21;
+  }
+
+  private static boolean uvPlanesEqual(ByteBuffer uBuffer, ByteBuffer vBuffer, int imageSize) {
+    ByteBuffer u = uBuffer.duplicate();
+    ByteBuffer v = vBuffer.duplicate();
+    // Advance the V buffer by 1 byte, since the U buffer will not contain the first V value.
+    v.position(v.position() + 1);
+    // Chop off the last byte of the U buffer, since the V buffer will not contain the last U value.
+    u.limit(u.limit() - 1);
+
+    // Check that the buffers are equal and have the expected number of elements.
+    return (v.remaining() == (2 * imageSize / 4 - 2)) && (v.compareTo(u) == 0);
+  }
+
+  private static boolean sampledUVPlanesEqual(ByteBuffer uBuffer, ByteBuffer vBuffer) {
+    int uStart = uBuffer.position();
+    int vStart = vBuffer.position() + 1;
+    int length = uBuffer.remaining() - 1;
+    for (int i = 0; i < NUM_VERIFY_SAMPLES; i++) {
+      int offset = (int) ((long) i * (length - 1) / (NUM_VERIFY_SAMPLES - 1));
+      if (uBuffer.get(uStart + offset) != vBuffer.get(vStart + offset)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Unpack an image plane into a byte array.
+   *
+   * <p>The input plane data will be copied in 'out', starting at 'offset' and every pixel will be
+   * spaced by 'pixelStride'. Note that there is no row padding on the output.
+   */
+  private void unpackPlane(
+      Plane plane, int width, int height, byte[] out, int offset, int pixelStride) {
+    ByteBuffer buffer = plane.getBuffer().duplicate();
+    int limit = buffer.limit();
+    int rowStride = plane.getRowStride();
+    int inputPixelStride = plane.getPixelStride();
+
+    // Compute the size of the current plane.
+    // We assume that it has the aspect ratio as the original image.
+    int numRow = (limit + rowStride - 1) / rowStride;
+    if (numRow == 0) {
+      return;
+    }
+    int scaleFactor = height / numRow;
+    int numCol = width / scaleFactor;
+    if (rowBuffer.length < rowStride) {
+      rowBuffer = new byte[rowStride];
+    }
+
+    // Read each row in bulk, then pick its pixels out of the row.
+    int outputPos = offset;
+    for (int row = 0; row < numRow; row++) {
+      int rowStart = row * rowStride;
+      buffer.position(rowStart);
+      buffer.get(rowBuffer, 0, Math.min(rowStride, limit - rowStart));
+      int inputPos = 0;
+      for (int col = 0; col < numCol; col++) {
+        out[outputPos] = rowBuffer[inputPos];
+        outputPos += pixelStride;
+        inputPos += inputPixelStride;
+      }
+    }
+  }
+}
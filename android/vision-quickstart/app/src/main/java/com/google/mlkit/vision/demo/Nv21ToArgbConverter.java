@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.graphics.Bitmap;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts NV21 frames straight to ARGB pixels, rotating them in the same pass.
+ *
+ * <p>Uses the full range BT.601 (JFIF) coefficients that the former JPEG round trip decoded
+ * with, computed in fixed point from lookup tables. Pixels are written into an array reused
+ * across frames and copied into a bitmap from {@link BitmapPool}, so steady frames don't allocate.
+ */
+final class Nv21ToArgbConverter {
+  private static final int SHIFT = 16;
+  private static final int HALF = 1 << (SHIFT - 1);
+
+  // Contribution of a chroma byte to each channel, scaled by 2^SHIFT.
+  private static final int[] R_FROM_V = new int[256];
+  private static final int[] G_FROM_U = new int[256];
+  private static final int[] G_FROM_V = new int[256];
+  private static final int[] B_FROM_U = new int[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      int c = i - 128;
+      R_FROM_V[i] = Math.round(1.402f * (1 << SHIFT)) * c;
+      G_FROM_U[i] = -Math.round(0.344136f * (1 << SHIFT)) * c;
+      G_FROM_V[i] = -Math.round(0.714136f * (1 << SHIFT)) * c;
+      B_FROM_U[i] = Math.round(1.772f * (1 << SHIFT)) * c;
+    }
+  }
+
+  private byte[] frame = new byte[0];
+  private int[] pixels = new int[0];
+
+  /**
+   * Converts an NV21 frame to a bitmap rotated clockwise by {@code rotationDegrees}, which must be
+   * a multiple of 90. The caller holds the only reference to the bitmap in {@link BitmapPool}.
+   */
+  synchronized Bitmap convert(ByteBuffer nv21, int width, int height, int rotationDegrees) {
+    int frameSize = width * height;
+    byte[] data;
+    int offset;
+    if (nv21.hasArray()) {
+      data = nv21.array();
+      offset = nv21.arrayOffset();
+    } else {
+      if (frame.length < nv21.limit()) {
+        frame = new byte[nv21.limit()];
+      }
+      ByteBuffer source = nv21.duplicate();
+      source.rewind();
+      source.get(frame, 0, source.limit());
+      data = frame;
+      offset = 0;
+    }
+    if (pixels.length < frameSize) {
+      pixels = new int[frameSize];
+    }
+
+    int rotation = (rotationDegrees % 360 + 360) % 360;
+    if (rotation % 90 != 0) {
+      throw new IllegalArgumentException("Unsupported rotation: " + rotationDegrees);
+    }
+    boolean transposed = rotation == 90 || rotation == 270;
+    int outputWidth = transposed ? height : width;
+    int outputHeight = transposed ? width : height;
+
+    for (int y = 0; y < height; y++) {
+      // Where the first pixel of row y lands, and how far apart its pixels land.
+      int outputPos;
+      int step;
+      switch (rotation) {
+        case 90:
+          outputPos = height - 1 - y;
+          step = height;
+          break;
+        case 180:
+          outputPos = (height - 1 - y) * width + width - 1;
+          step = -1;
+          break;
+        case 270:
+          outputPos = (width - 1) * height + y;
+          step = -height;
+          break;
+        default:
+          outputPos = y * width;
+          step = 1;
+      }
+      int yPos = offset + y * width;
+      int uvPos = offset + frameSize + (y >> 1) * width;
+      for (int x = 0; x < width; x += 2) {
+        int v = data[uvPos++] & 0xff;
+        int u = data[uvPos++] & 0xff;
+        int r = R_FROM_V[v] + HALF;
+        int g = G_FROM_U[u] + G_FROM_V[v] + HALF;
+        int b = B_FROM_U[u] + HALF;
+
+        pixels[outputPos] = toArgb((data[yPos++] & 0xff) << SHIFT, r, g, b);
+        outputPos += step;
+        if (x + 1 < width) {
+          pixels[outputPos] = toArgb((data[yPos++] & 0xff) << SHIFT, r, g, b);
+          outputPos += step;
+        }
+      }
+    }
+    Bitmap bitmap = BitmapPool.acquire(outputWidth, outputHeight, Bitmap.Config.ARGB_8888);
+    bitmap.setPixels(pixels, 0, outputWidth, 0, 0, outputWidth, outputHeight);
+    return bitmap;
+  }
+
+  private static int toArgb(int luma, int r, int g, int b) {
+    return 0xff000000
+        | (clamp(luma + r) << 16)
+        | (clamp(luma + g) << 8)
+        | clamp(luma + b);
+  }
+
+  private static int clamp(int scaled) {
+    int value = scaled >> SHIFT;
+    return value < 0 ? 0 : (value > 255 ? 255 : value);
+  }
+}
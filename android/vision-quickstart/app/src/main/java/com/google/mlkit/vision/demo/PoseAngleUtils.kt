@@ -1,7 +1,6 @@
 package com.google.mlkit.vision.demo
 
 import android.graphics.PointF
-import android.util.Log
 import com.google.mlkit.vision.pose.PoseLandmark
 import kotlin.math.abs
 import kotlin.math.atan2
@@ -15,21 +14,28 @@ import kotlin.math.atan2
  * https://wx08xmlr43.feishu.cn/file/boxcnxKv2HbHuNnaKsloyKDm2yf
  */
 object PoseAngleUtils {
-    private const val TAG = "AngleUtils"
-    val currentPoint = ArrayList<PointF>()
-    val trunkPoseAngles = ArrayList<Double>()
+    /** 15个骨骼点 */
+    const val NUM_POINTS = 15
+    /** 15个骨骼点的pose角度个数，见[getPoseAngles] */
+    const val NUM_ANGLES = 14
+
+    // 15个骨骼点中，2-13号点对应的google骨骼点
+    private val GOOGLE_POINTS = intArrayOf(12, 14, 16, 11, 13, 15, 24, 26, 28, 23, 25, 27)
+    // 每个角度的三个点（first, mid, last），顺序与getPoseAngles一致
+    private val ANGLE_POINTS = intArrayOf(
+        5, 2, 4, 2, 3, 4, 2, 5, 7, 5, 6, 7, 14, 8, 9, 8, 9, 10, 14, 11, 12, 11, 12, 13,
+        2, 5, 11, 5, 2, 8,
+        2, 8, 10, 5, 11, 13,
+        0, 14, 13, 0, 14, 10
+    )
 
     /**
-     * 设置当前参考pose（15个）
+     * 当前参考pose
+     * Replaced as a whole rather than modified, so a reader on any thread always sees a complete
+     * pose. Read it once per frame and score against that snapshot.
      */
-    fun setCurrentPoint(referencePoint: ArrayList<PointF>?) {
-        if (!referencePoint.isNullOrEmpty()) {
-            trunkPoseAngles.clear()
-            currentPoint.clear()
-            currentPoint.addAll(referencePoint)
-            trunkPoseAngles.addAll(getPoseAngles(currentPoint))
-        }
-    }
+    @Volatile
+    var referencePose: ReferencePose = ReferencePose.EMPTY
 
     /**
      * 转换
@@ -70,6 +76,36 @@ object PoseAngleUtils {
         return poses
     }
 
+    /**
+     * 转换，不分配PointF
+     * google 33个关键点转15个，写入[out]（x, y交替，共NUM_POINTS * 2个）
+     * @return false if there are less than 33 landmarks and nothing was written.
+     */
+    fun googleTo15Point(googlePose: List<PoseLandmark>, out: FloatArray): Boolean {
+        if (googlePose.size < 33) return false
+        out[0] = googlePose[0].position3D.x
+        out[1] = googlePose[0].position3D.y
+        //颈部中心点
+        out[2] =
+            (googlePose[11].position.x - googlePose[12].position.x) / 2 + googlePose[12].position.x
+        out[3] = googlePose[11].position.y
+        for (i in GOOGLE_POINTS.indices) {
+            val position = googlePose[GOOGLE_POINTS[i]].position3D
+            out[(i + 2) * 2] = position.x
+            out[(i + 2) * 2 + 1] = position.y
+        }
+        //14 肚脐（双肩与双髋关节对角连线相交点）
+        lineLineIntersection(
+            googlePose[12].position,
+            googlePose[23].position,
+            googlePose[11].position,
+            googlePose[24].position,
+            out,
+            28
+        )
+        return true
+    }
+
     /**
      * 获取
      * 15个骨骼点，pose角度
@@ -99,6 +135,23 @@ object PoseAngleUtils {
         return trunkPoseAngles
     }
 
+    /**
+     * 获取
+     * 15个骨骼点（[googleTo15Point]输出的x, y），pose角度写入[out]（NUM_ANGLES个）
+     */
+    fun getPoseAngles(posePoints: FloatArray, out: DoubleArray) {
+        for (angle in 0 until NUM_ANGLES) {
+            val first = ANGLE_POINTS[angle * 3] * 2
+            val mid = ANGLE_POINTS[angle * 3 + 1] * 2
+            val last = ANGLE_POINTS[angle * 3 + 2] * 2
+            out[angle] = getAngle(
+                posePoints[first], posePoints[first + 1],
+                posePoints[mid], posePoints[mid + 1],
+                posePoints[last], posePoints[last + 1]
+            )
+        }
+    }
+
     /**
      * 获取
      * 33个骨骼点，pose角度（按照15个骨骼点的角度个数）
@@ -269,26 +322,32 @@ object PoseAngleUtils {
     ): Double {
         val trunkScore = arrayListOf<Double>()
         referPoseAngles.forEachIndexed { index, d ->
-            val isSame = currentPoseAngles[index] * d > 0
-            if (isSame) {
-                val vs = abs(abs(currentPoseAngles[index]) - abs(d))
-                if (vs > 180) {
-                    trunkScore.add(0.0)
-                } else {
-                    val abs = abs((vs / 180) * 100)
+            trunkScore.add(getAngleScore(d, currentPoseAngles[index]))
+        }
+        return trunkScore.average()
+    }
 
-                    val score = 100 - abs
-                    //角度相似超过50时
-                    trunkScore.add(if (score >= 50) score else 0.0)
-                    Log.d("AngleUtils", "abs:$score")
-                }
-            } else {
-                trunkScore.add(0.0)
-            }
+    /**
+     * 两组角度数据遍历，获取对应的分数（不分配，不打印日志）
+     * Same as [getPoseScoreAngle] on primitive arrays. Returns NaN if [referPoseAngles] is
+     * empty.
+     */
+    fun getPoseScore(referPoseAngles: DoubleArray, currentPoseAngles: DoubleArray): Double {
+        var sum = 0.0
+        for (index in referPoseAngles.indices) {
+            sum += getAngleScore(referPoseAngles[index], currentPoseAngles[index])
         }
+        return sum / referPoseAngles.size
+    }
 
-        Log.d("AngleUtils", "average:$trunkScore----${trunkScore.average()}")
-        return trunkScore.average()
+    private fun getAngleScore(referAngle: Double, currentAngle: Double): Double {
+        val isSame = currentAngle * referAngle > 0
+        if (!isSame) return 0.0
+        val vs = abs(abs(currentAngle) - abs(referAngle))
+        if (vs > 180) return 0.0
+        val score = 100 - abs((vs / 180) * 100)
+        //角度相似超过50时
+        return if (score >= 50) score else 0.0
     }
 
     /**
@@ -300,16 +359,26 @@ object PoseAngleUtils {
      */
     fun getAngle(firstPoint: PointF?, midPoint: PointF?, lastPoint: PointF?): Double {
         if (firstPoint == null || midPoint == null || lastPoint == null) return 0.0
+        return getAngle(
+            firstPoint.x, firstPoint.y, midPoint.x, midPoint.y, lastPoint.x, lastPoint.y
+        )
+    }
+
+    private fun getAngle(
+        firstX: Float,
+        firstY: Float,
+        midX: Float,
+        midY: Float,
+        lastX: Float,
+        lastY: Float
+    ): Double {
         var result = Math.toDegrees(
-            (atan2(lastPoint.y - midPoint.y, lastPoint.x - midPoint.x)
-                    - atan2(firstPoint.y - midPoint.y, firstPoint.x - midPoint.x)).toDouble()
+            (atan2(lastY - midY, lastX - midX) - atan2(firstY - midY, firstX - midX)).toDouble()
         )
         if (result < 0 && result > -180) result = abs(result) // Angle should never be negative
         if (result > 180) {
             result = 360.0 - result // Always get the acute representation of the angle
         }
-
-        Log.d(TAG, "getAngle: $result")
         return result
     }
 
@@ -318,6 +387,22 @@ object PoseAngleUtils {
      * ab与cd
      */
     private fun lineLineIntersection(a: PointF, b: PointF, c: PointF, d: PointF): PointF {
+        val intersection = FloatArray(2)
+        lineLineIntersection(a, b, c, d, intersection, 0)
+        return PointF(intersection[0], intersection[1])
+    }
+
+    /**
+     * 计算两条直线相交点坐标，写入[out]的[offset]、[offset] + 1
+     */
+    private fun lineLineIntersection(
+        a: PointF,
+        b: PointF,
+        c: PointF,
+        d: PointF,
+        out: FloatArray,
+        offset: Int
+    ) {
         // Line AB represented as a1x + b1y = c1
         val a1 = (b.y - a.y)
         val b1 = (a.x - b.x)
@@ -328,14 +413,14 @@ object PoseAngleUtils {
         val b2 = (c.x - d.x)
         val c2 = a2 * c.x + b2 * c.y
         val determinant = a1 * b2 - a2 * b1
-        return if (determinant == 0.0F) {
+        if (determinant == 0.0F) {
             // The lines are parallel. This is simplified
             // by returning a pair of FLT_MAX
-            PointF(Float.MAX_VALUE, Float.MAX_VALUE)
+            out[offset] = Float.MAX_VALUE
+            out[offset + 1] = Float.MAX_VALUE
         } else {
-            val x = (b2 * c1 - b1 * c2) / determinant
-            val y = (a1 * c2 - a2 * c1) / determinant
-            PointF(x, y)
+            out[offset] = (b2 * c1 - b1 * c2) / determinant
+            out[offset + 1] = (a1 * c2 - a2 * c1) / determinant
         }
     }
 }
\ No newline at end of file
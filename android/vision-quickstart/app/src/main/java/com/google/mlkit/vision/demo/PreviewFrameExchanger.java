@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands the latest camera preview frame from the camera thread to a single processing thread
+ * without locks.
+ *
+ * <p>Owns the ring of buffers the camera fills. A frame arriving while an older one is still
+ * pending replaces it, the older one is dropped and its buffer goes back to the camera. The camera
+ * thread never waits on the processing thread. Dropped and processed frames are counted.
+ */
+final class PreviewFrameExchanger {
+
+  /** A buffer of the ring, with the time the camera last returned it filled. */
+  static final class Frame {
+    final byte[] data;
+    final ByteBuffer buffer;
+    // Written by the camera thread before the frame is published, read after it is taken.
+    long timestampNanos;
+
+    private Frame(ByteBuffer buffer) {
+      this.data = buffer.array();
+      this.buffer = buffer;
+    }
+  }
+
+  private final Frame[] frames;
+  private final AtomicReference<Frame> pendingFrame = new AtomicReference<>();
+  private final AtomicLong droppedFrames = new AtomicLong();
+  private final AtomicLong processedFrames = new AtomicLong();
+
+  @Nullable private volatile Thread consumer;
+  private volatile boolean active = true;
+
+  /** @param buffers the ring, each backed by the array the camera fills. */
+  PreviewFrameExchanger(ByteBuffer[] buffers) {
+    frames = new Frame[buffers.length];
+    for (int i = 0; i < buffers.length; i++) {
+      frames[i] = new Frame(buffers[i]);
+    }
+  }
+
+  /** Returns the number of buffers in the ring. */
+  int getBufferCount() {
+    return frames.length;
+  }
+
+  /** Returns the array of a buffer of the ring, to add as a camera callback buffer. */
+  byte[] getBuffer(int index) {
+    return frames[index].data;
+  }
+
+  /** Returns the frame of the ring backed by {@code data}, or {@code null} if there is none. */
+  @Nullable
+  Frame findFrame(byte[] data) {
+    // The ring holds a handful of buffers, a scan is cheaper than hashing.
+    for (Frame frame : frames) {
+      if (frame.data == data) {
+        return frame;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Publishes a frame the camera filled, on the camera thread. Returns the frame it replaced
+   * before that one was processed, whose buffer the caller gives back to the camera.
+   *
+   * @return the dropped frame, or {@code null} if none was pending
+   */
+  @Nullable
+  Frame publish(Frame frame, long timestampNanos) {
+    frame.timestampNanos = timestampNanos;
+    Frame dropped = pendingFrame.getAndSet(frame);
+    if (dropped != null) {
+      droppedFrames.incrementAndGet();
+    }
+    Thread waiting = consumer;
+    if (waiting != null) {
+      LockSupport.unpark(waiting);
+    }
+    return dropped;
+  }
+
+  /**
+   * Takes the latest frame, on the processing thread, waiting for one if none is pending. Returns
+   * {@code null} once {@link #close} was called or the thread is interrupted.
+   */
+  @Nullable
+  Frame take() {
+    consumer = Thread.currentThread();
+    while (active) {
+      Frame frame = pendingFrame.getAndSet(null);
+      if (frame != null) {
+        processedFrames.incrementAndGet();
+        return frame;
+      }
+      // A publish between the check above and here leaves a permit, so this returns right away.
+      LockSupport.park(this);
+      if (Thread.interrupted()) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /** Makes {@link #take} return {@code null}, waking up a waiting processing thread. */
+  void close() {
+    active = false;
+    Thread waiting = consumer;
+    if (waiting != null) {
+      LockSupport.unpark(waiting);
+    }
+  }
+
+  /** Returns how many frames were replaced by a newer one before being processed. */
+  long getDroppedFrameCount() {
+    return droppedFrames.get();
+  }
+
+  /** Returns how many frames were taken for processing. */
+  long getProcessedFrameCount() {
+    return processedFrames.get();
+  }
+}
@@ -0,0 +1,50 @@
+package com.google.mlkit.vision.demo
+
+import android.graphics.PointF
+
+/**
+ * 参考pose（不可变）
+ *
+ * Holds the precomputed angles of a reference pose, see [PoseAngleUtils.getPoseAngles]. It
+ * never changes once created, so it can be shared with and scored on any thread, and any
+ * number of reference poses can be scored against the same frame.
+ */
+class ReferencePose private constructor(private val angles: DoubleArray) {
+
+    val numAngles: Int
+        get() = angles.size
+
+    fun isEmpty(): Boolean = angles.isEmpty()
+
+    fun getAngle(index: Int): Double = angles[index]
+
+    /**
+     * 获取分值
+     * 对比当前pose角度（[PoseAngleUtils.getPoseAngles]），NaN if this pose is empty.
+     */
+    fun getScore(currentPoseAngles: DoubleArray): Double =
+        PoseAngleUtils.getPoseScore(angles, currentPoseAngles)
+
+    override fun toString(): String = angles.contentToString()
+
+    companion object {
+        @JvmField
+        val EMPTY = ReferencePose(DoubleArray(0))
+
+        @JvmStatic
+        fun fromAngles(angles: DoubleArray): ReferencePose = ReferencePose(angles.copyOf())
+
+        /** 15个骨骼点（[PoseAngleUtils.googleTo15Point]输出的x, y） */
+        @JvmStatic
+        fun fromPoints(posePoints: FloatArray): ReferencePose {
+            val angles = DoubleArray(PoseAngleUtils.NUM_ANGLES)
+            PoseAngleUtils.getPoseAngles(posePoints, angles)
+            return ReferencePose(angles)
+        }
+
+        /** 15个骨骼点 */
+        @JvmStatic
+        fun fromPoints(posePoints: ArrayList<PointF>): ReferencePose =
+            ReferencePose(PoseAngleUtils.getPoseAngles(posePoints).toDoubleArray())
+    }
+}
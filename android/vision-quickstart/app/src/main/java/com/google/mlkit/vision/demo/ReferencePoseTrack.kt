@@ -0,0 +1,82 @@
+package com.google.mlkit.vision.demo
+
+import com.google.mlkit.vision.demo.video.PoseKeyframes
+
+/**
+ * Reference poses of a coach video indexed by playback position, as recorded to
+ * [PoseKeyframes].
+ *
+ * The angles of every keyframe are computed once with [PoseAngleUtils.getPoseAngles] and kept
+ * in a flat array next to the sorted keyframe times. A lookup is a binary search followed by
+ * a linear interpolation between the two surrounding keyframes, so the reference can follow
+ * the video at frame rate without any trigonometry.
+ */
+class ReferencePoseTrack(keyframes: PoseKeyframes) {
+    /** Number of angles per pose, see [PoseAngleUtils.getPoseAngles]. */
+    val numAngles: Int
+
+    // Keyframe times are recorded as whole seconds of playback.
+    private val timesMs = LongArray(keyframes.size()) { keyframes.getTimeKey(it) * 1000 }
+    // Angles of all keyframes, numAngles per keyframe.
+    private val angles: DoubleArray
+
+    init {
+        val keyframeAngles = Array(keyframes.size()) {
+            PoseAngleUtils.getPoseAngles(keyframes.getPoints(it))
+        }
+        numAngles = keyframeAngles.firstOrNull()?.size ?: 0
+        angles = DoubleArray(keyframes.size() * numAngles)
+        keyframeAngles.forEachIndexed { keyframe, values ->
+            values.forEachIndexed { i, angle -> angles[keyframe * numAngles + i] = angle }
+        }
+    }
+
+    fun isEmpty(): Boolean = timesMs.isEmpty() || numAngles == 0
+
+    /**
+     * Writes the reference angles at [positionMs] to [out], interpolated between the
+     * surrounding keyframes. Positions before the first or after the last keyframe get that
+     * keyframe's angles.
+     *
+     * @return false if the track is empty and nothing was written.
+     */
+    fun getAngles(positionMs: Long, out: DoubleArray): Boolean {
+        if (isEmpty()) return false
+        // Index of the last keyframe at or before positionMs, -1 if there is none.
+        var low = 0
+        var high = timesMs.size - 1
+        var before = -1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            if (timesMs[mid] <= positionMs) {
+                before = mid
+                low = mid + 1
+            } else {
+                high = mid - 1
+            }
+        }
+        if (before < 0) {
+            angles.copyInto(out, 0, 0, numAngles)
+            return true
+        }
+        if (before == timesMs.size - 1 || timesMs[before] == positionMs) {
+            angles.copyInto(out, 0, before * numAngles, (before + 1) * numAngles)
+            return true
+        }
+
+        val after = before + 1
+        val fraction =
+            (positionMs - timesMs[before]).toDouble() / (timesMs[after] - timesMs[before])
+        for (i in 0 until numAngles) {
+            val from = angles[before * numAngles + i]
+            val to = angles[after * numAngles + i]
+            // Scores compare the sign of the angles, don't blend across a sign change.
+            out[i] = if (from * to < 0) {
+                if (fraction < 0.5) from else to
+            } else {
+                from + (to - from) * fraction
+            }
+        }
+        return true
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.graphics.Bitmap;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Converts RGBA_8888 frames, as CameraX image analysis can output them, to ARGB bitmaps rotated
+ * in the same pass. CameraX already did the color conversion, so this only reorders channels.
+ *
+ * <p>Pixels are written into an array reused across frames and copied into a bitmap from {@link
+ * BitmapPool}, so steady frames don't allocate.
+ */
+final class RgbaToArgbConverter {
+
+  private int[] row = new int[0];
+  private int[] pixels = new int[0];
+
+  /**
+   * Converts an RGBA frame with 4 bytes per pixel and {@code rowStride} bytes per row to a bitmap
+   * rotated clockwise by {@code rotationDegrees}, which must be a multiple of 90. The caller holds
+   * the only reference to the bitmap in {@link BitmapPool}.
+   */
+  synchronized Bitmap convert(
+      ByteBuffer rgba, int rowStride, int width, int height, int rotationDegrees) {
+    int rotation = (rotationDegrees % 360 + 360) % 360;
+    if (rotation % 90 != 0) {
+      throw new IllegalArgumentException("Unsupported rotation: " + rotationDegrees);
+    }
+    if (row.length < width) {
+      row = new int[width];
+    }
+    if (pixels.length < width * height) {
+      pixels = new int[width * height];
+    }
+    boolean transposed = rotation == 90 || rotation == 270;
+    int outputWidth = transposed ? height : width;
+    int outputHeight = transposed ? width : height;
+
+    // Read through a duplicate so the position of the camera buffer stays untouched. Read as
+    // little endian ints, each pixel is 0xAABBGGRR.
+    ByteBuffer source = rgba.duplicate();
+    source.rewind();
+    IntBuffer ints = source.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    int intsPerRow = rowStride / 4;
+    for (int y = 0; y < height; y++) {
+      // Where the first pixel of row y lands, and how far apart its pixels land.
+      int outputPos;
+      int step;
+      switch (rotation) {
+        case 90:
+          outputPos = height - 1 - y;
+          step = height;
+          break;
+        case 180:
+          outputPos = (height - 1 - y) * width + width - 1;
+          step = -1;
+          break;
+        case 270:
+          outputPos = (width - 1) * height + y;
+          step = -height;
+          break;
+        default:
+          outputPos = y * width;
+          step = 1;
+      }
+      ints.position(y * intsPerRow);
+      ints.get(row, 0, width);
+      for (int x = 0; x < width; x++) {
+        int abgr = row[x];
+        pixels[outputPos] = (abgr & 0xff00ff00) | ((abgr & 0xff) << 16) | ((abgr >> 16) & 0xff);
+        outputPos += step;
+      }
+    }
+    Bitmap bitmap = BitmapPool.acquire(outputWidth, outputHeight, Bitmap.Config.ARGB_8888);
+    bitmap.setPixels(pixels, 0, outputWidth, 0, 0, outputWidth, outputHeight);
+    return bitmap;
+  }
+}
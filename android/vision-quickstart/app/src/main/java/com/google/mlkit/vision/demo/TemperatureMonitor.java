@@ -6,19 +6,24 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.util.Log;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * Monitors device temperature.
+ * Monitors device temperature. Readings arrive on the main thread and may be read on any thread.
  */
 public final class TemperatureMonitor implements SensorEventListener {
 
   private static final String TAG = "TemperatureMonitor";
 
-  public Map<String, Float> sensorReadingsCelsius = new HashMap<>();
+  private final Map<String, Float> sensorReadingsCelsius = new ConcurrentHashMap<>();
+  // The first valid reading of each sensor in this process. Shared by all monitors, as every
+  // processor creates its own and the device has usually warmed up by the time a later one does.
+  private static final ConcurrentMap<String, Float> baselineReadingsCelsius =
+      new ConcurrentHashMap<>();
 
   private final SensorManager sensorManager;
 
@@ -54,11 +59,32 @@ public final class TemperatureMonitor implements SensorEventListener {
     }
   }
 
+  /**
+   * Returns how much the sensor that warmed up the most did since the first monitor of this
+   * process read it, 0 if there are no valid readings.
+   */
+  public float getMaxRiseCelsius() {
+    float maxRise = 0;
+    for (Map.Entry<String, Float> entry : sensorReadingsCelsius.entrySet()) {
+      Float baseline = baselineReadingsCelsius.get(entry.getKey());
+      if (baseline != null && entry.getValue() >= 0) {
+        maxRise = Math.max(maxRise, entry.getValue() - baseline);
+      }
+    }
+    return maxRise;
+  }
+
   @Override
   public void onAccuracyChanged(Sensor sensor, int accuracy) {}
 
   @Override
   public void onSensorChanged(SensorEvent sensorEvent) {
-    sensorReadingsCelsius.put(sensorEvent.sensor.getName(), sensorEvent.values[0]);
+    String name = sensorEvent.sensor.getName();
+    float tempC = sensorEvent.values[0];
+    sensorReadingsCelsius.put(name, tempC);
+    // Skips likely invalid sensor readings
+    if (tempC >= 0) {
+      baselineReadingsCelsius.putIfAbsent(name, tempC);
+    }
   }
 }
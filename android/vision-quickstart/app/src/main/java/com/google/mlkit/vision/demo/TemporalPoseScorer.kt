@@ -0,0 +1,150 @@
+package com.google.mlkit.vision.demo
+
+import kotlin.math.abs
+
+/**
+ * 时间容错的pose评分
+ *
+ * Scores live poses against a [ReferencePoseTrack] while tolerating the user being ahead of or
+ * behind the coach, and estimates that lag.
+ *
+ * Live frames are aligned to the reference with dynamic time warping constrained to a band of
+ * [maxLagMs] around the playback position. The reference is sampled on a fixed grid of
+ * [stepMs], and a cell of the DP pairs a live frame with one reference sample. Only the band of
+ * the latest live frame is kept, so each frame updates `2 * maxLagMs / stepMs + 1` cells of
+ * [PoseAngleUtils.NUM_ANGLES] angles each, whatever the session length. Reference samples are
+ * cached in a ring, so usually only one new sample is looked up per frame.
+ *
+ * Older costs are forgotten exponentially with a horizon of about [windowFrames] frames. The
+ * score is the average similarity along the best warping path over that horizon, on the same
+ * 0-100 scale as [PoseAngleUtils.getPoseScore]. Not thread safe.
+ */
+class TemporalPoseScorer(
+    private val track: ReferencePoseTrack,
+    private val playbackPositionMs: () -> Long,
+    private val maxLagMs: Long = DEFAULT_MAX_LAG_MS,
+    private val stepMs: Long = DEFAULT_STEP_MS,
+    windowFrames: Int = DEFAULT_WINDOW_FRAMES
+) {
+    private val band = (maxLagMs / stepMs).toInt()
+    private val width = 2 * band + 1
+    private val retain = 1.0 - 1.0 / windowFrames
+
+    // Reference samples by grid index, sample k lives in slot k % referenceRing.size.
+    private val referenceRing = Array(2 * width) { DoubleArray(track.numAngles) }
+    private val referenceKeys = LongArray(2 * width) { -1 }
+
+    // Accumulated cost and path weight of the band of the previous and of the current frame.
+    // Cell c of a frame centered at grid index center pairs it with sample center - band + c.
+    private var previousCosts = DoubleArray(width)
+    private var previousWeights = DoubleArray(width)
+    private var costs = DoubleArray(width)
+    private var weights = DoubleArray(width)
+    private var previousCenter = 0L
+    private var hasPrevious = false
+
+    /** Lag tolerant score of the latest frame, NaN until a frame was scored. */
+    var score = Double.NaN
+        private set
+
+    /** Estimated time the user is behind the coach, negative if ahead. */
+    var lagMs = 0L
+        private set
+
+    /** Drops the alignment, e.g. after seeking the video. */
+    fun reset() {
+        hasPrevious = false
+        score = Double.NaN
+        lagMs = 0
+    }
+
+    /**
+     * Adds the angles of a live frame, see [PoseAngleUtils.getPoseAngles], and updates [score]
+     * and [lagMs].
+     *
+     * @return false if the reference track is empty and nothing was scored.
+     */
+    fun addFrame(poseAngles: DoubleArray): Boolean {
+        if (track.isEmpty()) return false
+        val center = (playbackPositionMs() + stepMs / 2) / stepMs
+        // A seek moves the reference out of the band, start a new alignment.
+        if (hasPrevious && abs(center - previousCenter) > band) {
+            hasPrevious = false
+        }
+
+        var bestCell = -1
+        var bestAverage = Double.POSITIVE_INFINITY
+        for (cell in 0 until width) {
+            val sample = center - band + cell
+            if (sample < 0) {
+                costs[cell] = Double.POSITIVE_INFINITY
+                weights[cell] = 1.0
+                continue
+            }
+            val cost = 100 - PoseAngleUtils.getPoseScore(referenceSample(sample), poseAngles)
+
+            var predecessorCost = 0.0
+            var predecessorWeight = 0.0
+            if (hasPrevious) {
+                predecessorCost = Double.POSITIVE_INFINITY
+                // Both the live frame and the reference advanced.
+                val diagonal = (sample - 1 - (previousCenter - band)).toInt()
+                if (diagonal in 0 until width && previousCosts[diagonal] < predecessorCost) {
+                    predecessorCost = previousCosts[diagonal]
+                    predecessorWeight = previousWeights[diagonal]
+                }
+                // Only the live frame advanced, the reference held still.
+                val vertical = diagonal + 1
+                if (vertical in 0 until width && previousCosts[vertical] < predecessorCost) {
+                    predecessorCost = previousCosts[vertical]
+                    predecessorWeight = previousWeights[vertical]
+                }
+                // Only the reference advanced, this live frame matches several samples.
+                if (cell > 0 && costs[cell - 1] < predecessorCost) {
+                    predecessorCost = costs[cell - 1]
+                    predecessorWeight = weights[cell - 1]
+                }
+            }
+            costs[cell] = cost + retain * predecessorCost
+            weights[cell] = 1 + retain * predecessorWeight
+
+            val average = costs[cell] / weights[cell]
+            if (average < bestAverage) {
+                bestAverage = average
+                bestCell = cell
+            }
+        }
+
+        if (bestCell < 0) {
+            reset()
+            return false
+        }
+        score = 100 - bestAverage
+        lagMs = (band - bestCell) * stepMs
+
+        previousCenter = center
+        hasPrevious = true
+        val swapCosts = previousCosts
+        previousCosts = costs
+        costs = swapCosts
+        val swapWeights = previousWeights
+        previousWeights = weights
+        weights = swapWeights
+        return true
+    }
+
+    private fun referenceSample(sample: Long): DoubleArray {
+        val slot = (sample % referenceRing.size).toInt()
+        if (referenceKeys[slot] != sample) {
+            track.getAngles(sample * stepMs, referenceRing[slot])
+            referenceKeys[slot] = sample
+        }
+        return referenceRing[slot]
+    }
+
+    companion object {
+        const val DEFAULT_MAX_LAG_MS = 1000L
+        const val DEFAULT_STEP_MS = 100L
+        const val DEFAULT_WINDOW_FRAMES = 30
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.content.Context;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.PowerManager;
+import android.util.Log;
+import androidx.annotation.Nullable;
+
+/**
+ * Throttles live detection as the device heats up, and lifts it again as the device cools down.
+ *
+ * <p>Heat is read from the thermal status of {@link PowerManager} on Android Q and later, and from
+ * how much the {@link TemperatureMonitor} sensors warmed up since the app started. The higher of
+ * the two wins. Sensors step back down only once they cooled a few degrees below the threshold
+ * they crossed, so the level doesn't flip on noisy readings.
+ */
+public final class ThermalThrottle {
+  private static final String TAG = "ThermalThrottle";
+
+  /** What live detection gives up at each level, every level keeps what the one below gave up. */
+  public enum Level {
+    /** Full detection. */
+    NONE(/* detectionStride= */ 1, /* preferFastModel= */ false, /* reduceOverlays= */ false),
+    /** Detects every second frame. */
+    LIGHT(/* detectionStride= */ 2, /* preferFastModel= */ false, /* reduceOverlays= */ false),
+    /** Also switches to faster, less accurate models where there is one. */
+    MODERATE(/* detectionStride= */ 2, /* preferFastModel= */ true, /* reduceOverlays= */ false),
+    /** Detects every third frame and leaves out the costly details of the overlay. */
+    SEVERE(/* detectionStride= */ 3, /* preferFastModel= */ true, /* reduceOverlays= */ true);
+
+    /** Detection runs on one live frame out of this many. */
+    public final int detectionStride;
+
+    public final boolean preferFastModel;
+    public final boolean reduceOverlays;
+
+    Level(int detectionStride, boolean preferFastModel, boolean reduceOverlays) {
+      this.detectionStride = detectionStride;
+      this.preferFastModel = preferFastModel;
+      this.reduceOverlays = reduceOverlays;
+    }
+  }
+
+  // Sensor rise in Celsius to enter each level, by ordinal.
+  private static final float[] SENSOR_RISE_THRESHOLDS_CELSIUS = {0f, 4f, 7f, 10f};
+  // How far below the threshold of a level the sensors have to cool to leave it.
+  private static final float SENSOR_COOL_DOWN_CELSIUS = 2f;
+
+  private final TemperatureMonitor temperatureMonitor;
+  @Nullable private final PowerManager powerManager;
+
+  // Only touched in update().
+  private Level sensorLevel = Level.NONE;
+  private Level level = Level.NONE;
+
+  public ThermalThrottle(Context context, TemperatureMonitor temperatureMonitor) {
+    this.temperatureMonitor = temperatureMonitor;
+    powerManager =
+        VERSION.SDK_INT >= VERSION_CODES.Q
+            ? (PowerManager) context.getSystemService(Context.POWER_SERVICE)
+            : null;
+  }
+
+  /** Reads the current heat and returns the level for it, called about once a second. */
+  public Level update() {
+    Level statusLevel = getThermalStatusLevel();
+    float riseCelsius = temperatureMonitor.getMaxRiseCelsius();
+    sensorLevel = getSensorLevel(riseCelsius);
+    Level newLevel = statusLevel.ordinal() >= sensorLevel.ordinal() ? statusLevel : sensorLevel;
+    if (newLevel != level) {
+      Log.i(
+          TAG,
+          "Thermal level "
+              + newLevel
+              + " (thermal status "
+              + statusLevel
+              + ", sensor rise "
+              + riseCelsius
+              + "C)");
+      level = newLevel;
+    }
+    return level;
+  }
+
+  private Level getThermalStatusLevel() {
+    if (powerManager == null || VERSION.SDK_INT < VERSION_CODES.Q) {
+      return Level.NONE;
+    }
+    switch (powerManager.getCurrentThermalStatus()) {
+      case PowerManager.THERMAL_STATUS_NONE:
+        return Level.NONE;
+      case PowerManager.THERMAL_STATUS_LIGHT:
+        return Level.LIGHT;
+      case PowerManager.THERMAL_STATUS_MODERATE:
+        return Level.MODERATE;
+      default:
+        // Severe and above, the system is throttling hard or about to shut down.
+        return Level.SEVERE;
+    }
+  }
+
+  private Level getSensorLevel(float riseCelsius) {
+    Level[] levels = Level.values();
+    int index = sensorLevel.ordinal();
+    while (index < levels.length - 1 && riseCelsius >= SENSOR_RISE_THRESHOLDS_CELSIUS[index + 1]) {
+      index++;
+    }
+    while (index > 0
+        && riseCelsius < SENSOR_RISE_THRESHOLDS_CELSIUS[index] - SENSOR_COOL_DOWN_CELSIUS) {
+      index--;
+    }
+    return levels[index];
+  }
+}
@@ -17,6 +17,10 @@
 package com.google.mlkit.vision.demo;
 
 import android.graphics.Bitmap;
+import android.media.Image;
+import android.os.Build.VERSION_CODES;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 import androidx.camera.core.ImageProxy;
 import com.google.mlkit.common.MlKitException;
 import java.nio.ByteBuffer;
@@ -27,14 +31,37 @@ public interface VisionImageProcessor {
   /** Processes a bitmap image. */
   void processBitmap(Bitmap bitmap, GraphicOverlay graphicOverlay);
 
-  /** Processes ByteBuffer image data, e.g. used for Camera1 live preview case. */
+  /**
+   * Processes NV21 ByteBuffer image data, e.g. used for Camera1 live preview case. The buffer is
+   * read after this returns, so the caller doesn't reuse it until the processor runs {@code
+   * onBufferDone}, which it does exactly once, also when the frame is skipped or fails.
+   */
   void processByteBuffer(
-      ByteBuffer data, FrameMetadata frameMetadata, GraphicOverlay graphicOverlay)
+      ByteBuffer data,
+      FrameMetadata frameMetadata,
+      GraphicOverlay graphicOverlay,
+      Runnable onBufferDone)
       throws MlKitException;
 
   /** Processes ImageProxy image data, e.g. used for CameraX live preview case. */
   void processImageProxy(ImageProxy image, GraphicOverlay graphicOverlay) throws MlKitException;
 
+  /**
+   * Processes a YUV_420_888 media image, e.g. used for Camera2 live preview case. The image is
+   * handed to the detector without a copy, so the caller keeps it open until the processor runs
+   * {@code onImageDone}, which it does exactly once, also when the image is skipped or fails.
+   */
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  void processMediaImage(
+      Image image, int rotationDegrees, GraphicOverlay graphicOverlay, Runnable onImageDone)
+      throws MlKitException;
+
+  /**
+   * Reports the detector latency of live preview frames to {@code governor}, which adapts the
+   * capture to it. {@code null} stops reporting.
+   */
+  void setCaptureGovernor(@Nullable CaptureGovernor governor);
+
   /** Stops the underlying machine learning model and release resources. */
   void stop();
 }
@@ -40,13 +40,13 @@ import androidx.camera.core.ImageAnalysis;
 import androidx.camera.core.Preview;
 import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.camera.view.PreviewView;
-import androidx.core.content.ContextCompat;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.lifecycle.ViewModelProvider.AndroidViewModelFactory;
 import com.google.android.gms.common.annotation.KeepName;
 import com.google.mlkit.common.MlKitException;
 import com.google.mlkit.common.model.LocalModel;
 import com.google.mlkit.vision.demo.CameraXViewModel;
+import com.google.mlkit.vision.demo.CaptureGovernor;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.R;
 import com.google.mlkit.vision.demo.VisionImageProcessor;
@@ -72,6 +72,8 @@ import com.google.mlkit.vision.text.korean.KoreanTextRecognizerOptions;
 import com.google.mlkit.vision.text.latin.TextRecognizerOptions;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /** Live preview demo app for ML Kit APIs using CameraX. */
 @KeepName
@@ -99,6 +101,8 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
   private static final String FACE_MESH_DETECTION = "Face Mesh Detection (Beta)";
 
   private static final String STATE_SELECTED_MODEL = "selected_model";
+  // The analysis resolution of CameraX when none is set, scaled down by the capture governor.
+  private static final Size DEFAULT_ANALYSIS_RESOLUTION = new Size(640, 480);
 
   private PreviewView previewView;
   private GraphicOverlay graphicOverlay;
@@ -107,7 +111,15 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
   @Nullable private Preview previewUseCase;
   @Nullable private ImageAnalysis analysisUseCase;
   @Nullable private VisionImageProcessor imageProcessor;
-  private boolean needUpdateGraphicOverlayImageSourceInfo;
+  // Frames are analyzed off the main thread, which only shows finished overlay graphics.
+  private final ExecutorService analysisExecutor = Executors.newSingleThreadExecutor();
+  // Read and written on the analysis thread after the analyzer is set.
+  private volatile boolean needUpdateGraphicOverlayImageSourceInfo;
+  // Scales the analysis resolution and frame rate down while the detector can't keep up. Image
+  // analysis hands over one frame at a time, the next once the processor closed the last one.
+  private final CaptureGovernor captureGovernor = new CaptureGovernor(/* maxFramesInFlight= */ 1);
+  // Scale of the analysis resolution currently bound.
+  private float analysisScale = 1f;
 
   private String selectedModel = OBJECT_DETECTION;
   private int lensFacing = CameraSelector.LENS_FACING_BACK;
@@ -122,6 +134,13 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
       selectedModel = savedInstanceState.getString(STATE_SELECTED_MODEL, OBJECT_DETECTION);
     }
     cameraSelector = new CameraSelector.Builder().requireLensFacing(lensFacing).build();
+    captureGovernor.setListener(
+        level -> {
+          // The frame rate is applied to each frame, only a new resolution takes a new use case.
+          if (level.scale != analysisScale) {
+            bindImageAnalysis();
+          }
+        });
 
     setContentView(R.layout.activity_vision_camerax_live_preview);
     previewView = findViewById(R.id.preview_view);
@@ -253,6 +272,7 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
     if (imageProcessor != null) {
       imageProcessor.stop();
     }
+    analysisExecutor.shutdown();
   }
 
   private void bindAllCameraUseCases() {
@@ -295,6 +315,7 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
     if (imageProcessor != null) {
       imageProcessor.stop();
     }
+    captureGovernor.setEnabled(PreferenceUtils.isCaptureGovernorEnabled(this));
 
     try {
       switch (selectedModel) {
@@ -419,38 +440,73 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
           .show();
       return;
     }
+    imageProcessor.setCaptureGovernor(captureGovernor);
+    bindImageAnalysis();
+  }
+
+  /** Binds an analysis use case at the current capture level, feeding {@link #imageProcessor}. */
+  private void bindImageAnalysis() {
+    if (cameraProvider == null || imageProcessor == null) {
+      return;
+    }
+    if (analysisUseCase != null) {
+      cameraProvider.unbind(analysisUseCase);
+    }
 
-    ImageAnalysis.Builder builder = new ImageAnalysis.Builder();
+    ImageAnalysis.Builder builder =
+        new ImageAnalysis.Builder()
+            .setBackpressureStrategy(PreferenceUtils.getCameraXBackpressureStrategy(this))
+            // With RGBA_8888 CameraX converts the frames, so none of the YUV conversion to draw the
+            // camera image is left to the analyzer.
+            .setOutputImageFormat(PreferenceUtils.getCameraXOutputImageFormat(this));
+    CaptureGovernor.Level level = captureGovernor.getLevel();
     Size targetResolution = PreferenceUtils.getCameraXTargetResolution(this, lensFacing);
+    if (targetResolution == null && level.scale < 1) {
+      targetResolution = DEFAULT_ANALYSIS_RESOLUTION;
+    }
     if (targetResolution != null) {
-      builder.setTargetResolution(targetResolution);
+      builder.setTargetResolution(
+          new Size(
+              level.scale(targetResolution.getWidth()), level.scale(targetResolution.getHeight())));
     }
+    analysisScale = level.scale;
     analysisUseCase = builder.build();
 
     needUpdateGraphicOverlayImageSourceInfo = true;
+    VisionImageProcessor processor = imageProcessor;
+    boolean isImageFlipped = lensFacing == CameraSelector.LENS_FACING_FRONT;
     analysisUseCase.setAnalyzer(
-        // imageProcessor.processImageProxy will use another thread to run the detection underneath,
-        // thus we can just runs the analyzer itself on main thread.
-        ContextCompat.getMainExecutor(this),
+        // Frame conversion and the detector calls run on the analysis thread. The processor hands
+        // the finished overlay graphics to the main thread.
+        analysisExecutor,
         imageProxy -> {
+          if (!captureGovernor.shouldAnalyzeFrame(imageProxy.getImageInfo().getTimestamp())) {
+            imageProxy.close();
+            return;
+          }
           if (needUpdateGraphicOverlayImageSourceInfo) {
-            boolean isImageFlipped = lensFacing == CameraSelector.LENS_FACING_FRONT;
             int rotationDegrees = imageProxy.getImageInfo().getRotationDegrees();
+            int width = imageProxy.getWidth();
+            int height = imageProxy.getHeight();
+            // Posted ahead of the graphics of this frame, so they are drawn with the new size.
             if (rotationDegrees == 0 || rotationDegrees == 180) {
-              graphicOverlay.setImageSourceInfo(
-                  imageProxy.getWidth(), imageProxy.getHeight(), isImageFlipped);
+              graphicOverlay.post(
+                  () -> graphicOverlay.setImageSourceInfo(width, height, isImageFlipped));
             } else {
-              graphicOverlay.setImageSourceInfo(
-                  imageProxy.getHeight(), imageProxy.getWidth(), isImageFlipped);
+              graphicOverlay.post(
+                  () -> graphicOverlay.setImageSourceInfo(height, width, isImageFlipped));
             }
             needUpdateGraphicOverlayImageSourceInfo = false;
           }
           try {
-            imageProcessor.processImageProxy(imageProxy, graphicOverlay);
+            processor.processImageProxy(imageProxy, graphicOverlay);
           } catch (MlKitException e) {
             Log.e(TAG, "Failed to process image. Error: " + e.getLocalizedMessage());
-            Toast.makeText(getApplicationContext(), e.getLocalizedMessage(), Toast.LENGTH_SHORT)
-                .show();
+            runOnUiThread(
+                () ->
+                    Toast.makeText(
+                            getApplicationContext(), e.getLocalizedMessage(), Toast.LENGTH_SHORT)
+                        .show());
           }
         });
 
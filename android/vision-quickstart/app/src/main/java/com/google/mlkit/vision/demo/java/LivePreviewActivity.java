@@ -31,9 +31,11 @@ import android.widget.Toast;
 import android.widget.ToggleButton;
 import com.google.android.gms.common.annotation.KeepName;
 import com.google.mlkit.common.model.LocalModel;
+import com.google.mlkit.vision.demo.Camera2Source;
 import com.google.mlkit.vision.demo.CameraSource;
 import com.google.mlkit.vision.demo.CameraSourcePreview;
 import com.google.mlkit.vision.demo.GraphicOverlay;
+import com.google.mlkit.vision.demo.LiveCameraSource;
 import com.google.mlkit.vision.demo.R;
 import com.google.mlkit.vision.demo.java.barcodescanner.BarcodeScannerProcessor;
 import com.google.mlkit.vision.demo.java.facedetector.FaceDetectorProcessor;
@@ -83,7 +85,7 @@ public final class LivePreviewActivity extends AppCompatActivity
 
   private static final String TAG = "LivePreviewActivity";
 
-  private CameraSource cameraSource = null;
+  private LiveCameraSource cameraSource = null;
   private CameraSourcePreview preview;
   private GraphicOverlay graphicOverlay;
   private String selectedModel = OBJECT_DETECTION;
@@ -179,7 +181,10 @@ public final class LivePreviewActivity extends AppCompatActivity
   private void createCameraSource(String model) {
     // If there's no existing cameraSource, create one.
     if (cameraSource == null) {
-      cameraSource = new CameraSource(this, graphicOverlay);
+      cameraSource =
+          PreferenceUtils.isCamera2BackendEnabled(this)
+              ? new Camera2Source(this, graphicOverlay)
+              : new CameraSource(this, graphicOverlay);
     }
 
     try {
@@ -23,11 +23,12 @@ import android.app.ActivityManager;
 import android.app.ActivityManager.MemoryInfo;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.PixelFormat;
+import android.media.Image;
 import android.os.Build.VERSION_CODES;
 import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
-import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
@@ -42,38 +43,64 @@ import com.google.android.odml.image.MediaMlImageBuilder;
 import com.google.android.odml.image.MlImage;
 import com.google.mlkit.common.MlKitException;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.BitmapPool;
 import com.google.mlkit.vision.demo.BitmapUtils;
 import com.google.mlkit.vision.demo.CameraImageGraphic;
+import com.google.mlkit.vision.demo.CaptureGovernor;
+import com.google.mlkit.vision.demo.FramePipeline;
+import com.google.mlkit.vision.demo.FramePipeline.DropPolicy;
 import com.google.mlkit.vision.demo.FrameMetadata;
 import com.google.mlkit.vision.demo.GraphicOverlay;
+import com.google.mlkit.vision.demo.GraphicOverlay.Graphic;
 import com.google.mlkit.vision.demo.InferenceInfoGraphic;
 import com.google.mlkit.vision.demo.ScopedExecutor;
 import com.google.mlkit.vision.demo.TemperatureMonitor;
+import com.google.mlkit.vision.demo.ThermalThrottle;
 import com.google.mlkit.vision.demo.VisionImageProcessor;
+import com.google.mlkit.vision.demo.preference.PreferenceSnapshot;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Abstract base class for vision frame processors. Subclasses need to implement {@link
  * #onSuccess(Object, GraphicOverlay)} to define what they want to with the detection results and
  * {@link #detectInImage(InputImage)} to specify the detector object.
  *
+ * <p>{@link #onSuccess} and {@link #onFailure} run on a worker thread, one frame at a time. The
+ * graphics {@link #onSuccess} adds to the overlay are shown together on the main thread once it
+ * returns, so it must not touch views itself.
+ *
  * @param <T> The type of the detected feature.
  */
 public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 
   protected static final String MANUAL_TESTING_LOG = "LogTagForTest";
   private static final String TAG = "VisionProcessorBase";
+  // Sequence number of frames delivered right away instead of through the frame pipeline.
+  private static final long NO_SEQUENCE = -1;
 
   private final ActivityManager activityManager;
   private final Timer fpsTimer = new Timer();
   private final ScopedExecutor executor;
+  // Results are processed and their graphics built here, the main thread only shows them.
+  private final ExecutorService resultThread = Executors.newSingleThreadExecutor();
+  private final ScopedExecutor resultExecutor = new ScopedExecutor(resultThread);
   private final TemperatureMonitor temperatureMonitor;
+  // Throttles live detection as the device heats up, null if turned off in the settings.
+  @Nullable private final ThermalThrottle thermalThrottle;
+  private volatile ThermalThrottle.Level thermalLevel = ThermalThrottle.Level.NONE;
+  // Counts live frames to detect one in every detectionStride, on the thread delivering them.
+  private int liveFrameCount;
+  // Preferences read per frame, refreshed only when they change.
+  private final PreferenceSnapshot.Tracker preferences;
 
   // Whether this processor is already shut down
-  private boolean isShutdown;
+  private volatile boolean isShutdown;
 
   // Used to calculate latency, running in the same thread, no sync needed.
   private int numRuns = 0;
@@ -88,21 +115,59 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
   private int frameProcessedInOneSecondInterval = 0;
   private int framesPerSecond = 0;
 
-  // To keep the latest images and its metadata.
-  @GuardedBy("this")
-  private ByteBuffer latestImage;
+  // Schedules the live preview frames from the Camera1 and Camera2 APIs.
+  private final FramePipeline<CameraFrame> framePipeline;
+  private final int maxFramesInFlight;
+  // Adapts the capture to the detector latency of live preview frames.
+  @Nullable private volatile CaptureGovernor captureGovernor;
+
+  /** A live preview frame, a buffer from the Camera1 API or an image from the Camera2 API. */
+  private static final class CameraFrame {
+    @Nullable final ByteBuffer data;
+    @Nullable final Image image;
+    private final Runnable onFrameDone;
+    final FrameMetadata metadata;
+    final GraphicOverlay graphicOverlay;
+
+    CameraFrame(
+        ByteBuffer data,
+        Runnable onBufferDone,
+        FrameMetadata metadata,
+        GraphicOverlay graphicOverlay) {
+      this.data = data;
+      this.image = null;
+      this.onFrameDone = onBufferDone;
+      this.metadata = metadata;
+      this.graphicOverlay = graphicOverlay;
+    }
 
-  @GuardedBy("this")
-  private FrameMetadata latestImageMetaData;
-  // To keep the images and metadata in process.
-  @GuardedBy("this")
-  private ByteBuffer processingImage;
+    CameraFrame(
+        Image image, Runnable onImageDone, FrameMetadata metadata, GraphicOverlay graphicOverlay) {
+      this.data = null;
+      this.image = image;
+      this.onFrameDone = onImageDone;
+      this.metadata = metadata;
+      this.graphicOverlay = graphicOverlay;
+    }
 
-  @GuardedBy("this")
-  private FrameMetadata processingMetaData;
+    /** Hands the buffer or image back to the camera source. */
+    void release() {
+      onFrameDone.run();
+    }
+  }
 
   protected VisionProcessorBase(Context context) {
+    this(context, /* maxFramesInFlight= */ 1, DropPolicy.LATEST_WINS);
+  }
+
+  /**
+   * Creates a processor running up to {@code maxFramesInFlight} live preview frames at a time, see
+   * {@link FramePipeline}. With more than one, {@link #detectInImage} is called for the next frame
+   * before the results of the previous one are delivered.
+   */
+  protected VisionProcessorBase(Context context, int maxFramesInFlight, DropPolicy dropPolicy) {
     activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    preferences = new PreferenceSnapshot.Tracker(context);
     executor = new ScopedExecutor(TaskExecutors.MAIN_THREAD);
     fpsTimer.scheduleAtFixedRate(
         new TimerTask() {
@@ -115,6 +180,50 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
         /* delay= */ 0,
         /* period= */ 1000);
     temperatureMonitor = new TemperatureMonitor(context);
+    thermalThrottle =
+        PreferenceUtils.isThermalThrottleEnabled(context)
+            ? new ThermalThrottle(context, temperatureMonitor)
+            : null;
+    this.maxFramesInFlight = maxFramesInFlight;
+    framePipeline =
+        new FramePipeline<>(
+            maxFramesInFlight,
+            dropPolicy,
+            /* queueCapacity= */ maxFramesInFlight,
+            new FramePipeline.FrameHandler<CameraFrame>() {
+              @Override
+              public void process(CameraFrame frame, long sequence) {
+                try {
+                  if (isShutdown) {
+                    frame.release();
+                  } else if (frame.image != null) {
+                    processMediaImage(frame, sequence);
+                  } else {
+                    processImage(frame, sequence);
+                  }
+                } catch (RuntimeException e) {
+                  failFrame(frame, sequence, e);
+                }
+              }
+
+              @Override
+              public void drop(CameraFrame frame) {
+                frame.release();
+              }
+            });
+  }
+
+  /**
+   * Ends a live preview frame that failed before reaching the detector, so its slot in the
+   * pipeline is freed and the camera gets the frame back.
+   */
+  private void failFrame(CameraFrame frame, long sequence, RuntimeException e) {
+    frame.release();
+    resultExecutor.execute(
+        () ->
+            framePipeline.complete(
+                sequence,
+                () -> deliverFailure(e, frame.graphicOverlay, /* originalCameraImage= */ null)));
   }
 
   // -----------------Code for processing single still image----------------------------------------
@@ -129,7 +238,8 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
           graphicOverlay,
           /* originalCameraImage= */ null,
           /* shouldShowFps= */ false,
-          frameStartMs);
+          frameStartMs,
+          NO_SEQUENCE);
       mlImage.close();
 
       return;
@@ -140,38 +250,34 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
         graphicOverlay,
         /* originalCameraImage= */ null,
         /* shouldShowFps= */ false,
-        frameStartMs);
+        frameStartMs,
+        NO_SEQUENCE);
   }
 
   // -----------------Code for processing live preview frame from Camera1 API-----------------------
   @Override
-  public synchronized void processByteBuffer(
-      ByteBuffer data, final FrameMetadata frameMetadata, final GraphicOverlay graphicOverlay) {
-    latestImage = data;
-    latestImageMetaData = frameMetadata;
-    if (processingImage == null && processingMetaData == null) {
-      processLatestImage(graphicOverlay);
-    }
-  }
-
-  private synchronized void processLatestImage(final GraphicOverlay graphicOverlay) {
-    processingImage = latestImage;
-    processingMetaData = latestImageMetaData;
-    latestImage = null;
-    latestImageMetaData = null;
-    if (processingImage != null && processingMetaData != null && !isShutdown) {
-      processImage(processingImage, processingMetaData, graphicOverlay);
+  public void processByteBuffer(
+      ByteBuffer data,
+      final FrameMetadata frameMetadata,
+      final GraphicOverlay graphicOverlay,
+      Runnable onBufferDone) {
+    if (shouldSkipLiveFrame()) {
+      onBufferDone.run();
+      return;
     }
+    framePipeline.offer(new CameraFrame(data, onBufferDone, frameMetadata, graphicOverlay));
   }
 
-  private void processImage(
-      ByteBuffer data, final FrameMetadata frameMetadata, final GraphicOverlay graphicOverlay) {
+  private void processImage(CameraFrame frame, long sequence) {
     long frameStartMs = SystemClock.elapsedRealtime();
+    ByteBuffer data = frame.data;
+    FrameMetadata frameMetadata = frame.metadata;
+    GraphicOverlay graphicOverlay = frame.graphicOverlay;
 
     // If live viewport is on (that is the underneath surface view takes care of the camera preview
     // drawing), skip the unnecessary bitmap creation that used for the manual preview drawing.
     Bitmap bitmap =
-        PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())
+        preferences.get().isCameraLiveViewportEnabled
             ? null
             : BitmapUtils.getBitmap(data, frameMetadata);
 
@@ -185,8 +291,10 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
               .setRotation(frameMetadata.getRotation())
               .build();
 
-      requestDetectInImage(mlImage, graphicOverlay, bitmap, /* shouldShowFps= */ true, frameStartMs)
-          .addOnSuccessListener(executor, results -> processLatestImage(graphicOverlay));
+      requestDetectInImage(
+              mlImage, graphicOverlay, bitmap, /* shouldShowFps= */ true, frameStartMs, sequence)
+          // The camera must not refill the buffer until the detector is done with it.
+          .addOnCompleteListener(results -> frame.release());
 
       // This is optional. Java Garbage collection can also close it eventually.
       mlImage.close();
@@ -203,8 +311,66 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
             graphicOverlay,
             bitmap,
             /* shouldShowFps= */ true,
-            frameStartMs)
-        .addOnSuccessListener(executor, results -> processLatestImage(graphicOverlay));
+            frameStartMs,
+            sequence)
+        // The camera must not refill the buffer until the detector is done with it.
+        .addOnCompleteListener(results -> frame.release());
+  }
+
+  // -----------------Code for processing live preview frame from Camera2 API-----------------------
+  @Override
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  public void processMediaImage(
+      Image image, int rotationDegrees, GraphicOverlay graphicOverlay, Runnable onImageDone) {
+    if (shouldSkipLiveFrame()) {
+      onImageDone.run();
+      return;
+    }
+    FrameMetadata frameMetadata =
+        new FrameMetadata.Builder()
+            .setWidth(image.getWidth())
+            .setHeight(image.getHeight())
+            .setRotation(rotationDegrees)
+            .build();
+    framePipeline.offer(new CameraFrame(image, onImageDone, frameMetadata, graphicOverlay));
+  }
+
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  private void processMediaImage(CameraFrame frame, long sequence) {
+    long frameStartMs = SystemClock.elapsedRealtime();
+    Image image = frame.image;
+    int rotationDegrees = frame.metadata.getRotation();
+    GraphicOverlay graphicOverlay = frame.graphicOverlay;
+
+    Bitmap bitmap = null;
+    if (!preferences.get().isCameraLiveViewportEnabled) {
+      bitmap = BitmapUtils.getBitmap(image, rotationDegrees);
+    }
+
+    Task<T> task;
+    if (isMlImageEnabled(graphicOverlay.getContext())) {
+      // The detector reads the planes of the image itself, nothing is copied.
+      MlImage mlImage = new MediaMlImageBuilder(image).setRotation(rotationDegrees).build();
+      task =
+          requestDetectInImage(
+              mlImage,
+              graphicOverlay,
+              /* originalCameraImage= */ bitmap,
+              /* shouldShowFps= */ true,
+              frameStartMs,
+              sequence);
+    } else {
+      task =
+          requestDetectInImage(
+              InputImage.fromMediaImage(image, rotationDegrees),
+              graphicOverlay,
+              /* originalCameraImage= */ bitmap,
+              /* shouldShowFps= */ true,
+              frameStartMs,
+              sequence);
+    }
+    // The image stays in use until the detector is done with it.
+    task.addOnCompleteListener(results -> frame.release());
   }
 
   // -----------------Code for processing live preview frame from CameraX API-----------------------
@@ -213,13 +379,18 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
   @ExperimentalGetImage
   public void processImageProxy(ImageProxy image, GraphicOverlay graphicOverlay) {
     long frameStartMs = SystemClock.elapsedRealtime();
-    if (isShutdown) {
+    if (isShutdown || shouldSkipLiveFrame()) {
       image.close();
       return;
     }
 
+    if (image.getFormat() == PixelFormat.RGBA_8888) {
+      processRgbaImageProxy(image, graphicOverlay, frameStartMs);
+      return;
+    }
+
     Bitmap bitmap = null;
-    if (!PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())) {
+    if (!preferences.get().isCameraLiveViewportEnabled) {
       bitmap = BitmapUtils.getBitmap(image);
     }
 
@@ -234,7 +405,8 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
               graphicOverlay,
               /* originalCameraImage= */ bitmap,
               /* shouldShowFps= */ true,
-              frameStartMs)
+              frameStartMs,
+              NO_SEQUENCE)
           // When the image is from CameraX analysis use case, must call image.close() on received
           // images when finished using them. Otherwise, new images may not be received or the
           // camera may stall.
@@ -249,22 +421,76 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
             graphicOverlay,
             /* originalCameraImage= */ bitmap,
             /* shouldShowFps= */ true,
-            frameStartMs)
+            frameStartMs,
+            NO_SEQUENCE)
         // When the image is from CameraX analysis use case, must call image.close() on received
         // images when finished using them. Otherwise, new images may not be received or the camera
         // may stall.
         .addOnCompleteListener(results -> image.close());
   }
 
+  /**
+   * Processes an RGBA_8888 frame from CameraX. Detectors don't take RGBA media images, so the
+   * frame is copied into an upright bitmap that is both detected on and drawn, and the image is
+   * closed right away.
+   */
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  @ExperimentalGetImage
+  private void processRgbaImageProxy(
+      ImageProxy image, GraphicOverlay graphicOverlay, long frameStartMs) {
+    Bitmap bitmap;
+    try {
+      bitmap = BitmapUtils.getBitmap(image);
+    } finally {
+      image.close();
+    }
+    Bitmap originalCameraImage = null;
+    if (!preferences.get().isCameraLiveViewportEnabled) {
+      // One reference for the detector below, one for the drawn camera image.
+      BitmapPool.retain(bitmap);
+      originalCameraImage = bitmap;
+    }
+
+    Task<T> task;
+    if (isMlImageEnabled(graphicOverlay.getContext())) {
+      MlImage mlImage = new BitmapMlImageBuilder(bitmap).build();
+      task =
+          requestDetectInImage(
+              mlImage,
+              graphicOverlay,
+              originalCameraImage,
+              /* shouldShowFps= */ true,
+              frameStartMs,
+              NO_SEQUENCE);
+      mlImage.close();
+    } else {
+      task =
+          requestDetectInImage(
+              InputImage.fromBitmap(bitmap, /* rotationDegrees= */ 0),
+              graphicOverlay,
+              originalCameraImage,
+              /* shouldShowFps= */ true,
+              frameStartMs,
+              NO_SEQUENCE);
+    }
+    task.addOnCompleteListener(results -> BitmapPool.release(bitmap));
+  }
+
   // -----------------Common processing logic-------------------------------------------------------
   private Task<T> requestDetectInImage(
       final InputImage image,
       final GraphicOverlay graphicOverlay,
       @Nullable final Bitmap originalCameraImage,
       boolean shouldShowFps,
-      long frameStartMs) {
+      long frameStartMs,
+      long sequence) {
     return setUpListener(
-        detectInImage(image), graphicOverlay, originalCameraImage, shouldShowFps, frameStartMs);
+        detectInImage(image),
+        graphicOverlay,
+        originalCameraImage,
+        shouldShowFps,
+        frameStartMs,
+        sequence);
   }
 
   private Task<T> requestDetectInImage(
@@ -272,9 +498,15 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
       final GraphicOverlay graphicOverlay,
       @Nullable final Bitmap originalCameraImage,
       boolean shouldShowFps,
-      long frameStartMs) {
+      long frameStartMs,
+      long sequence) {
     return setUpListener(
-        detectInImage(image), graphicOverlay, originalCameraImage, shouldShowFps, frameStartMs);
+        detectInImage(image),
+        graphicOverlay,
+        originalCameraImage,
+        shouldShowFps,
+        frameStartMs,
+        sequence);
   }
 
   private Task<T> setUpListener(
@@ -282,92 +514,189 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
       final GraphicOverlay graphicOverlay,
       @Nullable final Bitmap originalCameraImage,
       boolean shouldShowFps,
-      long frameStartMs) {
+      long frameStartMs,
+      long sequence) {
     final long detectorStartMs = SystemClock.elapsedRealtime();
-    return task.addOnSuccessListener(
-            executor,
-            results -> {
-              long endMs = SystemClock.elapsedRealtime();
-              long currentFrameLatencyMs = endMs - frameStartMs;
-              long currentDetectorLatencyMs = endMs - detectorStartMs;
-              if (numRuns >= 500) {
-                resetLatencyStats();
-              }
-              numRuns++;
-              frameProcessedInOneSecondInterval++;
-              totalFrameMs += currentFrameLatencyMs;
-              maxFrameMs = max(currentFrameLatencyMs, maxFrameMs);
-              minFrameMs = min(currentFrameLatencyMs, minFrameMs);
-              totalDetectorMs += currentDetectorLatencyMs;
-              maxDetectorMs = max(currentDetectorLatencyMs, maxDetectorMs);
-              minDetectorMs = min(currentDetectorLatencyMs, minDetectorMs);
-
-              // Only log inference info once per second. When frameProcessedInOneSecondInterval is
-              // equal to 1, it means this is the first frame processed during the current second.
-              if (frameProcessedInOneSecondInterval == 1) {
-                Log.d(TAG, "Num of Runs: " + numRuns);
-                Log.d(
-                    TAG,
-                    "Frame latency: max="
-                        + maxFrameMs
-                        + ", min="
-                        + minFrameMs
-                        + ", avg="
-                        + totalFrameMs / numRuns);
-                Log.d(
-                    TAG,
-                    "Detector latency: max="
-                        + maxDetectorMs
-                        + ", min="
-                        + minDetectorMs
-                        + ", avg="
-                        + totalDetectorMs / numRuns);
-                MemoryInfo mi = new MemoryInfo();
-                activityManager.getMemoryInfo(mi);
-                long availableMegs = mi.availMem / 0x100000L;
-                Log.d(TAG, "Memory available in system: " + availableMegs + " MB");
-                temperatureMonitor.logTemperature();
-              }
+    return task.addOnCompleteListener(
+        resultExecutor,
+        completedTask -> {
+          long detectorLatencyMs = SystemClock.elapsedRealtime() - detectorStartMs;
+          Runnable delivery =
+              () -> {
+                if (completedTask.isSuccessful()) {
+                  deliverResults(
+                      completedTask.getResult(),
+                      graphicOverlay,
+                      originalCameraImage,
+                      shouldShowFps,
+                      frameStartMs,
+                      detectorLatencyMs);
+                } else {
+                  deliverFailure(completedTask.getException(), graphicOverlay, originalCameraImage);
+                }
+              };
+          if (sequence == NO_SEQUENCE) {
+            delivery.run();
+          } else {
+            framePipeline.complete(sequence, delivery);
+          }
+        });
+  }
 
-              graphicOverlay.clear();
-              if (originalCameraImage != null) {
-                graphicOverlay.add(new CameraImageGraphic(graphicOverlay, originalCameraImage));
-              }
-              VisionProcessorBase.this.onSuccess(results, graphicOverlay);
-              if (!PreferenceUtils.shouldHideDetectionInfo(graphicOverlay.getContext())) {
-                graphicOverlay.add(
-                    new InferenceInfoGraphic(
-                        graphicOverlay,
-                        currentFrameLatencyMs,
-                        currentDetectorLatencyMs,
-                        shouldShowFps ? framesPerSecond : null));
-              }
-              graphicOverlay.postInvalidate();
-            })
-        .addOnFailureListener(
-            executor,
-            e -> {
-              graphicOverlay.clear();
-              graphicOverlay.postInvalidate();
-              String error = "Failed to process. Error: " + e.getLocalizedMessage();
-              Toast.makeText(
-                      graphicOverlay.getContext(),
-                      error + "\nCause: " + e.getCause(),
-                      Toast.LENGTH_SHORT)
-                  .show();
-              Log.d(TAG, error);
-              e.printStackTrace();
-              VisionProcessorBase.this.onFailure(e);
-            });
+  private void deliverResults(
+      T results,
+      GraphicOverlay graphicOverlay,
+      @Nullable Bitmap originalCameraImage,
+      boolean shouldShowFps,
+      long frameStartMs,
+      long currentDetectorLatencyMs) {
+    long endMs = SystemClock.elapsedRealtime();
+    long currentFrameLatencyMs = endMs - frameStartMs;
+    if (numRuns >= 500) {
+      resetLatencyStats();
+    }
+    numRuns++;
+    frameProcessedInOneSecondInterval++;
+    totalFrameMs += currentFrameLatencyMs;
+    maxFrameMs = max(currentFrameLatencyMs, maxFrameMs);
+    minFrameMs = min(currentFrameLatencyMs, minFrameMs);
+    totalDetectorMs += currentDetectorLatencyMs;
+    maxDetectorMs = max(currentDetectorLatencyMs, maxDetectorMs);
+    minDetectorMs = min(currentDetectorLatencyMs, minDetectorMs);
+    CaptureGovernor governor = captureGovernor;
+    if (governor != null && shouldShowFps) {
+      governor.recordDetectorLatency(currentDetectorLatencyMs);
+    }
+
+    // Only log inference info once per second. When frameProcessedInOneSecondInterval is
+    // equal to 1, it means this is the first frame processed during the current second.
+    if (frameProcessedInOneSecondInterval == 1) {
+      Log.d(TAG, "Num of Runs: " + numRuns);
+      Log.d(
+          TAG,
+          "Frame latency: max="
+              + maxFrameMs
+              + ", min="
+              + minFrameMs
+              + ", avg="
+              + totalFrameMs / numRuns);
+      Log.d(
+          TAG,
+          "Detector latency: max="
+              + maxDetectorMs
+              + ", min="
+              + minDetectorMs
+              + ", avg="
+              + totalDetectorMs / numRuns);
+      MemoryInfo mi = new MemoryInfo();
+      activityManager.getMemoryInfo(mi);
+      long availableMegs = mi.availMem / 0x100000L;
+      Log.d(TAG, "Memory available in system: " + availableMegs + " MB");
+      temperatureMonitor.logTemperature();
+      if (shouldShowFps && thermalThrottle != null) {
+        updateThermalLevel(thermalThrottle.update());
+      }
+    }
+
+    // Build the graphics of this frame here, the overlay keeps showing the previous frame.
+    graphicOverlay.beginFrame();
+    List<Graphic> renderList;
+    try {
+      if (originalCameraImage != null) {
+        graphicOverlay.add(new CameraImageGraphic(graphicOverlay, originalCameraImage));
+      }
+      onSuccess(results, graphicOverlay);
+      if (!preferences.get().shouldHideDetectionInfo) {
+        graphicOverlay.add(
+            new InferenceInfoGraphic(
+                graphicOverlay,
+                currentFrameLatencyMs,
+                currentDetectorLatencyMs,
+                shouldShowFps ? framesPerSecond : null));
+      }
+    } finally {
+      renderList = graphicOverlay.endFrame();
+    }
+    // Not on the scoped executor, which would drop the frame after stop() without releasing its
+    // pooled bitmaps. stop() runs on the main thread too, so the check can't race with it.
+    TaskExecutors.MAIN_THREAD.execute(
+        () -> {
+          if (isShutdown) {
+            graphicOverlay.discard(renderList);
+          } else {
+            graphicOverlay.show(renderList);
+          }
+        });
+  }
+
+  private void deliverFailure(
+      Exception e, GraphicOverlay graphicOverlay, @Nullable Bitmap originalCameraImage) {
+    BitmapPool.release(originalCameraImage);
+    String error = "Failed to process. Error: " + e.getLocalizedMessage();
+    executor.execute(
+        () -> {
+          graphicOverlay.clear();
+          Toast.makeText(
+                  graphicOverlay.getContext(),
+                  error + "\nCause: " + e.getCause(),
+                  Toast.LENGTH_SHORT)
+              .show();
+        });
+    Log.d(TAG, error);
+    e.printStackTrace();
+    onFailure(e);
+  }
+
+  /**
+   * Returns whether a live frame is left out to run detection less often, as the thermal level
+   * asks.
+   */
+  private boolean shouldSkipLiveFrame() {
+    int stride = thermalLevel.detectionStride;
+    if (stride == 1) {
+      return false;
+    }
+    liveFrameCount = (liveFrameCount + 1) % stride;
+    return liveFrameCount != 0;
+  }
+
+  private void updateThermalLevel(ThermalThrottle.Level level) {
+    if (level != thermalLevel) {
+      thermalLevel = level;
+      onThermalLevelChanged(level);
+    }
+  }
+
+  /** Returns what live detection currently gives up to let the device cool down. */
+  protected ThermalThrottle.Level getThermalLevel() {
+    return thermalLevel;
+  }
+
+  /**
+   * Called on the result thread when the thermal level changes, for processors switching to a
+   * faster model while the device is hot.
+   */
+  protected void onThermalLevelChanged(ThermalThrottle.Level level) {}
+
+  @Override
+  public void setCaptureGovernor(@Nullable CaptureGovernor governor) {
+    if (governor != null) {
+      governor.attach(maxFramesInFlight);
+    }
+    captureGovernor = governor;
   }
 
   @Override
   public void stop() {
     executor.shutdown();
+    resultExecutor.shutdown();
+    resultThread.shutdown();
+    framePipeline.shutdown();
     isShutdown = true;
     resetLatencyStats();
     fpsTimer.cancel();
     temperatureMonitor.stop();
+    preferences.close();
   }
 
   private void resetLatencyStats() {
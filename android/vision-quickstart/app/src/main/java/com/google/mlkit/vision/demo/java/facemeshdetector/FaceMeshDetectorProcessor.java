@@ -37,11 +37,14 @@ public class FaceMeshDetectorProcessor extends VisionProcessorBase<List<FaceMesh
   private static final String TAG = "SelfieFaceProcessor";
 
   private final FaceMeshDetector detector;
+  // Read once, the detector keeps this use case for its lifetime.
+  private final int useCase;
 
   public FaceMeshDetectorProcessor(Context context) {
     super(context);
+    useCase = PreferenceUtils.getFaceMeshUseCase(context);
     FaceMeshDetectorOptions.Builder optionsBuilder = new FaceMeshDetectorOptions.Builder();
-    if (PreferenceUtils.getFaceMeshUseCase(context) == FaceMeshDetectorOptions.BOUNDING_BOX_ONLY) {
+    if (useCase == FaceMeshDetectorOptions.BOUNDING_BOX_ONLY) {
       optionsBuilder.setUseCase(FaceMeshDetectorOptions.BOUNDING_BOX_ONLY);
     }
 
@@ -63,7 +66,7 @@ public class FaceMeshDetectorProcessor extends VisionProcessorBase<List<FaceMesh
   protected void onSuccess(
       @NonNull List<FaceMesh> faces, @NonNull GraphicOverlay graphicOverlay) {
     for (FaceMesh face : faces) {
-      graphicOverlay.add(new FaceMeshGraphic(graphicOverlay, face));
+      graphicOverlay.add(new FaceMeshGraphic(graphicOverlay, face, useCase));
     }
   }
 
@@ -28,7 +28,6 @@ import com.google.mlkit.vision.common.PointF3D;
 import com.google.mlkit.vision.common.Triangle;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.GraphicOverlay.Graphic;
-import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 import com.google.mlkit.vision.facemesh.FaceMesh;
 import com.google.mlkit.vision.facemesh.FaceMesh.ContourType;
 import com.google.mlkit.vision.facemesh.FaceMeshDetectorOptions;
@@ -69,7 +68,7 @@ public class FaceMeshGraphic extends Graphic {
     FaceMesh.NOSE_BRIDGE
   };
 
-  FaceMeshGraphic(GraphicOverlay overlay, FaceMesh faceMesh) {
+  FaceMeshGraphic(GraphicOverlay overlay, FaceMesh faceMesh, int useCase) {
     super(overlay);
 
     this.faceMesh = faceMesh;
@@ -83,7 +82,7 @@ public class FaceMeshGraphic extends Graphic {
     boxPaint.setStyle(Style.STROKE);
     boxPaint.setStrokeWidth(BOX_STROKE_WIDTH);
 
-    useCase = PreferenceUtils.getFaceMeshUseCase(getApplicationContext());
+    this.useCase = useCase;
   }
 
   /** Draws the face annotations for position on the supplied canvas. */
@@ -18,17 +18,27 @@ package com.google.mlkit.vision.demo.java.posedetector;
 
 import android.content.Context;
 import android.util.Log;
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.android.odml.image.MlImage;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.FramePipeline.DropPolicy;
 import com.google.mlkit.vision.demo.GraphicOverlay;
+import com.google.mlkit.vision.demo.ThermalThrottle;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
 import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierProcessor;
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierRegistry;
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseSampleIndex;
+import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 import com.google.mlkit.vision.pose.Pose;
 import com.google.mlkit.vision.pose.PoseDetection;
 import com.google.mlkit.vision.pose.PoseDetector;
 import com.google.mlkit.vision.pose.PoseDetectorOptionsBase;
+import com.google.mlkit.vision.pose.accurate.AccuratePoseDetectorOptions;
+import com.google.mlkit.vision.pose.defaults.PoseDetectorOptions;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
@@ -38,17 +48,34 @@ import java.util.concurrent.Executors;
 public class PoseDetectorProcessor
     extends VisionProcessorBase<PoseDetectorProcessor.PoseWithClassification> {
   private static final String TAG = "PoseDetectorProcessor";
+  private static final int FRAMES_IN_FLIGHT = 2;
 
   private final PoseDetector detector;
+  // Base model options to fall back to while the device is hot, null without an accurate model.
+  @Nullable private final PoseDetectorOptions fastDetectorOptions;
+  // Created the first time the device gets hot. Both guarded by this, so it isn't created after
+  // the detectors are closed.
+  @Nullable private PoseDetector fastDetector;
+  private boolean isStopped;
+  // The detector frames are sent to.
+  private volatile PoseDetector activeDetector;
+  // Classification of the last frame sent to a detector. Each frame is classified after it, so
+  // the classifier and its rep counters see the frames in order even right after a swap, when
+  // the fast detector can finish a frame before the accurate one finished the frames in flight.
+  @GuardedBy("this")
+  private Task<PoseWithClassification> lastClassification = Tasks.forResult(null);
 
   private final boolean showInFrameLikelihood;
   private final boolean visualizeZ;
   private final boolean rescaleZForVisualization;
   private final boolean runClassification;
   private final boolean isStreamMode;
-  private final Context context;
   private final Executor classificationExecutor;
+  // Completes once the shared pose samples are loaded, null if classification is off.
+  @Nullable private final Task<PoseSampleIndex> poseSamplesReady;
 
+  // stop() may be called more than once, but the samples must only be released once.
+  private boolean poseSamplesAcquired;
   private PoseClassifierProcessor poseClassifierProcessor;
   /** Internal class to hold Pose and classification results. */
   protected static class PoseWithClassification {
@@ -77,72 +104,129 @@ public class PoseDetectorProcessor
       boolean rescaleZForVisualization,
       boolean runClassification,
       boolean isStreamMode) {
-    super(context);
+    // The detector already works on the next frame while the results of one are drawn. Pose
+    // detection and classification run in frame order, so the results still come in order.
+    super(context, FRAMES_IN_FLIGHT, DropPolicy.LATEST_WINS);
     this.showInFrameLikelihood = showInFrameLikelihood;
     this.visualizeZ = visualizeZ;
     this.rescaleZForVisualization = rescaleZForVisualization;
     detector = PoseDetection.getClient(options);
+    activeDetector = detector;
+    fastDetectorOptions =
+        options instanceof AccuratePoseDetectorOptions
+            ? createFastDetectorOptions(context, isStreamMode)
+            : null;
     this.runClassification = runClassification;
     this.isStreamMode = isStreamMode;
-    this.context = context;
     classificationExecutor = Executors.newSingleThreadExecutor();
+    poseSamplesReady = runClassification ? PoseClassifierRegistry.acquire(context) : null;
+    poseSamplesAcquired = runClassification;
+  }
+
+  private static PoseDetectorOptions createFastDetectorOptions(
+      Context context, boolean isStreamMode) {
+    int detectorMode =
+        isStreamMode ? PoseDetectorOptions.STREAM_MODE : PoseDetectorOptions.SINGLE_IMAGE_MODE;
+    PoseDetectorOptions.Builder builder =
+        new PoseDetectorOptions.Builder().setDetectorMode(detectorMode);
+    if (PreferenceUtils.preferGPUForPoseDetection(context)) {
+      builder.setPreferredHardwareConfigs(PoseDetectorOptions.CPU_GPU);
+    }
+    return builder.build();
   }
 
   @Override
   public void stop() {
     super.stop();
+    closeDetectors();
+    // The classifier processor is only touched on classificationExecutor.
+    classificationExecutor.execute(
+        () -> {
+          if (poseClassifierProcessor != null) {
+            poseClassifierProcessor.close();
+          }
+        });
+    if (poseSamplesAcquired) {
+      poseSamplesAcquired = false;
+      PoseClassifierRegistry.release();
+    }
+  }
+
+  private synchronized void closeDetectors() {
+    isStopped = true;
     detector.close();
+    if (fastDetector != null) {
+      fastDetector.close();
+    }
+  }
+
+  @Override
+  protected synchronized void onThermalLevelChanged(ThermalThrottle.Level level) {
+    if (fastDetectorOptions == null || isStopped) {
+      return;
+    }
+    if (level.preferFastModel) {
+      if (fastDetector == null) {
+        fastDetector = PoseDetection.getClient(fastDetectorOptions);
+      }
+      activeDetector = fastDetector;
+    } else {
+      activeDetector = detector;
+    }
   }
 
   @Override
   protected Task<PoseWithClassification> detectInImage(InputImage image) {
-    return detector
-        .process(image)
-        .continueWith(
-            classificationExecutor,
-            task -> {
-              Pose pose = task.getResult();
-              List<String> classificationResult = new ArrayList<>();
-              if (runClassification) {
-                if (poseClassifierProcessor == null) {
-                  poseClassifierProcessor = new PoseClassifierProcessor(context, isStreamMode);
-                }
-                classificationResult = poseClassifierProcessor.getPoseResult(pose);
-              }
-              return new PoseWithClassification(pose, classificationResult);
-            });
+    return classifyInOrder(activeDetector.process(image));
   }
 
   @Override
   protected Task<PoseWithClassification> detectInImage(MlImage image) {
-    return detector
-        .process(image)
-        .continueWith(
-            classificationExecutor,
-            task -> {
-              Pose pose = task.getResult();
-              List<String> classificationResult = new ArrayList<>();
-              if (runClassification) {
-                if (poseClassifierProcessor == null) {
-                  poseClassifierProcessor = new PoseClassifierProcessor(context, isStreamMode);
-                }
-                classificationResult = poseClassifierProcessor.getPoseResult(pose);
-              }
-              return new PoseWithClassification(pose, classificationResult);
-            });
+    return classifyInOrder(activeDetector.process(image));
+  }
+
+  private synchronized Task<PoseWithClassification> classifyInOrder(Task<Pose> poseTask) {
+    lastClassification =
+        lastClassification
+            .continueWithTask(classificationExecutor, previous -> poseTask)
+            .continueWith(
+                classificationExecutor,
+                task -> {
+                  Pose pose = task.getResult();
+                  return new PoseWithClassification(pose, classify(pose));
+                });
+    return lastClassification;
+  }
+
+  // Runs on classificationExecutor. Frames arriving before the pose samples are ready are shown
+  // without classification rather than being blocked.
+  private List<String> classify(Pose pose) {
+    if (!runClassification) {
+      return new ArrayList<>();
+    }
+    if (poseClassifierProcessor == null) {
+      if (!poseSamplesReady.isSuccessful()) {
+        return new ArrayList<>();
+      }
+      poseClassifierProcessor =
+          new PoseClassifierProcessor(poseSamplesReady.getResult(), isStreamMode);
+    }
+    return poseClassifierProcessor.getPoseResult(pose);
   }
 
   @Override
   protected void onSuccess(
       @NonNull PoseWithClassification poseWithClassification,
       @NonNull GraphicOverlay graphicOverlay) {
+    // Likelihood labels and depth colors cost the most to draw.
+    boolean reduceOverlays = getThermalLevel().reduceOverlays;
     graphicOverlay.add(
         new PoseGraphic(
             graphicOverlay,
             poseWithClassification.pose,
-            showInFrameLikelihood,
-            visualizeZ,
-            rescaleZForVisualization,
+            showInFrameLikelihood && !reduceOverlays,
+            visualizeZ && !reduceOverlays,
+            rescaleZForVisualization && !reduceOverlays,
             poseWithClassification.classificationResult));
   }
 
@@ -17,75 +17,213 @@
 package com.google.mlkit.vision.demo.java.posedetector.classification;
 
 import android.os.SystemClock;
-import java.util.Deque;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Runs EMA smoothing over a window with given stream of pose.kt classification results.
+ *
+ * <p>Results are kept per dense class id in a ring buffer of {@code float[]} rows, so the
+ * {@link #getSmoothedResult(float[], long, float[])} variant doesn't allocate per frame. Class
+ * names passed in {@link ClassificationResult}s are assigned ids in order of first appearance.
+ *
+ * <p>Each class keeps a running weighted sum of the window, updated in constant time per result
+ * as {@code S = v + (1 - alpha) * S - (1 - alpha)^windowSize * evicted}. The sums are recomputed
+ * from the window every {@link #RESUM_INTERVAL} results, so rounding errors can't build up.
  */
 public class EMASmoothing {
   private static final int DEFAULT_WINDOW_SIZE = 10;
   private static final float DEFAULT_ALPHA = 0.2f;
 
   private static final long RESET_THRESHOLD_MS = 100;
+  // Results between two exact sums over the window.
+  private static final int RESUM_INTERVAL = 1000;
 
   private final int windowSize;
-  private final float alpha;
-  // This is a window of {@link ClassificationResult}s as outputted by the {@link PoseClassifier}.
-  // We run smoothing over this window of size {@link windowSize}.
-  private final Deque<ClassificationResult> window;
+  // factors[i] is the weight of the i-th newest result in the window and bottomSums[n] the sum of
+  // the weights of a window holding n results.
+  private final double[] factors;
+  private final double[] bottomSums;
+  // How much the weight of a result shrinks with each newer one.
+  private final double decay;
+  // The weight of the oldest result once it is pushed out of a full window.
+  private final double evictionFactor;
+  // This is a window of class confidences as outputted by the {@link PoseClassifier}, indexed by
+  // class id. Row {@code newest} is the latest result and the {@code size - 1} older ones precede
+  // it circularly. We run smoothing over this window of size {@link windowSize}.
+  private float[][] window;
+  // Number of results in the window in which each class has a non zero confidence.
+  private int[] presentCounts;
+  // Sum of the confidences of each class in the window, weighted by their factors.
+  private double[] weightedSums;
+  private int resultsSinceResum;
+  private int newest;
+  private int size;
 
   private long lastInputMs;
 
+  // Dense ids of the class names seen by getSmoothedResult(ClassificationResult).
+  private final Map<String, Integer> classIds = new HashMap<>();
+  private final List<String> classNames = new ArrayList<>();
+  private float[] classConfidences = new float[0];
+  private float[] smoothedConfidences = new float[0];
+
   public EMASmoothing() {
     this(DEFAULT_WINDOW_SIZE, DEFAULT_ALPHA);
   }
 
   public EMASmoothing(int windowSize, float alpha) {
+    this(windowSize, alpha, 0);
+  }
+
+  /**
+   * Creates a smoother sized for {@code numClasses} dense class ids upfront. It still grows if
+   * more classes show up.
+   */
+  public EMASmoothing(int windowSize, float alpha, int numClasses) {
     this.windowSize = windowSize;
-    this.alpha = alpha;
-    this.window = new LinkedBlockingDeque<>(windowSize);
+    factors = new double[windowSize];
+    bottomSums = new double[windowSize + 1];
+    decay = 1.0 - alpha;
+    double factor = 1;
+    for (int i = 0; i < windowSize; i++) {
+      factors[i] = factor;
+      bottomSums[i + 1] = bottomSums[i] + factor;
+      factor *= decay;
+    }
+    evictionFactor = factor;
+    window = new float[windowSize][numClasses];
+    presentCounts = new int[numClasses];
+    weightedSums = new double[numClasses];
   }
 
   public ClassificationResult getSmoothedResult(ClassificationResult classificationResult) {
+    return getSmoothedResult(classificationResult, SystemClock.elapsedRealtime());
+  }
+
+  /**
+   * Same as {@link #getSmoothedResult(ClassificationResult)} for a result captured at the given
+   * time, e.g. when replaying a recorded sequence.
+   */
+  public ClassificationResult getSmoothedResult(
+      ClassificationResult classificationResult, long nowMs) {
+    for (String className : classificationResult.getAllClasses()) {
+      if (!classIds.containsKey(className)) {
+        classIds.put(className, classNames.size());
+        classNames.add(className);
+      }
+    }
+    if (classConfidences.length < classNames.size()) {
+      classConfidences = new float[classNames.size()];
+      smoothedConfidences = new float[classNames.size()];
+    }
+    for (int classId = 0; classId < classNames.size(); classId++) {
+      classConfidences[classId] =
+          classificationResult.getClassConfidence(classNames.get(classId));
+    }
+
+    getSmoothedResult(classConfidences, nowMs, smoothedConfidences);
+
+    ClassificationResult smoothedResult = new ClassificationResult();
+    for (int classId = 0; classId < classNames.size(); classId++) {
+      if (presentCounts[classId] > 0) {
+        smoothedResult.putClassConfidence(classNames.get(classId), smoothedConfidences[classId]);
+      }
+    }
+    return smoothedResult;
+  }
+
+  /**
+   * Adds the confidences of a new result, indexed by class id, and writes the smoothed confidence
+   * of each class to {@code smoothedConfidences}. Classes with a zero confidence in the whole
+   * window get zero.
+   *
+   * @param nowMs the time the result was captured at, in {@link SystemClock#elapsedRealtime}
+   *     milliseconds.
+   */
+  public void getSmoothedResult(
+      float[] classConfidences, long nowMs, float[] smoothedConfidences) {
+    int numClasses = classConfidences.length;
+    ensureCapacity(numClasses);
+
     // Resets memory if the input is too far away from the previous one in time.
-    long nowMs = SystemClock.elapsedRealtime();
     if (nowMs - lastInputMs > RESET_THRESHOLD_MS) {
-      window.clear();
+      size = 0;
+      for (int classId = 0; classId < presentCounts.length; classId++) {
+        presentCounts[classId] = 0;
+        weightedSums[classId] = 0;
+      }
     }
     lastInputMs = nowMs;
 
-    // If we are at window size, remove the last (oldest) result.
-    if (window.size() == windowSize) {
-      window.pollLast();
+    // Insert at the beginning of the window, overwriting the last (oldest) result if we are at
+    // window size.
+    newest = (newest + 1) % windowSize;
+    float[] row = window[newest];
+    boolean isFull = size == windowSize;
+    if (!isFull) {
+      size++;
     }
-    // Insert at the beginning of the window.
-    window.addFirst(classificationResult);
-
-    Set<String> allClasses = new HashSet<>();
-    for (ClassificationResult result : window) {
-      allClasses.addAll(result.getAllClasses());
+    for (int classId = 0; classId < row.length; classId++) {
+      float evicted = isFull ? row[classId] : 0;
+      float value = classId < numClasses ? classConfidences[classId] : 0;
+      row[classId] = value;
+      if (evicted != 0) {
+        presentCounts[classId]--;
+      }
+      if (value != 0) {
+        presentCounts[classId]++;
+      }
+      // Without any confidence left the sum is exactly zero, drop what rounding left of it.
+      weightedSums[classId] =
+          presentCounts[classId] == 0
+              ? 0
+              : value + decay * weightedSums[classId] - evictionFactor * evicted;
+    }
+    if (++resultsSinceResum >= RESUM_INTERVAL) {
+      resum();
     }
 
-    ClassificationResult smoothedResult = new ClassificationResult();
-
-    for (String className : allClasses) {
-      float factor = 1;
-      float topSum = 0;
-      float bottomSum = 0;
-      for (ClassificationResult result : window) {
-        float value = result.getClassConfidence(className);
-
-        topSum += factor * value;
-        bottomSum += factor;
+    double bottomSum = bottomSums[size];
+    for (int classId = 0; classId < smoothedConfidences.length; classId++) {
+      if (classId >= presentCounts.length || presentCounts[classId] == 0) {
+        smoothedConfidences[classId] = 0;
+      } else {
+        smoothedConfidences[classId] = (float) (weightedSums[classId] / bottomSum);
+      }
+    }
+  }
 
-        factor = (float) (factor * (1.0 - alpha));
+  /** Sums the window of each class again, newest first. */
+  private void resum() {
+    resultsSinceResum = 0;
+    for (int classId = 0; classId < weightedSums.length; classId++) {
+      double sum = 0;
+      int position = newest;
+      for (int i = 0; i < size; i++) {
+        sum += factors[i] * window[position][classId];
+        position = position == 0 ? windowSize - 1 : position - 1;
       }
-      smoothedResult.putClassConfidence(className, topSum / bottomSum);
+      weightedSums[classId] = sum;
     }
+  }
 
-    return smoothedResult;
+  private void ensureCapacity(int numClasses) {
+    if (presentCounts.length >= numClasses) {
+      return;
+    }
+    for (int i = 0; i < windowSize; i++) {
+      float[] row = new float[numClasses];
+      System.arraycopy(window[i], 0, row, 0, window[i].length);
+      window[i] = row;
+    }
+    int[] counts = new int[numClasses];
+    System.arraycopy(presentCounts, 0, counts, 0, presentCounts.length);
+    presentCounts = counts;
+    double[] sums = new double[numClasses];
+    System.arraycopy(weightedSums, 0, sums, 0, weightedSums.length);
+    weightedSums = sums;
   }
 }
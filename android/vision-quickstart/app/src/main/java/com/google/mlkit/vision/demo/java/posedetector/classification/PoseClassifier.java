@@ -16,40 +16,60 @@
 
 package com.google.mlkit.vision.demo.java.posedetector.classification;
 
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_LENGTH;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.LANDMARKS_LENGTH;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.NUM_DIMS;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.NUM_EMBEDDING_POINTS;
 import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.getPoseEmbedding;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.maxAbs;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.multiply;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.multiplyAll;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.subtract;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.sumAbs;
-import static java.lang.Math.max;
 import static java.lang.Math.min;
 
-import android.util.Pair;
+import androidx.annotation.Nullable;
 import com.google.mlkit.vision.common.PointF3D;
 import com.google.mlkit.vision.pose.Pose;
 import com.google.mlkit.vision.pose.PoseLandmark;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.PriorityQueue;
 
 /**
  * Classifies {link Pose} based on given {@link PoseSample}s.
  *
  * <p>Inspired by K-Nearest Neighbors Algorithm with outlier filtering.
  * https://en.wikipedia.org/wiki/K-nearest_neighbors_algorithm
+ *
+ * <p>Sample embeddings are kept in a {@link PoseSampleMatrix} and all distances are computed on
+ * primitive arrays with scratch buffers owned by this instance, so classifying a pose does not
+ * allocate per sample. As a consequence this class is not thread safe.
+ *
+ * <p>In bounded search mode (the default), once the top-K max distances are known a sample is
+ * abandoned as soon as its partial max distance exceeds the current K-th one, and the flipped
+ * embedding is only compared as long as it can still beat the original one. This returns exactly
+ * the same neighbours as the full scan.
+ *
+ * <p>When created from a {@link PoseSampleIndex}, the top-K samples by max distance are retrieved
+ * from the index instead.
  */
 public class PoseClassifier {
   private static final String TAG = "PoseClassifier";
   private static final int MAX_DISTANCE_TOP_K = 30;
   private static final int MEAN_DISTANCE_TOP_K = 10;
   // Note Z has a lower weight as it is generally less accurate than X & Y.
-  private static final PointF3D AXES_WEIGHTS = PointF3D.from(1, 1, 0.2f);
+  static final PointF3D AXES_WEIGHTS = PointF3D.from(1, 1, 0.2f);
 
-  private final List<PoseSample> poseSamples;
+  private final PoseSampleMatrix sampleMatrix;
+  @Nullable private final PoseSampleIndex sampleIndex;
   private final int maxDistanceTopK;
   private final int meanDistanceTopK;
-  private final PointF3D axesWeights;
+  private final WeightedDistance distance;
+  private final boolean boundedSearch;
+
+  // Scratch buffers reused across calls.
+  private final float[] landmarks = new float[LANDMARKS_LENGTH];
+  private final float[] normalizedLandmarks = new float[LANDMARKS_LENGTH];
+  private final float[] embedding = new float[EMBEDDING_LENGTH];
+  private final float[] flippedEmbedding = new float[EMBEDDING_LENGTH];
+  private final TopKDistances maxDistances;
+  private final TopKDistances meanDistances;
+  private final float[] classCounts;
 
   public PoseClassifier(List<PoseSample> poseSamples) {
     this(poseSamples, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K, AXES_WEIGHTS);
@@ -57,18 +77,44 @@ public class PoseClassifier {
 
   public PoseClassifier(List<PoseSample> poseSamples, int maxDistanceTopK,
       int meanDistanceTopK, PointF3D axesWeights) {
-    this.poseSamples = poseSamples;
-    this.maxDistanceTopK = maxDistanceTopK;
-    this.meanDistanceTopK = meanDistanceTopK;
-    this.axesWeights = axesWeights;
+    this(new PoseSampleMatrix(poseSamples), maxDistanceTopK, meanDistanceTopK, axesWeights,
+        /* boundedSearch= */ true);
   }
 
-  private static List<PointF3D> extractPoseLandmarks(Pose pose) {
-    List<PointF3D> landmarks = new ArrayList<>();
-    for (PoseLandmark poseLandmark : pose.getAllPoseLandmarks()) {
-      landmarks.add(poseLandmark.getPosition3D());
-    }
-    return landmarks;
+  public PoseClassifier(PoseSampleMatrix sampleMatrix) {
+    this(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K, AXES_WEIGHTS,
+        /* boundedSearch= */ true);
+  }
+
+  public PoseClassifier(PoseSampleMatrix sampleMatrix, int maxDistanceTopK,
+      int meanDistanceTopK, PointF3D axesWeights, boolean boundedSearch) {
+    this(sampleMatrix, null, maxDistanceTopK, meanDistanceTopK, axesWeights, boundedSearch);
+  }
+
+  /**
+   * Creates a classifier that retrieves the top-K samples by max distance from the given index
+   * instead of scanning all of them. The index' axes weights are used for both stages.
+   */
+  public PoseClassifier(PoseSampleIndex sampleIndex) {
+    this(sampleIndex, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+  }
+
+  public PoseClassifier(PoseSampleIndex sampleIndex, int maxDistanceTopK, int meanDistanceTopK) {
+    this(sampleIndex.getSampleMatrix(), sampleIndex, maxDistanceTopK, meanDistanceTopK,
+        sampleIndex.getAxesWeights(), /* boundedSearch= */ true);
+  }
+
+  private PoseClassifier(PoseSampleMatrix sampleMatrix, @Nullable PoseSampleIndex sampleIndex,
+      int maxDistanceTopK, int meanDistanceTopK, PointF3D axesWeights, boolean boundedSearch) {
+    this.sampleMatrix = sampleMatrix;
+    this.sampleIndex = sampleIndex;
+    this.maxDistanceTopK = maxDistanceTopK;
+    this.meanDistanceTopK = meanDistanceTopK;
+    this.distance = new WeightedDistance(axesWeights);
+    this.boundedSearch = boundedSearch;
+    maxDistances = new TopKDistances(maxDistanceTopK);
+    meanDistances = new TopKDistances(meanDistanceTopK);
+    classCounts = new float[sampleMatrix.getNumClasses()];
   }
 
   /**
@@ -81,24 +127,84 @@ public class PoseClassifier {
     return min(maxDistanceTopK, meanDistanceTopK);
   }
 
+  /** Returns the number of classes. Dense class ids range from 0 to this value exclusive. */
+  public int getNumClasses() {
+    return sampleMatrix.getNumClasses();
+  }
+
+  public String getClassName(int classId) {
+    return sampleMatrix.getClassName(classId);
+  }
+
   public ClassificationResult classify(Pose pose) {
-    return classify(extractPoseLandmarks(pose));
+    classify(pose, classCounts);
+    return toClassificationResult();
   }
 
-  public ClassificationResult classify(List<PointF3D> landmarks) {
-    ClassificationResult result = new ClassificationResult();
+  /**
+   * Same as {@link #classify(Pose)}, but writes the confidence of each class to
+   * {@code classConfidences} by class id instead of allocating a {@link ClassificationResult}.
+   */
+  public void classify(Pose pose, float[] classConfidences) {
+    List<PoseLandmark> poseLandmarks = pose.getAllPoseLandmarks();
+    // Return early if no landmarks detected.
+    if (poseLandmarks.isEmpty()) {
+      Arrays.fill(classConfidences, 0, getNumClasses(), 0);
+      return;
+    }
+    for (int i = 0; i < poseLandmarks.size(); i++) {
+      PointF3D position = poseLandmarks.get(i).getPosition3D();
+      landmarks[i * NUM_DIMS] = position.getX();
+      landmarks[i * NUM_DIMS + 1] = position.getY();
+      landmarks[i * NUM_DIMS + 2] = position.getZ();
+    }
+    classifyLandmarks(classConfidences);
+  }
+
+  public ClassificationResult classify(List<PointF3D> landmarkList) {
     // Return early if no landmarks detected.
-    if (landmarks.isEmpty()) {
-      return result;
+    if (landmarkList.isEmpty()) {
+      return new ClassificationResult();
+    }
+    for (int i = 0; i < landmarkList.size(); i++) {
+      PointF3D position = landmarkList.get(i);
+      landmarks[i * NUM_DIMS] = position.getX();
+      landmarks[i * NUM_DIMS + 1] = position.getY();
+      landmarks[i * NUM_DIMS + 2] = position.getZ();
     }
+    classifyLandmarks(classCounts);
+    return toClassificationResult();
+  }
 
-    // We do flipping on X-axis so we are horizontal (mirror) invariant.
-    List<PointF3D> flippedLandmarks = new ArrayList<>(landmarks);
-    multiplyAll(flippedLandmarks, PointF3D.from(-1, 1, 1));
+  /**
+   * Classifies the pose whose {@link PoseEmbedding#LANDMARKS_LENGTH} landmark coordinates are
+   * packed as x, y, z triples in {@code landmarks} starting at {@code offset}.
+   */
+  public ClassificationResult classify(float[] landmarks, int offset) {
+    System.arraycopy(landmarks, offset, this.landmarks, 0, LANDMARKS_LENGTH);
+    classifyLandmarks(classCounts);
+    return toClassificationResult();
+  }
 
-    List<PointF3D> embedding = getPoseEmbedding(landmarks);
-    List<PointF3D> flippedEmbedding = getPoseEmbedding(flippedLandmarks);
+  private ClassificationResult toClassificationResult() {
+    ClassificationResult result = new ClassificationResult();
+    for (int classId = 0; classId < classCounts.length; classId++) {
+      if (classCounts[classId] > 0) {
+        result.putClassConfidence(getClassName(classId), classCounts[classId]);
+      }
+    }
+    return result;
+  }
 
+  private void classifyLandmarks(float[] classConfidences) {
+    getPoseEmbedding(landmarks, normalizedLandmarks, embedding);
+    // We do flipping on X-axis so we are horizontal (mirror) invariant. Negation is exact and
+    // commutes with every step of the embedding, so we flip the embedding instead of recomputing.
+    for (int i = 0; i < EMBEDDING_LENGTH; i += NUM_DIMS) {
+      flippedEmbedding[i] = -embedding[i];
+      flippedEmbedding[i + 1] = embedding[i + 1];
+      flippedEmbedding[i + 2] = embedding[i + 2];
+    }
 
     // Classification is done in two stages:
     //  * First we pick top-K samples by MAX distance. It allows to remove samples that are almost
@@ -106,65 +212,76 @@ public class PoseClassifier {
     //  * Then we pick top-K samples by MEAN distance. After outliers are removed, we pick samples
     //    that are closest by average.
 
-    // Keeps max distance on top so we can pop it when top_k size is reached.
-    PriorityQueue<Pair<PoseSample, Float>> maxDistances = new PriorityQueue<>(
-        maxDistanceTopK, (o1, o2) -> -Float.compare(o1.second, o2.second));
+    // NaN never compares greater than a bound, so it could hide a distance that should've won.
+    boolean boundsHold = !sampleMatrix.containsNaN() && !containsNaN(embedding);
     // Retrieve top K poseSamples by least distance to remove outliers.
-    for (PoseSample poseSample : poseSamples) {
-      List<PointF3D> sampleEmbedding = poseSample.getEmbedding();
-
-      float originalMax = 0;
-      float flippedMax = 0;
-      for (int i = 0; i < embedding.size(); i++) {
-        originalMax =
-            max(
-                originalMax,
-                maxAbs(multiply(subtract(embedding.get(i), sampleEmbedding.get(i)), axesWeights)));
-        flippedMax =
-            max(
-                flippedMax,
-                maxAbs(
-                    multiply(
-                        subtract(flippedEmbedding.get(i), sampleEmbedding.get(i)), axesWeights)));
-      }
-      // Set the max distance as min of original and flipped max distance.
-      maxDistances.add(new Pair<>(poseSample, min(originalMax, flippedMax)));
-      // We only want to retain top n so pop the highest distance.
-      if (maxDistances.size() > maxDistanceTopK) {
-        maxDistances.poll();
-      }
+    if (sampleIndex != null && boundsHold) {
+      sampleIndex.search(embedding, flippedEmbedding, maxDistances);
+    } else {
+      scanMaxDistances(boundedSearch && boundsHold);
     }
 
-    // Keeps higher mean distances on top so we can pop it when top_k size is reached.
-    PriorityQueue<Pair<PoseSample, Float>> meanDistances = new PriorityQueue<>(
-        meanDistanceTopK, (o1, o2) -> -Float.compare(o1.second, o2.second));
+    float[] sampleEmbeddings = sampleMatrix.getEmbeddings();
     // Retrive top K poseSamples by least mean distance to remove outliers.
-    for (Pair<PoseSample, Float> sampleDistances : maxDistances) {
-      PoseSample poseSample = sampleDistances.first;
-      List<PointF3D> sampleEmbedding = poseSample.getEmbedding();
-
-      float originalSum = 0;
-      float flippedSum = 0;
-      for (int i = 0; i < embedding.size(); i++) {
-        originalSum += sumAbs(multiply(
-            subtract(embedding.get(i), sampleEmbedding.get(i)), axesWeights));
-        flippedSum += sumAbs(
-            multiply(subtract(flippedEmbedding.get(i), sampleEmbedding.get(i)), axesWeights));
-      }
+    meanDistances.clear();
+    for (int position = 0; position < maxDistances.size(); position++) {
+      int sample = maxDistances.sampleIndexAt(position);
+      int offset = sample * EMBEDDING_LENGTH;
+      float originalSum = distance.sumDistance(embedding, 0, sampleEmbeddings, offset);
+      float flippedSum = distance.sumDistance(flippedEmbedding, 0, sampleEmbeddings, offset);
       // Set the mean distance as min of original and flipped mean distances.
-      float meanDistance = min(originalSum, flippedSum) / (embedding.size() * 2);
-      meanDistances.add(new Pair<>(poseSample, meanDistance));
-      // We only want to retain top k so pop the highest mean distance.
-      if (meanDistances.size() > meanDistanceTopK) {
-        meanDistances.poll();
-      }
+      float meanDistance = min(originalSum, flippedSum) / (NUM_EMBEDDING_POINTS * 2);
+      meanDistances.add(sample, meanDistance);
     }
 
-    for (Pair<PoseSample, Float> sampleDistances : meanDistances) {
-      String className = sampleDistances.first.getClassName();
-      result.incrementClassConfidence(className);
+    Arrays.fill(classConfidences, 0, getNumClasses(), 0);
+    for (int position = 0; position < meanDistances.size(); position++) {
+      classConfidences[sampleMatrix.getClassId(meanDistances.sampleIndexAt(position))]++;
     }
+  }
 
-    return result;
+  private void scanMaxDistances(boolean canPrune) {
+    float[] sampleEmbeddings = sampleMatrix.getEmbeddings();
+    maxDistances.clear();
+    for (int sample = 0; sample < sampleMatrix.getNumSamples(); sample++) {
+      int offset = sample * EMBEDDING_LENGTH;
+      if (!canPrune || !maxDistances.isFull()) {
+        float originalMax = distance.maxDistance(
+            embedding, 0, sampleEmbeddings, offset, Float.POSITIVE_INFINITY);
+        float flippedMax = distance.maxDistance(
+            flippedEmbedding, 0, sampleEmbeddings, offset, Float.POSITIVE_INFINITY);
+        // Set the max distance as min of original and flipped max distance.
+        maxDistances.add(sample, min(originalMax, flippedMax));
+        continue;
+      }
+
+      float bound = maxDistances.peekDistance();
+      float originalMax = distance.maxDistance(embedding, 0, sampleEmbeddings, offset, bound);
+      if (originalMax > bound) {
+        // The original embedding can't make it to the top K, only the flipped one still can.
+        float flippedMax =
+            distance.maxDistance(flippedEmbedding, 0, sampleEmbeddings, offset, bound);
+        if (flippedMax > bound) {
+          maxDistances.addAboveTop();
+        } else {
+          maxDistances.add(sample, flippedMax);
+        }
+      } else {
+        // The flipped embedding only matters while it can beat the original one. If it stops
+        // early, its partial distance is already larger and min() picks the original.
+        float flippedMax =
+            distance.maxDistance(flippedEmbedding, 0, sampleEmbeddings, offset, originalMax);
+        maxDistances.add(sample, min(originalMax, flippedMax));
+      }
+    }
+  }
+
+  private static boolean containsNaN(float[] values) {
+    for (float value : values) {
+      if (Float.isNaN(value)) {
+        return true;
+      }
+    }
+    return false;
   }
 }
@@ -16,17 +16,12 @@
 
 package com.google.mlkit.vision.demo.java.posedetector.classification;
 
-import android.content.Context;
-import android.media.AudioManager;
-import android.media.ToneGenerator;
 import android.os.Looper;
-import android.util.Log;
+import android.os.SystemClock;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import com.google.common.base.Preconditions;
 import com.google.mlkit.vision.pose.Pose;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -36,11 +31,10 @@ import java.util.Locale;
  */
 public class PoseClassifierProcessor {
   private static final String TAG = "PoseClassifierProcessor";
-  private static final String POSE_SAMPLES_FILE = "pose/fitness_pose_samples.csv";
 
   // Specify classes for which we want rep counting.
-  // These are the labels in the given {@code POSE_SAMPLES_FILE}. You can set your own class labels
-  // for your pose.kt samples.
+  // These are the labels in the pose.kt samples loaded by {@link PoseClassifierRegistry}. You can
+  // set your own class labels for your pose.kt samples.
   private static final String PUSHUPS_CLASS = "pushups_down";
   private static final String SQUATS_CLASS = "squats_down";
   private static final String[] POSE_CLASSES = {
@@ -48,46 +42,51 @@ public class PoseClassifierProcessor {
   };
 
   private final boolean isStreamMode;
+  private final PoseClassifier poseClassifier;
+  // Confidences of the current frame, indexed by the classifier's class ids.
+  private final float[] classConfidences;
 
   private EMASmoothing emaSmoothing;
-  private List<RepetitionCounter> repCounters;
-  private PoseClassifier poseClassifier;
+  private float[] smoothedConfidences;
+  private RepCountingEngine repCountingEngine;
+  private RepAudioCue repAudioCue;
   private String lastRepResult;
 
-  @WorkerThread
-  public PoseClassifierProcessor(Context context, boolean isStreamMode) {
-    Preconditions.checkState(Looper.myLooper() != Looper.getMainLooper());
+  /**
+   * Creates a processor classifying against the given samples, which are usually shared through
+   * {@link PoseClassifierRegistry}. This is cheap, the samples are loaded and indexed already.
+   */
+  public PoseClassifierProcessor(PoseSampleIndex sampleIndex, boolean isStreamMode) {
+    this(sampleIndex, isStreamMode, POSE_CLASSES);
+  }
+
+  /**
+   * Same as above, counting reps for each class of {@code repClasses} in stream mode.
+   */
+  public PoseClassifierProcessor(
+      PoseSampleIndex sampleIndex, boolean isStreamMode, String[] repClasses) {
     this.isStreamMode = isStreamMode;
+    poseClassifier = new PoseClassifier(sampleIndex);
+    classConfidences = new float[poseClassifier.getNumClasses()];
     if (isStreamMode) {
       emaSmoothing = new EMASmoothing();
-      repCounters = new ArrayList<>();
+      smoothedConfidences = new float[poseClassifier.getNumClasses()];
+      repCountingEngine = new RepCountingEngine(poseClassifier, repClasses);
+      repAudioCue = new RepAudioCue();
       lastRepResult = "";
     }
-    loadPoseSamples(context);
   }
 
-  private void loadPoseSamples(Context context) {
-    List<PoseSample> poseSamples = new ArrayList<>();
-    try {
-      BufferedReader reader = new BufferedReader(
-          new InputStreamReader(context.getAssets().open(POSE_SAMPLES_FILE)));
-      String csvLine = reader.readLine();
-      while (csvLine != null) {
-        // If line is not a valid {@link PoseSample}, we'll get null and skip adding to the list.
-        PoseSample poseSample = PoseSample.getPoseSample(csvLine, ",");
-        if (poseSample != null) {
-          poseSamples.add(poseSample);
-        }
-        csvLine = reader.readLine();
-      }
-    } catch (IOException e) {
-      Log.e(TAG, "Error when loading pose.kt samples.\n" + e);
-    }
-    poseClassifier = new PoseClassifier(poseSamples);
-    if (isStreamMode) {
-      for (String className : POSE_CLASSES) {
-        repCounters.add(new RepetitionCounter(className));
-      }
+  /** Returns the rep counts and timing stats, or null if not in stream mode. */
+  @Nullable
+  public RepCountingEngine getRepCountingEngine() {
+    return repCountingEngine;
+  }
+
+  /** Releases the audio resources. Reps counted afterwards are no longer cued. */
+  public void close() {
+    if (repAudioCue != null) {
+      repAudioCue.release();
     }
   }
 
@@ -103,12 +102,15 @@ public class PoseClassifierProcessor {
   public List<String> getPoseResult(Pose pose) {
     Preconditions.checkState(Looper.myLooper() != Looper.getMainLooper());
     List<String> result = new ArrayList<>();
-    ClassificationResult classification = poseClassifier.classify(pose);
+    poseClassifier.classify(pose, classConfidences);
+    float[] confidences = classConfidences;
 
-    // Update {@link RepetitionCounter}s if {@code isStreamMode}.
+    // Update rep counts if {@code isStreamMode}.
     if (isStreamMode) {
+      long nowMs = SystemClock.elapsedRealtime();
       // Feed pose.kt to smoothing even if no pose.kt found.
-      classification = emaSmoothing.getSmoothedResult(classification);
+      emaSmoothing.getSmoothedResult(classConfidences, nowMs, smoothedConfidences);
+      confidences = smoothedConfidences;
 
       // Return early without updating repCounter if no pose.kt found.
       if (pose.getAllPoseLandmarks().isEmpty()) {
@@ -116,30 +118,32 @@ public class PoseClassifierProcessor {
         return result;
       }
 
-      for (RepetitionCounter repCounter : repCounters) {
-        int repsBefore = repCounter.getNumRepeats();
-        int repsAfter = repCounter.addClassificationResult(classification);
-        if (repsAfter > repsBefore) {
-          // Play a fun beep when rep counter updates.
-          ToneGenerator tg = new ToneGenerator(AudioManager.STREAM_NOTIFICATION, 100);
-          tg.startTone(ToneGenerator.TONE_PROP_BEEP);
-          lastRepResult = String.format(
-              Locale.US, "%s : %d reps", repCounter.getClassName(), repsAfter);
-          break;
-        }
+      int repClass = repCountingEngine.addClassification(confidences, nowMs);
+      if (repClass >= 0) {
+        // Play a fun beep when rep counter updates.
+        repAudioCue.play();
+        lastRepResult = String.format(
+            Locale.US,
+            "%s : %d reps",
+            repCountingEngine.getClassName(repClass),
+            repCountingEngine.getNumRepeats(repClass));
       }
       result.add(lastRepResult);
     }
 
     // Add maxConfidence class of current frame to result if pose.kt is found.
     if (!pose.getAllPoseLandmarks().isEmpty()) {
-      String maxConfidenceClass = classification.getMaxConfidenceClass();
+      int maxConfidenceClass = 0;
+      for (int classId = 1; classId < confidences.length; classId++) {
+        if (confidences[classId] > confidences[maxConfidenceClass]) {
+          maxConfidenceClass = classId;
+        }
+      }
       String maxConfidenceClassResult = String.format(
           Locale.US,
           "%s : %.2f confidence",
-          maxConfidenceClass,
-          classification.getClassConfidence(maxConfidenceClass)
-              / poseClassifier.confidenceRange());
+          poseClassifier.getClassName(maxConfidenceClass),
+          confidences[maxConfidenceClass] / poseClassifier.confidenceRange());
       result.add(maxConfidenceClassResult);
     }
 
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.common.base.Preconditions;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Process-wide, reference-counted holder of the pose.kt samples used by every
+ * {@link PoseClassifierProcessor}.
+ *
+ * <p>Samples are loaded and indexed once on a background thread, and the resulting immutable
+ * {@link PoseSampleIndex} is shared by all processors, live camera and video alike. Each processor
+ * wraps it in its own {@link PoseClassifier}, which is cheap to create.
+ *
+ * <p>Call {@link #warmUp} early, e.g. at app start, so that the samples are ready by the time the
+ * first pose.kt is detected. Processors {@link #acquire} the samples when created and
+ * {@link #release} them when stopped. Once the last processor released them they're dropped after
+ * a short delay, so that restarting a processor in {@code onResume} doesn't load them again.
+ */
+public final class PoseClassifierRegistry {
+  private static final String TAG = "PoseClassifierRegistry";
+  private static final String POSE_SAMPLES_FILE = "pose/fitness_pose_samples.csv";
+  // Precompiled {@link PoseSampleBank} of {@code POSE_SAMPLES_FILE}, shipped next to it. When it's
+  // missing or stale, i.e. converted from other samples than the csv, the csv is converted once
+  // and the bank is cached in the code cache dir, which the system clears whenever the app is
+  // upgraded. After editing the csv, regenerate the shipped bank by copying that cached bank from
+  // a device into the assets.
+  private static final String POSE_SAMPLES_BANK_FILE = "pose/fitness_pose_samples.posebank";
+  private static final String POSE_SAMPLES_BANK_CACHE_FILE = "fitness_pose_samples.posebank";
+  // How long unreferenced samples are kept around before being dropped.
+  private static final long EVICTION_DELAY_MS = 30_000;
+
+  private static final ScheduledExecutorService executor =
+      Executors.newSingleThreadScheduledExecutor();
+
+  @GuardedBy("PoseClassifierRegistry.class")
+  @Nullable
+  private static Task<PoseSampleIndex> samplesTask;
+
+  @GuardedBy("PoseClassifierRegistry.class")
+  private static int refCount;
+
+  @GuardedBy("PoseClassifierRegistry.class")
+  @Nullable
+  private static ScheduledFuture<?> pendingEviction;
+
+  private PoseClassifierRegistry() {}
+
+  /**
+   * Starts loading the samples in the background if they aren't loaded or loading already. Safe
+   * to call from the main thread.
+   *
+   * <p>Samples loaded this way are kept until a processor acquired and released them, however
+   * long the user takes to open a pose.kt screen.
+   *
+   * @return a task that completes once the samples are ready.
+   */
+  public static synchronized Task<PoseSampleIndex> warmUp(Context context) {
+    if (samplesTask == null) {
+      Context appContext = context.getApplicationContext();
+      samplesTask = Tasks.call(executor, () -> loadPoseSamples(appContext));
+    }
+    return samplesTask;
+  }
+
+  /**
+   * Acquires a reference to the shared samples, loading them in the background if needed. Every
+   * call must be balanced with a call to {@link #release}.
+   *
+   * @return a task that completes once the samples are ready. Callers shouldn't wait on it on the
+   *     main thread, but check {@link Task#isSuccessful()} before classifying.
+   */
+  public static synchronized Task<PoseSampleIndex> acquire(Context context) {
+    refCount++;
+    if (pendingEviction != null) {
+      pendingEviction.cancel(false);
+      pendingEviction = null;
+    }
+    return warmUp(context);
+  }
+
+  /** Releases a reference obtained from {@link #acquire}. */
+  public static synchronized void release() {
+    Preconditions.checkState(refCount > 0, "release() without acquire()");
+    if (--refCount == 0) {
+      scheduleEviction();
+    }
+  }
+
+  @GuardedBy("PoseClassifierRegistry.class")
+  private static void scheduleEviction() {
+    if (pendingEviction != null) {
+      pendingEviction.cancel(false);
+    }
+    pendingEviction = executor.schedule(
+        PoseClassifierRegistry::evictIfUnused, EVICTION_DELAY_MS, TimeUnit.MILLISECONDS);
+  }
+
+  private static synchronized void evictIfUnused() {
+    pendingEviction = null;
+    if (refCount > 0 || samplesTask == null) {
+      return;
+    }
+    if (!samplesTask.isComplete()) {
+      // Still loading, dropping it now would only make the next acquire load it again.
+      scheduleEviction();
+      return;
+    }
+    samplesTask = null;
+  }
+
+  @WorkerThread
+  private static PoseSampleIndex loadPoseSamples(Context context) {
+    Integer csvChecksum = checksumPoseSamplesCsv(context);
+    PoseSampleMatrix sampleMatrix = loadPoseSampleBank(context, csvChecksum);
+    if (sampleMatrix == null) {
+      sampleMatrix = new PoseSampleMatrix(readPoseSamplesCsv(context));
+      if (csvChecksum != null && sampleMatrix.getNumSamples() > 0) {
+        try {
+          PoseSampleBank.save(
+              sampleMatrix,
+              csvChecksum,
+              new File(context.getCodeCacheDir(), POSE_SAMPLES_BANK_CACHE_FILE));
+        } catch (IOException e) {
+          Log.w(TAG, "Error when caching pose.kt sample bank.\n" + e);
+        }
+      }
+    }
+    // Index the samples once so that every frame only visits the nearby ones.
+    return new PoseSampleIndex(sampleMatrix);
+  }
+
+  /**
+   * Returns the CRC32 of the pose samples csv, which identifies the samples a bank was converted
+   * from, or null if the csv can't be read.
+   */
+  @Nullable
+  private static Integer checksumPoseSamplesCsv(Context context) {
+    try (InputStream stream = context.getAssets().open(POSE_SAMPLES_FILE)) {
+      CRC32 crc = new CRC32();
+      byte[] buffer = new byte[8192];
+      int count;
+      while ((count = stream.read(buffer)) != -1) {
+        crc.update(buffer, 0, count);
+      }
+      return (int) crc.getValue();
+    } catch (IOException e) {
+      Log.w(TAG, "Error when reading pose.kt samples csv.\n" + e);
+      return null;
+    }
+  }
+
+  @Nullable
+  private static PoseSampleMatrix loadPoseSampleBank(
+      Context context, @Nullable Integer csvChecksum) {
+    try {
+      return PoseSampleBank.loadAsset(context.getAssets(), POSE_SAMPLES_BANK_FILE, csvChecksum);
+    } catch (IOException e) {
+      // Missing or stale, try the one converted on a previous run.
+    }
+    File cachedBank = new File(context.getCodeCacheDir(), POSE_SAMPLES_BANK_CACHE_FILE);
+    if (cachedBank.exists()) {
+      try {
+        return PoseSampleBank.load(cachedBank, csvChecksum);
+      } catch (IOException e) {
+        Log.w(TAG, "Error when loading cached pose.kt sample bank.\n" + e);
+      }
+    }
+    return null;
+  }
+
+  private static List<PoseSample> readPoseSamplesCsv(Context context) {
+    List<PoseSample> poseSamples = new ArrayList<>();
+    try {
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(context.getAssets().open(POSE_SAMPLES_FILE)));
+      String csvLine = reader.readLine();
+      while (csvLine != null) {
+        // If line is not a valid {@link PoseSample}, we'll get null and skip adding to the list.
+        PoseSample poseSample = PoseSample.getPoseSample(csvLine, ",");
+        if (poseSample != null) {
+          poseSamples.add(poseSample);
+        }
+        csvLine = reader.readLine();
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Error when loading pose.kt samples.\n" + e);
+    }
+    return poseSamples;
+  }
+}
@@ -21,6 +21,18 @@ import static com.google.mlkit.vision.demo.java.posedetector.classification.Util
 import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.multiplyAll;
 import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.subtract;
 import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.subtractAll;
+import static com.google.mlkit.vision.pose.PoseLandmark.LEFT_ANKLE;
+import static com.google.mlkit.vision.pose.PoseLandmark.LEFT_ELBOW;
+import static com.google.mlkit.vision.pose.PoseLandmark.LEFT_HIP;
+import static com.google.mlkit.vision.pose.PoseLandmark.LEFT_KNEE;
+import static com.google.mlkit.vision.pose.PoseLandmark.LEFT_SHOULDER;
+import static com.google.mlkit.vision.pose.PoseLandmark.LEFT_WRIST;
+import static com.google.mlkit.vision.pose.PoseLandmark.RIGHT_ANKLE;
+import static com.google.mlkit.vision.pose.PoseLandmark.RIGHT_ELBOW;
+import static com.google.mlkit.vision.pose.PoseLandmark.RIGHT_HIP;
+import static com.google.mlkit.vision.pose.PoseLandmark.RIGHT_KNEE;
+import static com.google.mlkit.vision.pose.PoseLandmark.RIGHT_SHOULDER;
+import static com.google.mlkit.vision.pose.PoseLandmark.RIGHT_WRIST;
 
 import com.google.mlkit.vision.common.PointF3D;
 import com.google.mlkit.vision.pose.PoseLandmark;
@@ -34,6 +46,30 @@ public class PoseEmbedding {
   // Multiplier to apply to the torso to get minimal body size. Picked this by experimentation.
   private static final float TORSO_MULTIPLIER = 2.5f;
 
+  public static final int NUM_LANDMARKS = 33;
+  public static final int NUM_DIMS = 3;
+  public static final int NUM_EMBEDDING_POINTS = 23;
+  // Length of a packed landmark array: X1,Y1,Z1,X2,Y2,Z2...
+  public static final int LANDMARKS_LENGTH = NUM_LANDMARKS * NUM_DIMS;
+  // Length of a packed embedding array, laid out the same way as the landmarks.
+  public static final int EMBEDDING_LENGTH = NUM_EMBEDDING_POINTS * NUM_DIMS;
+
+  // Landmark pairs of the packed embedding, in the same order as {@link #getEmbedding(List)}. Each
+  // entry is landmarks[TO] - landmarks[FROM]. The first embedding point (hips center to shoulders
+  // center) is not listed here as it is computed from averages.
+  private static final int[] EMBEDDING_FROM = {
+    LEFT_SHOULDER, RIGHT_SHOULDER, LEFT_ELBOW, RIGHT_ELBOW, LEFT_HIP, RIGHT_HIP, LEFT_KNEE,
+    RIGHT_KNEE, LEFT_SHOULDER, RIGHT_SHOULDER, LEFT_HIP, RIGHT_HIP, LEFT_HIP, RIGHT_HIP,
+    LEFT_SHOULDER, RIGHT_SHOULDER, LEFT_HIP, RIGHT_HIP, LEFT_ELBOW, LEFT_KNEE, LEFT_WRIST,
+    LEFT_ANKLE
+  };
+  private static final int[] EMBEDDING_TO = {
+    LEFT_ELBOW, RIGHT_ELBOW, LEFT_WRIST, RIGHT_WRIST, LEFT_KNEE, RIGHT_KNEE, LEFT_ANKLE,
+    RIGHT_ANKLE, LEFT_WRIST, RIGHT_WRIST, LEFT_ANKLE, RIGHT_ANKLE, LEFT_WRIST, RIGHT_WRIST,
+    LEFT_ANKLE, RIGHT_ANKLE, LEFT_WRIST, RIGHT_WRIST, RIGHT_ELBOW, RIGHT_KNEE, RIGHT_WRIST,
+    RIGHT_ANKLE
+  };
+
   public static List<PointF3D> getPoseEmbedding(List<PointF3D> landmarks) {
     List<PointF3D> normalizedLandmarks = normalize(landmarks);
     return getEmbedding(normalizedLandmarks);
@@ -138,5 +174,86 @@ public class PoseEmbedding {
     return embedding;
   }
 
+  /**
+   * Packed counterpart of {@link #getPoseEmbedding(List)} that does not allocate.
+   *
+   * <p>Produces exactly the same values as the {@link PointF3D} version, as every float operation
+   * is done in the same order.
+   *
+   * @param landmarks packed landmarks of length {@link #LANDMARKS_LENGTH}.
+   * @param normalized scratch buffer of length {@link #LANDMARKS_LENGTH}.
+   * @param embedding output buffer of length {@link #EMBEDDING_LENGTH}.
+   */
+  public static void getPoseEmbedding(float[] landmarks, float[] normalized, float[] embedding) {
+    normalize(landmarks, normalized);
+    getEmbedding(normalized, embedding);
+  }
+
+  private static void normalize(float[] landmarks, float[] normalized) {
+    // Normalize translation.
+    int leftHip = LEFT_HIP * NUM_DIMS;
+    int rightHip = RIGHT_HIP * NUM_DIMS;
+    float centerX = (landmarks[leftHip] + landmarks[rightHip]) * 0.5f;
+    float centerY = (landmarks[leftHip + 1] + landmarks[rightHip + 1]) * 0.5f;
+    float centerZ = (landmarks[leftHip + 2] + landmarks[rightHip + 2]) * 0.5f;
+    for (int i = 0; i < LANDMARKS_LENGTH; i += NUM_DIMS) {
+      normalized[i] = landmarks[i] - centerX;
+      normalized[i + 1] = landmarks[i + 1] - centerY;
+      normalized[i + 2] = landmarks[i + 2] - centerZ;
+    }
+
+    // Normalize scale. Kept as two multiplications to match the {@link PointF3D} version.
+    float scale = 1 / getPoseSize(normalized);
+    for (int i = 0; i < LANDMARKS_LENGTH; i++) {
+      normalized[i] = normalized[i] * scale * 100;
+    }
+  }
+
+  // Translation normalization should've been done prior to calling this method.
+  private static float getPoseSize(float[] landmarks) {
+    int leftHip = LEFT_HIP * NUM_DIMS;
+    int rightHip = RIGHT_HIP * NUM_DIMS;
+    int leftShoulder = LEFT_SHOULDER * NUM_DIMS;
+    int rightShoulder = RIGHT_SHOULDER * NUM_DIMS;
+    float hipsCenterX = (landmarks[leftHip] + landmarks[rightHip]) * 0.5f;
+    float hipsCenterY = (landmarks[leftHip + 1] + landmarks[rightHip + 1]) * 0.5f;
+    float shouldersCenterX = (landmarks[leftShoulder] + landmarks[rightShoulder]) * 0.5f;
+    float shouldersCenterY = (landmarks[leftShoulder + 1] + landmarks[rightShoulder + 1]) * 0.5f;
+
+    float torsoSize =
+        (float) Math.hypot(shouldersCenterX - hipsCenterX, shouldersCenterY - hipsCenterY);
+
+    float maxDistance = torsoSize * TORSO_MULTIPLIER;
+    for (int i = 0; i < LANDMARKS_LENGTH; i += NUM_DIMS) {
+      float distance =
+          (float) Math.hypot(landmarks[i] - hipsCenterX, landmarks[i + 1] - hipsCenterY);
+      if (distance > maxDistance) {
+        maxDistance = distance;
+      }
+    }
+    return maxDistance;
+  }
+
+  private static void getEmbedding(float[] lm, float[] embedding) {
+    int leftHip = LEFT_HIP * NUM_DIMS;
+    int rightHip = RIGHT_HIP * NUM_DIMS;
+    int leftShoulder = LEFT_SHOULDER * NUM_DIMS;
+    int rightShoulder = RIGHT_SHOULDER * NUM_DIMS;
+    for (int d = 0; d < NUM_DIMS; d++) {
+      embedding[d] =
+          (lm[leftShoulder + d] + lm[rightShoulder + d]) * 0.5f
+              - (lm[leftHip + d] + lm[rightHip + d]) * 0.5f;
+    }
+
+    for (int i = 0; i < EMBEDDING_FROM.length; i++) {
+      int out = (i + 1) * NUM_DIMS;
+      int from = EMBEDDING_FROM[i] * NUM_DIMS;
+      int to = EMBEDDING_TO[i] * NUM_DIMS;
+      embedding[out] = lm[to] - lm[from];
+      embedding[out + 1] = lm[to + 1] - lm[from + 1];
+      embedding[out + 2] = lm[to + 2] - lm[from + 2];
+    }
+  }
+
   private PoseEmbedding() {}
 }
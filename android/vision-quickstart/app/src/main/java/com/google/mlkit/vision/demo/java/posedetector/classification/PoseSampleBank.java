@@ -0,0 +1,209 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_LENGTH;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads and writes a {@link PoseSampleMatrix} in a compact binary format, so that pose samples
+ * don't have to be parsed from csv and embedded again every time the classifier is created.
+ *
+ * <p>All values are little endian:
+ *
+ * <pre>
+ *   int      magic, "PSB2"
+ *   int      embedding length, must match {@link PoseEmbedding#EMBEDDING_LENGTH}
+ *   int      checksum of the samples the bank was converted from
+ *   int      number of classes
+ *   int      number of samples
+ *   per class: unsigned short byte length, UTF-8 bytes of the class name
+ *   zero padding to a multiple of 4 bytes
+ *   int[]    class id of every sample
+ *   float[]  embedding of every sample
+ * </pre>
+ *
+ * <p>Banks are loaded by memory-mapping them. Banks shipped as assets must therefore be stored
+ * uncompressed, see {@code aaptOptions} in build.gradle. A bank whose source checksum doesn't
+ * match the samples it is loaded for is stale and rejected.
+ */
+public class PoseSampleBank {
+  // "PSB2" read as a little endian int.
+  private static final int MAGIC = 0x32425350;
+  private static final int BYTES_PER_SHORT = 2;
+  private static final int BYTES_PER_INT = 4;
+  private static final int BYTES_PER_FLOAT = 4;
+  private static final int HEADER_SIZE = 5 * BYTES_PER_INT;
+
+  private PoseSampleBank() {}
+
+  /**
+   * Memory-maps and reads a bank stored uncompressed in the app's assets.
+   *
+   * @param sourceChecksum the checksum of the samples the bank must have been converted from, or
+   *     {@code null} to take it whatever it was converted from.
+   */
+  public static PoseSampleMatrix loadAsset(
+      AssetManager assets, String fileName, @Nullable Integer sourceChecksum) throws IOException {
+    try (AssetFileDescriptor fileDescriptor = assets.openFd(fileName);
+        FileInputStream stream = new FileInputStream(fileDescriptor.getFileDescriptor())) {
+      MappedByteBuffer buffer = stream.getChannel().map(
+          FileChannel.MapMode.READ_ONLY,
+          fileDescriptor.getStartOffset(),
+          fileDescriptor.getDeclaredLength());
+      return read(buffer, sourceChecksum);
+    }
+  }
+
+  /** Memory-maps and reads a bank file, see {@link #loadAsset} for {@code sourceChecksum}. */
+  public static PoseSampleMatrix load(File file, @Nullable Integer sourceChecksum)
+      throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      FileChannel channel = randomAccessFile.getChannel();
+      return read(
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), sourceChecksum);
+    }
+  }
+
+  /**
+   * Writes a bank file. The bank is written next to the target first and then renamed, so a
+   * crash never leaves a partial bank behind.
+   */
+  public static void save(PoseSampleMatrix sampleMatrix, int sourceChecksum, File file)
+      throws IOException {
+    File tempFile = new File(file.getPath() + ".tmp");
+    try (FileOutputStream stream = new FileOutputStream(tempFile)) {
+      write(sampleMatrix, sourceChecksum, stream);
+      stream.getFD().sync();
+    }
+    if (!tempFile.renameTo(file)) {
+      tempFile.delete();
+      throw new IOException("Failed to rename " + tempFile + " to " + file);
+    }
+  }
+
+  /**
+   * Writes the given samples in bank format.
+   *
+   * @param sourceChecksum the checksum of the samples they were converted from.
+   */
+  public static void write(PoseSampleMatrix sampleMatrix, int sourceChecksum, OutputStream out)
+      throws IOException {
+    int numClasses = sampleMatrix.getNumClasses();
+    int numSamples = sampleMatrix.getNumSamples();
+    byte[][] classNames = new byte[numClasses][];
+    int namesSize = 0;
+    for (int i = 0; i < numClasses; i++) {
+      classNames[i] = sampleMatrix.getClassName(i).getBytes(UTF_8);
+      if (classNames[i].length > 0xFFFF) {
+        throw new IOException("Class name too long: " + sampleMatrix.getClassName(i));
+      }
+      namesSize += BYTES_PER_SHORT + classNames[i].length;
+    }
+    int size = HEADER_SIZE + align(namesSize)
+        + numSamples * BYTES_PER_INT + numSamples * EMBEDDING_LENGTH * BYTES_PER_FLOAT;
+
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC);
+    buffer.putInt(EMBEDDING_LENGTH);
+    buffer.putInt(sourceChecksum);
+    buffer.putInt(numClasses);
+    buffer.putInt(numSamples);
+    for (byte[] className : classNames) {
+      buffer.putShort((short) className.length);
+      buffer.put(className);
+    }
+    buffer.position(HEADER_SIZE + align(namesSize));
+    for (int i = 0; i < numSamples; i++) {
+      buffer.putInt(sampleMatrix.getClassId(i));
+    }
+    buffer.asFloatBuffer().put(sampleMatrix.getEmbeddings());
+    out.write(buffer.array());
+  }
+
+  /**
+   * Reads a bank from the given buffer, starting at its current position. See {@link #loadAsset}
+   * for {@code sourceChecksum}.
+   */
+  public static PoseSampleMatrix read(ByteBuffer buffer, @Nullable Integer sourceChecksum)
+      throws IOException {
+    try {
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      int start = buffer.position();
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException("Not a pose sample bank");
+      }
+      int embeddingLength = buffer.getInt();
+      if (embeddingLength != EMBEDDING_LENGTH) {
+        throw new IOException("Unexpected embedding length " + embeddingLength);
+      }
+      int bankSourceChecksum = buffer.getInt();
+      if (sourceChecksum != null && bankSourceChecksum != sourceChecksum) {
+        throw new IOException("Stale pose sample bank");
+      }
+      int numClasses = buffer.getInt();
+      int numSamples = buffer.getInt();
+      int bytesPerSample = BYTES_PER_INT + EMBEDDING_LENGTH * BYTES_PER_FLOAT;
+      if (numClasses < 0 || numSamples < 0 || numSamples > buffer.remaining() / bytesPerSample) {
+        throw new IOException("Corrupt pose sample bank header");
+      }
+
+      String[] classNames = new String[numClasses];
+      for (int i = 0; i < numClasses; i++) {
+        byte[] className = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(className);
+        classNames[i] = new String(className, UTF_8);
+      }
+      buffer.position(start + align(buffer.position() - start));
+
+      int[] classIds = new int[numSamples];
+      buffer.asIntBuffer().get(classIds);
+      buffer.position(buffer.position() + numSamples * BYTES_PER_INT);
+      for (int classId : classIds) {
+        if (classId < 0 || classId >= numClasses) {
+          throw new IOException("Invalid class id " + classId);
+        }
+      }
+
+      float[] embeddings = new float[numSamples * EMBEDDING_LENGTH];
+      buffer.asFloatBuffer().get(embeddings);
+      buffer.position(buffer.position() + embeddings.length * BYTES_PER_FLOAT);
+      return new PoseSampleMatrix(embeddings, classIds, classNames);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Truncated pose sample bank", e);
+    }
+  }
+
+  private static int align(int size) {
+    return (size + 3) & ~3;
+  }
+}
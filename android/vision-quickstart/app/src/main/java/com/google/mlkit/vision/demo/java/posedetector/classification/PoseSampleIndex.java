@@ -0,0 +1,246 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_LENGTH;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.Random;
+
+/**
+ * Vantage-point tree over the embeddings of a {@link PoseSampleMatrix}, answering k-nearest
+ * neighbour queries under the axes-weighted max (Chebyshev) distance used by {@link PoseClassifier}.
+ *
+ * <p>Queries are made with both the original and the flipped embedding at once, and a sample's
+ * distance is the smaller of the two, same as in the classifier's linear scan.
+ *
+ * <p>With an approximation of 0 the search is exact: it returns the same neighbours as the linear
+ * scan, up to the order in which samples at exactly the K-th distance are kept. With an
+ * approximation {@code e > 0}, subtrees that can't hold a sample closer than {@code 1 / (1 + e)}
+ * of the current K-th distance are skipped, so every returned neighbour is within {@code (1 + e)}
+ * of the true one. Larger values visit fewer nodes at the cost of recall.
+ *
+ * <p>The tree is immutable once built and {@link #search} doesn't allocate, so one index can be
+ * shared by several classifiers.
+ */
+public class PoseSampleIndex {
+  // Ranges of at most this many samples are scanned linearly instead of being split further.
+  private static final int LEAF_SIZE = 8;
+  // Relative slack on triangle inequality bounds, so that float rounding in the distances never
+  // prunes a subtree that holds a true neighbour.
+  private static final float BOUND_SLACK = 1e-5f;
+  // Vantage points are picked at random, but with a fixed seed so the tree is reproducible.
+  private static final long VANTAGE_POINT_SEED = 0x5EED;
+
+  private final PoseSampleMatrix sampleMatrix;
+  private final PointF3D axesWeights;
+  private final WeightedDistance distance;
+  private final float approximation;
+
+  // Sample indices. Every range [lo, hi) with more than LEAF_SIZE samples holds its vantage point
+  // at lo, the samples within innerRadius[lo] of it in [lo + 1, mid) and the samples at least
+  // outerRadius[lo] away from it in [mid, hi), see {@link #middle}.
+  private final int[] order;
+  private final float[] innerRadius;
+  private final float[] outerRadius;
+
+  /** Creates an exact index with the default axes weights of {@link PoseClassifier}. */
+  public PoseSampleIndex(PoseSampleMatrix sampleMatrix) {
+    this(sampleMatrix, PoseClassifier.AXES_WEIGHTS, /* approximation= */ 0);
+  }
+
+  public PoseSampleIndex(PoseSampleMatrix sampleMatrix, PointF3D axesWeights,
+      float approximation) {
+    Preconditions.checkArgument(approximation >= 0, "approximation must not be negative");
+    this.sampleMatrix = sampleMatrix;
+    this.axesWeights = axesWeights;
+    this.distance = new WeightedDistance(axesWeights);
+    this.approximation = approximation;
+
+    int numSamples = sampleMatrix.getNumSamples();
+    order = new int[numSamples];
+    for (int i = 0; i < numSamples; i++) {
+      order[i] = i;
+    }
+    innerRadius = new float[numSamples];
+    outerRadius = new float[numSamples];
+    build(0, numSamples, new float[numSamples], new Random(VANTAGE_POINT_SEED));
+  }
+
+  public PoseSampleMatrix getSampleMatrix() {
+    return sampleMatrix;
+  }
+
+  public PointF3D getAxesWeights() {
+    return axesWeights;
+  }
+
+  public float getApproximation() {
+    return approximation;
+  }
+
+  private void build(int lo, int hi, float[] distances, Random random) {
+    if (hi - lo <= LEAF_SIZE) {
+      return;
+    }
+    swap(order, distances, lo, lo + random.nextInt(hi - lo));
+
+    float[] embeddings = sampleMatrix.getEmbeddings();
+    int vantageOffset = order[lo] * EMBEDDING_LENGTH;
+    for (int i = lo + 1; i < hi; i++) {
+      distances[i] = distance.maxDistance(
+          embeddings, vantageOffset, embeddings, order[i] * EMBEDDING_LENGTH,
+          Float.POSITIVE_INFINITY);
+    }
+
+    int mid = middle(lo, hi);
+    select(order, distances, lo + 1, hi, mid);
+    float inner = 0;
+    for (int i = lo + 1; i < mid; i++) {
+      inner = max(inner, distances[i]);
+    }
+    float outer = Float.POSITIVE_INFINITY;
+    for (int i = mid; i < hi; i++) {
+      outer = min(outer, distances[i]);
+    }
+    innerRadius[lo] = inner;
+    outerRadius[lo] = outer;
+
+    build(lo + 1, mid, distances, random);
+    build(mid, hi, distances, random);
+  }
+
+  /**
+   * Retrieves the nearest samples to the given embedding or its flipped counterpart into
+   * {@code result}, which is cleared first. Neither embedding may contain NaN.
+   */
+  void search(float[] embedding, float[] flippedEmbedding, TopKDistances result) {
+    result.clear();
+    search(0, order.length, embedding, flippedEmbedding, result);
+  }
+
+  private void search(int lo, int hi, float[] embedding, float[] flippedEmbedding,
+      TopKDistances result) {
+    float[] embeddings = sampleMatrix.getEmbeddings();
+    if (hi - lo <= LEAF_SIZE) {
+      for (int i = lo; i < hi; i++) {
+        int sample = order[i];
+        int offset = sample * EMBEDDING_LENGTH;
+        float bound = result.isFull() ? result.peekDistance() : Float.POSITIVE_INFINITY;
+        float originalMax = distance.maxDistance(embedding, 0, embeddings, offset, bound);
+        float flippedMax =
+            distance.maxDistance(flippedEmbedding, 0, embeddings, offset, min(bound, originalMax));
+        float sampleDistance = min(originalMax, flippedMax);
+        if (sampleDistance <= bound) {
+          result.add(sample, sampleDistance);
+        }
+      }
+      return;
+    }
+
+    int vantage = order[lo];
+    int offset = vantage * EMBEDDING_LENGTH;
+    float originalMax =
+        distance.maxDistance(embedding, 0, embeddings, offset, Float.POSITIVE_INFINITY);
+    float flippedMax =
+        distance.maxDistance(flippedEmbedding, 0, embeddings, offset, Float.POSITIVE_INFINITY);
+    // Distance of the closer and the farther query to the vantage point.
+    float nearest = min(originalMax, flippedMax);
+    float farthest = max(originalMax, flippedMax);
+    if (!result.isFull() || nearest <= result.peekDistance()) {
+      result.add(vantage, nearest);
+    }
+
+    int mid = middle(lo, hi);
+    // Every sample x inside is at least d(q, v) - d(v, x) away from query q, and every sample
+    // outside at least d(v, x) - d(q, v). Either query may be the one that gets close.
+    float insideRadius = innerRadius[lo];
+    float outsideRadius = outerRadius[lo];
+    if (nearest <= insideRadius) {
+      if (canContain(nearest - insideRadius, nearest + insideRadius, result)) {
+        search(lo + 1, mid, embedding, flippedEmbedding, result);
+      }
+      if (canContain(outsideRadius - farthest, outsideRadius + farthest, result)) {
+        search(mid, hi, embedding, flippedEmbedding, result);
+      }
+    } else {
+      if (canContain(outsideRadius - farthest, outsideRadius + farthest, result)) {
+        search(mid, hi, embedding, flippedEmbedding, result);
+      }
+      if (canContain(nearest - insideRadius, nearest + insideRadius, result)) {
+        search(lo + 1, mid, embedding, flippedEmbedding, result);
+      }
+    }
+  }
+
+  // Whether a subtree whose samples are at least lowerBound away may still improve the result.
+  // magnitude is the sum of the distances the bound was derived from, used to scale the slack.
+  private boolean canContain(float lowerBound, float magnitude, TopKDistances result) {
+    if (!result.isFull()) {
+      return true;
+    }
+    float radius = result.peekDistance() / (1 + approximation);
+    return lowerBound - BOUND_SLACK * magnitude <= radius;
+  }
+
+  // Split point of a range: the vantage point at lo is followed by the inside half.
+  private static int middle(int lo, int hi) {
+    return lo + 1 + (hi - lo - 1) / 2;
+  }
+
+  // Quickselect: reorders [from, to) so that distances before k are <= distances[k] <= distances
+  // from k on.
+  private static void select(int[] order, float[] distances, int from, int to, int k) {
+    int left = from;
+    int right = to - 1;
+    while (right > left) {
+      float pivot = distances[(left + right) >>> 1];
+      int i = left;
+      int j = right;
+      while (i <= j) {
+        while (distances[i] < pivot) {
+          i++;
+        }
+        while (distances[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swap(order, distances, i++, j--);
+        }
+      }
+      if (k <= j) {
+        right = j;
+      } else if (k >= i) {
+        left = i;
+      } else {
+        break;
+      }
+    }
+  }
+
+  private static void swap(int[] order, float[] distances, int i, int j) {
+    int sample = order[i];
+    order[i] = order[j];
+    order[j] = sample;
+    float d = distances[i];
+    distances[i] = distances[j];
+    distances[j] = d;
+  }
+}
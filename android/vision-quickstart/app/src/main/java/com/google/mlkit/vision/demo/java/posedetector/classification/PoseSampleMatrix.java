@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_LENGTH;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.NUM_DIMS;
+
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Embeddings of a list of {@link PoseSample}s packed into one contiguous float array.
+ *
+ * <p>Sample {@code i} occupies {@code [i * EMBEDDING_LENGTH, (i + 1) * EMBEDDING_LENGTH)} of
+ * {@link #getEmbeddings()}, laid out as X1,Y1,Z1,X2,Y2,Z2... Class names are stored once and
+ * referenced from every sample by a dense class id.
+ */
+public class PoseSampleMatrix {
+  private final int numSamples;
+  private final float[] embeddings;
+  private final int[] classIds;
+  private final String[] classNames;
+  private final boolean containsNaN;
+
+  public PoseSampleMatrix(List<PoseSample> poseSamples) {
+    numSamples = poseSamples.size();
+    embeddings = new float[numSamples * EMBEDDING_LENGTH];
+    classIds = new int[numSamples];
+    boolean foundNaN = false;
+
+    List<String> classNameList = new ArrayList<>();
+    Map<String, Integer> classIdsByName = new HashMap<>();
+    for (int i = 0; i < numSamples; i++) {
+      PoseSample poseSample = poseSamples.get(i);
+      Integer classId = classIdsByName.get(poseSample.getClassName());
+      if (classId == null) {
+        classId = classNameList.size();
+        classIdsByName.put(poseSample.getClassName(), classId);
+        classNameList.add(poseSample.getClassName());
+      }
+      classIds[i] = classId;
+
+      List<PointF3D> embedding = poseSample.getEmbedding();
+      int offset = i * EMBEDDING_LENGTH;
+      for (int j = 0; j < embedding.size(); j++) {
+        PointF3D point = embedding.get(j);
+        embeddings[offset + j * NUM_DIMS] = point.getX();
+        embeddings[offset + j * NUM_DIMS + 1] = point.getY();
+        embeddings[offset + j * NUM_DIMS + 2] = point.getZ();
+        foundNaN |=
+            Float.isNaN(point.getX()) || Float.isNaN(point.getY()) || Float.isNaN(point.getZ());
+      }
+    }
+    classNames = classNameList.toArray(new String[0]);
+    containsNaN = foundNaN;
+  }
+
+  /**
+   * Creates a matrix from already packed data, e.g. as read by {@link PoseSampleBank}.
+   *
+   * @param embeddings {@code classIds.length * EMBEDDING_LENGTH} embedding values.
+   * @param classIds class id of every sample, indexing into {@code classNames}.
+   * @param classNames distinct class names.
+   */
+  public PoseSampleMatrix(float[] embeddings, int[] classIds, String[] classNames) {
+    Preconditions.checkArgument(embeddings.length == classIds.length * EMBEDDING_LENGTH);
+    this.numSamples = classIds.length;
+    this.embeddings = embeddings;
+    this.classIds = classIds;
+    this.classNames = classNames;
+    boolean foundNaN = false;
+    for (float value : embeddings) {
+      foundNaN |= Float.isNaN(value);
+    }
+    this.containsNaN = foundNaN;
+  }
+
+  public int getNumSamples() {
+    return numSamples;
+  }
+
+  public int getNumClasses() {
+    return classNames.length;
+  }
+
+  /** Returns the backing array of all embeddings. Callers must not modify it. */
+  public float[] getEmbeddings() {
+    return embeddings;
+  }
+
+  /** Whether any embedding value is NaN, in which case distance bounds can't be relied on. */
+  public boolean containsNaN() {
+    return containsNaN;
+  }
+
+  public int getClassId(int sampleIndex) {
+    return classIds[sampleIndex];
+  }
+
+  public String getClassName(int classId) {
+    return classNames[classId];
+  }
+}
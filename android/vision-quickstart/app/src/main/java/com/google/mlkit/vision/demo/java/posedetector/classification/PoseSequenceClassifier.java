@@ -0,0 +1,177 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.LANDMARKS_LENGTH;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Classifies a recorded sequence of poses after the fact, e.g. a whole workout, and counts reps
+ * over it.
+ *
+ * <p>Frames are classified in parallel with a fork-join split over frame ranges. Each leaf range
+ * uses its own {@link PoseClassifier}, as classifiers keep scratch buffers and are not thread
+ * safe, while the {@link PoseSampleIndex} is shared. Smoothing and rep counting depend on the
+ * previous frames, so they run sequentially once all frames are classified, the same way
+ * {@link PoseClassifierProcessor} does in stream mode.
+ */
+public class PoseSequenceClassifier {
+  // Frames per leaf task. Large enough to amortize creating a PoseClassifier for the range.
+  private static final int FRAMES_PER_TASK = 256;
+
+  private final PoseSampleIndex sampleIndex;
+  private final ForkJoinPool pool;
+  private final String[] repClasses;
+
+  /**
+   * Creates a classifier running on a pool sized to the number of cores.
+   *
+   * @param repClasses classes for which reps are counted.
+   */
+  public PoseSequenceClassifier(PoseSampleIndex sampleIndex, String... repClasses) {
+    this(sampleIndex, DefaultPoolHolder.POOL, repClasses);
+  }
+
+  public PoseSequenceClassifier(
+      PoseSampleIndex sampleIndex, ForkJoinPool pool, String... repClasses) {
+    this.sampleIndex = sampleIndex;
+    this.pool = pool;
+    this.repClasses = repClasses.clone();
+  }
+
+  /**
+   * Classifies {@code timestampsMs.length} frames and counts reps over them. Blocks until done,
+   * so don't call it on the main thread.
+   *
+   * @param landmarks the landmarks of all frames, {@link PoseEmbedding#LANDMARKS_LENGTH} floats
+   *     per frame packed as x, y, z triples. A frame without a detected pose has NaN as its first
+   *     value.
+   * @param timestampsMs the capture time of each frame, used for smoothing.
+   */
+  public Result classify(float[] landmarks, long[] timestampsMs) {
+    int numFrames = timestampsMs.length;
+    Preconditions.checkArgument(
+        landmarks.length == numFrames * LANDMARKS_LENGTH,
+        "Expected %s landmark values for %s frames, got %s",
+        numFrames * LANDMARKS_LENGTH, numFrames, landmarks.length);
+
+    ClassificationResult[] classifications = new ClassificationResult[numFrames];
+    pool.invoke(new ClassifyTask(landmarks, classifications, 0, numFrames));
+
+    EMASmoothing emaSmoothing = new EMASmoothing();
+    ClassificationResult[] smoothedClassifications = new ClassificationResult[numFrames];
+    List<RepetitionCounter> repCounters = new ArrayList<>(repClasses.length);
+    for (String className : repClasses) {
+      repCounters.add(new RepetitionCounter(className));
+    }
+    for (int frame = 0; frame < numFrames; frame++) {
+      // Feed pose to smoothing even if no pose found.
+      ClassificationResult smoothed =
+          emaSmoothing.getSmoothedResult(classifications[frame], timestampsMs[frame]);
+      smoothedClassifications[frame] = smoothed;
+      // Don't update repCounters if no pose found.
+      if (isPoseMissing(landmarks, frame)) {
+        continue;
+      }
+      for (RepetitionCounter repCounter : repCounters) {
+        repCounter.addClassificationResult(smoothed);
+      }
+    }
+
+    return new Result(
+        Arrays.asList(classifications), Arrays.asList(smoothedClassifications), repCounters);
+  }
+
+  private static boolean isPoseMissing(float[] landmarks, int frame) {
+    return Float.isNaN(landmarks[frame * LANDMARKS_LENGTH]);
+  }
+
+  /** Per-frame classifications and rep counts of a sequence. */
+  public static class Result {
+    private final List<ClassificationResult> classificationResults;
+    private final List<ClassificationResult> smoothedResults;
+    private final List<RepetitionCounter> repetitionCounters;
+
+    private Result(
+        List<ClassificationResult> classificationResults,
+        List<ClassificationResult> smoothedResults,
+        List<RepetitionCounter> repetitionCounters) {
+      this.classificationResults = Collections.unmodifiableList(classificationResults);
+      this.smoothedResults = Collections.unmodifiableList(smoothedResults);
+      this.repetitionCounters = Collections.unmodifiableList(repetitionCounters);
+    }
+
+    /** Returns the {@link PoseClassifier} output of each frame. */
+    public List<ClassificationResult> getClassificationResults() {
+      return classificationResults;
+    }
+
+    /** Returns the EMA smoothed result of each frame, as used for rep counting. */
+    public List<ClassificationResult> getSmoothedResults() {
+      return smoothedResults;
+    }
+
+    /** Returns one {@link RepetitionCounter} per rep class, holding the totals of the sequence. */
+    public List<RepetitionCounter> getRepetitionCounters() {
+      return repetitionCounters;
+    }
+  }
+
+  private class ClassifyTask extends RecursiveAction {
+    private final float[] landmarks;
+    private final ClassificationResult[] classifications;
+    private final int from;
+    private final int to;
+
+    ClassifyTask(float[] landmarks, ClassificationResult[] classifications, int from, int to) {
+      this.landmarks = landmarks;
+      this.classifications = classifications;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > FRAMES_PER_TASK) {
+        int middle = (from + to) >>> 1;
+        invokeAll(
+            new ClassifyTask(landmarks, classifications, from, middle),
+            new ClassifyTask(landmarks, classifications, middle, to));
+        return;
+      }
+      PoseClassifier poseClassifier = new PoseClassifier(sampleIndex);
+      for (int frame = from; frame < to; frame++) {
+        classifications[frame] = isPoseMissing(landmarks, frame)
+            ? new ClassificationResult()
+            : poseClassifier.classify(landmarks, frame * LANDMARKS_LENGTH);
+      }
+    }
+  }
+
+  // ForkJoinPool.commonPool() requires API level 24, so keep a lazily created pool of our own.
+  // Its threads are daemons, so it doesn't need to be shut down.
+  private static class DefaultPoolHolder {
+    static final ForkJoinPool POOL = new ForkJoinPool();
+  }
+}
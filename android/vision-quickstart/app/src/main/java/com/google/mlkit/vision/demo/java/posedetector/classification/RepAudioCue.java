@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import android.media.AudioManager;
+import android.media.ToneGenerator;
+import android.util.Log;
+import androidx.annotation.Nullable;
+
+/**
+ * Plays a short beep, e.g. when a rep is counted.
+ *
+ * <p>A single {@link ToneGenerator} is created on first use and reused for every cue, as creating
+ * one per cue glitches audibly and leaks native resources. Playing doesn't block, a cue started
+ * while the previous one is still playing replaces it. Call {@link #release()} when done.
+ */
+public class RepAudioCue {
+  private static final String TAG = "RepAudioCue";
+  private static final int VOLUME = 100;
+
+  @Nullable private ToneGenerator toneGenerator;
+  private boolean released;
+
+  public synchronized void play() {
+    if (released) {
+      return;
+    }
+    if (toneGenerator == null) {
+      try {
+        toneGenerator = new ToneGenerator(AudioManager.STREAM_NOTIFICATION, VOLUME);
+      } catch (RuntimeException e) {
+        // Audio is a nice to have, keep counting reps without it.
+        Log.w(TAG, "Could not create ToneGenerator", e);
+        released = true;
+        return;
+      }
+    }
+    toneGenerator.startTone(ToneGenerator.TONE_PROP_BEEP);
+  }
+
+  public synchronized void release() {
+    released = true;
+    if (toneGenerator != null) {
+      toneGenerator.release();
+      toneGenerator = null;
+    }
+  }
+}
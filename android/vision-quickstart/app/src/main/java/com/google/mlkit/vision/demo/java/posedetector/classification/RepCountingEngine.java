@@ -0,0 +1,189 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Preconditions;
+
+/**
+ * Counts reps for every class of a class table, e.g. one class per exercise.
+ *
+ * <p>Each class runs the same hysteresis as {@link RepetitionCounter}: a pose is entered once its
+ * confidence goes above the enter threshold and a rep is counted when it drops below the exit
+ * threshold again. All state is kept in primitive arrays indexed by the position of the class in
+ * the table, so feeding a frame doesn't allocate.
+ *
+ * <p>For every rep the engine also reports when it was counted, the tempo (time since the
+ * previous rep of the same class) and the time under tension (time spent in the pose).
+ */
+public class RepCountingEngine {
+  // These thresholds can be tuned in conjunction with the Top K values in {@link PoseClassifier}.
+  // The default Top K value is 10 so the range here is [0-10].
+  private static final float DEFAULT_ENTER_THRESHOLD = 6f;
+  private static final float DEFAULT_EXIT_THRESHOLD = 4f;
+
+  /** Receives every counted rep, on the thread feeding the engine. */
+  public interface RepListener {
+    /**
+     * @param repClass position of the class in the class table.
+     * @param numRepeats reps of the class so far, including this one.
+     * @param timestampMs time the rep was counted at.
+     * @param tempoMs time since the previous rep of the class, or 0 for the first one.
+     * @param timeUnderTensionMs time from entering the pose until the rep was counted.
+     */
+    void onRep(int repClass, int numRepeats, long timestampMs, long tempoMs,
+        long timeUnderTensionMs);
+  }
+
+  private final String[] classNames;
+  // Dense class ids of the classifier output, -1 if the classifier doesn't know the class.
+  private final int[] classIds;
+  private final float[] enterThresholds;
+  private final float[] exitThresholds;
+
+  private final boolean[] poseEntered;
+  private final long[] enteredAtMs;
+  private final int[] numRepeats;
+  private final long[] lastRepMs;
+  private final long[] lastTempoMs;
+  private final long[] lastTimeUnderTensionMs;
+  private final long[] totalTimeUnderTensionMs;
+
+  @Nullable private RepListener repListener;
+
+  public RepCountingEngine(PoseClassifier poseClassifier, String[] classNames) {
+    this(poseClassifier, classNames, filled(classNames.length, DEFAULT_ENTER_THRESHOLD),
+        filled(classNames.length, DEFAULT_EXIT_THRESHOLD));
+  }
+
+  /**
+   * Creates an engine for the given class table. Classes are matched by name to the dense class
+   * ids of {@code poseClassifier}. Classes it doesn't know never count any reps.
+   */
+  public RepCountingEngine(PoseClassifier poseClassifier, String[] classNames,
+      float[] enterThresholds, float[] exitThresholds) {
+    int numRepClasses = classNames.length;
+    Preconditions.checkArgument(
+        enterThresholds.length == numRepClasses && exitThresholds.length == numRepClasses,
+        "Expected one enter and exit threshold per class");
+    this.classNames = classNames.clone();
+    this.enterThresholds = enterThresholds.clone();
+    this.exitThresholds = exitThresholds.clone();
+    classIds = new int[numRepClasses];
+    for (int repClass = 0; repClass < numRepClasses; repClass++) {
+      classIds[repClass] = -1;
+      for (int classId = 0; classId < poseClassifier.getNumClasses(); classId++) {
+        if (poseClassifier.getClassName(classId).equals(classNames[repClass])) {
+          classIds[repClass] = classId;
+          break;
+        }
+      }
+    }
+    poseEntered = new boolean[numRepClasses];
+    enteredAtMs = new long[numRepClasses];
+    numRepeats = new int[numRepClasses];
+    lastRepMs = new long[numRepClasses];
+    lastTempoMs = new long[numRepClasses];
+    lastTimeUnderTensionMs = new long[numRepClasses];
+    totalTimeUnderTensionMs = new long[numRepClasses];
+  }
+
+  public void setRepListener(@Nullable RepListener repListener) {
+    this.repListener = repListener;
+  }
+
+  /**
+   * Updates every class with the (usually smoothed) confidences of a new frame.
+   *
+   * @param classConfidences confidences indexed by the classifier's dense class ids.
+   * @param timestampMs time the frame was captured at.
+   * @return the position in the class table of the last class that counted a rep on this frame,
+   *     or -1 if none did.
+   */
+  public int addClassification(float[] classConfidences, long timestampMs) {
+    int lastRepClass = -1;
+    for (int repClass = 0; repClass < classNames.length; repClass++) {
+      int classId = classIds[repClass];
+      float poseConfidence = classId < 0 ? 0 : classConfidences[classId];
+
+      if (!poseEntered[repClass]) {
+        if (poseConfidence > enterThresholds[repClass]) {
+          poseEntered[repClass] = true;
+          enteredAtMs[repClass] = timestampMs;
+        }
+        continue;
+      }
+
+      if (poseConfidence < exitThresholds[repClass]) {
+        poseEntered[repClass] = false;
+        countRep(repClass, timestampMs);
+        lastRepClass = repClass;
+      }
+    }
+    return lastRepClass;
+  }
+
+  private void countRep(int repClass, long timestampMs) {
+    int reps = ++numRepeats[repClass];
+    long tempoMs = reps == 1 ? 0 : timestampMs - lastRepMs[repClass];
+    long timeUnderTensionMs = timestampMs - enteredAtMs[repClass];
+    lastRepMs[repClass] = timestampMs;
+    lastTempoMs[repClass] = tempoMs;
+    lastTimeUnderTensionMs[repClass] = timeUnderTensionMs;
+    totalTimeUnderTensionMs[repClass] += timeUnderTensionMs;
+    if (repListener != null) {
+      repListener.onRep(repClass, reps, timestampMs, tempoMs, timeUnderTensionMs);
+    }
+  }
+
+  /** Returns the number of classes in the class table. */
+  public int getNumRepClasses() {
+    return classNames.length;
+  }
+
+  public String getClassName(int repClass) {
+    return classNames[repClass];
+  }
+
+  public int getNumRepeats(int repClass) {
+    return numRepeats[repClass];
+  }
+
+  public long getLastRepTimestampMs(int repClass) {
+    return lastRepMs[repClass];
+  }
+
+  public long getLastTempoMs(int repClass) {
+    return lastTempoMs[repClass];
+  }
+
+  public long getLastTimeUnderTensionMs(int repClass) {
+    return lastTimeUnderTensionMs[repClass];
+  }
+
+  public long getTotalTimeUnderTensionMs(int repClass) {
+    return totalTimeUnderTensionMs[repClass];
+  }
+
+  private static float[] filled(int length, float value) {
+    float[] values = new float[length];
+    for (int i = 0; i < length; i++) {
+      values[i] = value;
+    }
+    return values;
+  }
+}
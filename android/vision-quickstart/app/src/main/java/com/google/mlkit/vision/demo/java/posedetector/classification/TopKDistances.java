@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+/**
+ * Keeps the K smallest distances seen so far, together with the sample index they belong to.
+ *
+ * <p>This is a primitive replacement for a {@code PriorityQueue<Pair<PoseSample, Float>>} with the
+ * largest distance on top. Sift operations mirror {@link java.util.PriorityQueue} step by step so
+ * that ties are broken, and the backing array is ordered, exactly as they would be there.
+ */
+class TopKDistances {
+  private final int k;
+  // One extra slot as we add before popping the largest, like the original queue usage.
+  private final int[] sampleIndices;
+  private final float[] distances;
+  private int size;
+
+  TopKDistances(int k) {
+    this.k = k;
+    sampleIndices = new int[k + 1];
+    distances = new float[k + 1];
+  }
+
+  void clear() {
+    size = 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isFull() {
+    return size >= k;
+  }
+
+  /** Returns the largest retained distance. Only valid when {@link #size()} is non-zero. */
+  float peekDistance() {
+    return distances[0];
+  }
+
+  /** Returns the sample index at the given position of the backing array. */
+  int sampleIndexAt(int position) {
+    return sampleIndices[position];
+  }
+
+  /** Returns the distance at the given position of the backing array. */
+  float distanceAt(int position) {
+    return distances[position];
+  }
+
+  /** Adds a distance and drops the largest one if more than K are retained. */
+  void add(int sampleIndex, float distance) {
+    siftUp(size++, sampleIndex, distance);
+    if (size > k) {
+      poll();
+    }
+  }
+
+  /**
+   * Same as {@link #add} for a distance that is known to be larger than {@link #peekDistance()},
+   * without having to know its exact value. Such a distance is popped right away, but sifting it
+   * through still reorders the backing array, which we keep identical to a full {@link #add}.
+   */
+  void addAboveTop() {
+    int index = size++;
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      sampleIndices[index] = sampleIndices[parent];
+      distances[index] = distances[parent];
+      index = parent;
+    }
+    poll();
+  }
+
+  private void poll() {
+    int n = --size;
+    if (n > 0) {
+      siftDown(0, sampleIndices[n], distances[n], n);
+    }
+  }
+
+  private void siftUp(int index, int sampleIndex, float distance) {
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (Float.compare(distance, distances[parent]) <= 0) {
+        break;
+      }
+      sampleIndices[index] = sampleIndices[parent];
+      distances[index] = distances[parent];
+      index = parent;
+    }
+    sampleIndices[index] = sampleIndex;
+    distances[index] = distance;
+  }
+
+  private void siftDown(int index, int sampleIndex, float distance, int n) {
+    int half = n >>> 1;
+    while (index < half) {
+      int child = (index << 1) + 1;
+      int right = child + 1;
+      if (right < n && Float.compare(distances[child], distances[right]) < 0) {
+        child = right;
+      }
+      if (Float.compare(distance, distances[child]) >= 0) {
+        break;
+      }
+      sampleIndices[index] = sampleIndices[child];
+      distances[index] = distances[child];
+      index = child;
+    }
+    sampleIndices[index] = sampleIndex;
+    distances[index] = distance;
+  }
+}
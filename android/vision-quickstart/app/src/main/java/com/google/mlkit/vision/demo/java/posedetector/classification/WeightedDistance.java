@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_LENGTH;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.NUM_DIMS;
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+
+import com.google.mlkit.vision.common.PointF3D;
+
+/**
+ * Axes-weighted distances between packed embeddings, as used by {@link PoseClassifier}.
+ *
+ * <p>Every embedding point is compared as {@code multiply(subtract(query, sample), axesWeights)}
+ * would, in the same float operation order, without allocating.
+ */
+class WeightedDistance {
+  private final float weightX;
+  private final float weightY;
+  private final float weightZ;
+
+  WeightedDistance(PointF3D axesWeights) {
+    weightX = axesWeights.getX();
+    weightY = axesWeights.getY();
+    weightZ = axesWeights.getZ();
+  }
+
+  /**
+   * Returns the max over embedding points of their weighted max-abs difference. Stops as soon as
+   * the partial distance exceeds {@code bound} and returns it, in which case the full distance is
+   * known to be larger too.
+   */
+  float maxDistance(float[] query, int queryOffset, float[] samples, int sampleOffset,
+      float bound) {
+    float distance = 0;
+    for (int i = 0; i < EMBEDDING_LENGTH; i += NUM_DIMS) {
+      float x = abs((samples[sampleOffset + i] - query[queryOffset + i]) * weightX);
+      float y = abs((samples[sampleOffset + i + 1] - query[queryOffset + i + 1]) * weightY);
+      float z = abs((samples[sampleOffset + i + 2] - query[queryOffset + i + 2]) * weightZ);
+      distance = max(distance, max(x, max(y, z)));
+      if (distance > bound) {
+        break;
+      }
+    }
+    return distance;
+  }
+
+  /** Returns the sum over embedding points of their weighted sum-abs difference. */
+  float sumDistance(float[] query, int queryOffset, float[] samples, int sampleOffset) {
+    float sum = 0;
+    for (int i = 0; i < EMBEDDING_LENGTH; i += NUM_DIMS) {
+      sum += abs((samples[sampleOffset + i] - query[queryOffset + i]) * weightX)
+          + abs((samples[sampleOffset + i + 1] - query[queryOffset + i + 1]) * weightY)
+          + abs((samples[sampleOffset + i + 2] - query[queryOffset + i + 2]) * weightZ);
+    }
+    return sum;
+  }
+}
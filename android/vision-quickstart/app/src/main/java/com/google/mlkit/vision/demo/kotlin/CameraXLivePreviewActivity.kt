@@ -21,6 +21,7 @@ import android.os.Build.VERSION_CODES
 import android.os.Bundle
 import androidx.appcompat.app.AppCompatActivity
 import android.util.Log
+import android.util.Size
 import android.view.View
 import android.widget.AdapterView
 import android.widget.AdapterView.OnItemSelectedListener
@@ -38,13 +39,13 @@ import androidx.camera.core.ImageProxy
 import androidx.camera.core.Preview
 import androidx.camera.lifecycle.ProcessCameraProvider
 import androidx.camera.view.PreviewView
-import androidx.core.content.ContextCompat
 import androidx.lifecycle.Observer
 import androidx.lifecycle.ViewModelProvider
 import com.google.android.gms.common.annotation.KeepName
 import com.google.mlkit.common.MlKitException
 import com.google.mlkit.common.model.LocalModel
 import com.google.mlkit.vision.demo.CameraXViewModel
+import com.google.mlkit.vision.demo.CaptureGovernor
 import com.google.mlkit.vision.demo.GraphicOverlay
 import com.google.mlkit.vision.demo.R
 import com.google.mlkit.vision.demo.VisionImageProcessor
@@ -67,6 +68,7 @@ import com.google.mlkit.vision.text.japanese.JapaneseTextRecognizerOptions
 import com.google.mlkit.vision.text.korean.KoreanTextRecognizerOptions
 import com.google.mlkit.vision.text.latin.TextRecognizerOptions
 import java.util.ArrayList
+import java.util.concurrent.Executors
 
 /** Live preview demo app for ML Kit APIs using CameraX. */
 @KeepName
@@ -80,7 +82,15 @@ class CameraXLivePreviewActivity :
   private var previewUseCase: Preview? = null
   private var analysisUseCase: ImageAnalysis? = null
   private var imageProcessor: VisionImageProcessor? = null
-  private var needUpdateGraphicOverlayImageSourceInfo = false
+  // Frames are analyzed off the main thread, which only shows finished overlay graphics.
+  private val analysisExecutor = Executors.newSingleThreadExecutor()
+  // Read and written on the analysis thread after the analyzer is set.
+  @Volatile private var needUpdateGraphicOverlayImageSourceInfo = false
+  // Scales the analysis resolution and frame rate down while the detector can't keep up. Image
+  // analysis hands over one frame at a time, the next once the processor closed the last one.
+  private val captureGovernor = CaptureGovernor(/* maxFramesInFlight= */ 1)
+  // Scale of the analysis resolution currently bound.
+  private var analysisScale = 1f
   private var selectedModel = OBJECT_DETECTION
   private var lensFacing = CameraSelector.LENS_FACING_BACK
   private var cameraSelector: CameraSelector? = null
@@ -92,6 +102,12 @@ class CameraXLivePreviewActivity :
       selectedModel = savedInstanceState.getString(STATE_SELECTED_MODEL, OBJECT_DETECTION)
     }
     cameraSelector = CameraSelector.Builder().requireLensFacing(lensFacing).build()
+    captureGovernor.setListener { level ->
+      // The frame rate is applied to each frame, only a new resolution takes a new use case.
+      if (level.scale != analysisScale) {
+        bindImageAnalysis()
+      }
+    }
     setContentView(R.layout.activity_vision_camerax_live_preview)
     previewView = findViewById(R.id.preview_view)
     if (previewView == null) {
@@ -210,6 +226,7 @@ class CameraXLivePreviewActivity :
   public override fun onDestroy() {
     super.onDestroy()
     imageProcessor?.run { this.stop() }
+    analysisExecutor.shutdown()
   }
 
   private fun bindAllCameraUseCases() {
@@ -252,6 +269,7 @@ class CameraXLivePreviewActivity :
     if (imageProcessor != null) {
       imageProcessor!!.stop()
     }
+    captureGovernor.setEnabled(PreferenceUtils.isCaptureGovernorEnabled(this))
     imageProcessor =
       try {
         when (selectedModel) {
@@ -361,40 +379,73 @@ class CameraXLivePreviewActivity :
           .show()
         return
       }
+    imageProcessor!!.setCaptureGovernor(captureGovernor)
+    bindImageAnalysis()
+  }
 
-    val builder = ImageAnalysis.Builder()
-    val targetResolution = PreferenceUtils.getCameraXTargetResolution(this, lensFacing)
+  /** Binds an analysis use case at the current capture level, feeding [imageProcessor]. */
+  private fun bindImageAnalysis() {
+    val processor = imageProcessor ?: return
+    val provider = cameraProvider ?: return
+    if (analysisUseCase != null) {
+      provider.unbind(analysisUseCase)
+    }
+
+    val builder =
+      ImageAnalysis.Builder()
+        .setBackpressureStrategy(PreferenceUtils.getCameraXBackpressureStrategy(this))
+        // With RGBA_8888 CameraX converts the frames, so none of the YUV conversion to draw the
+        // camera image is left to the analyzer.
+        .setOutputImageFormat(PreferenceUtils.getCameraXOutputImageFormat(this))
+    val level = captureGovernor.level
+    var targetResolution = PreferenceUtils.getCameraXTargetResolution(this, lensFacing)
+    if (targetResolution == null && level.scale < 1) {
+      targetResolution = DEFAULT_ANALYSIS_RESOLUTION
+    }
     if (targetResolution != null) {
-      builder.setTargetResolution(targetResolution)
+      builder.setTargetResolution(
+        Size(level.scale(targetResolution.width), level.scale(targetResolution.height))
+      )
     }
+    analysisScale = level.scale
     analysisUseCase = builder.build()
 
     needUpdateGraphicOverlayImageSourceInfo = true
 
+    val overlay = graphicOverlay!!
+    val isImageFlipped = lensFacing == CameraSelector.LENS_FACING_FRONT
     analysisUseCase?.setAnalyzer(
-      // imageProcessor.processImageProxy will use another thread to run the detection underneath,
-      // thus we can just runs the analyzer itself on main thread.
-      ContextCompat.getMainExecutor(this),
+      // Frame conversion and the detector calls run on the analysis thread. The processor hands
+      // the finished overlay graphics to the main thread.
+      analysisExecutor,
       ImageAnalysis.Analyzer { imageProxy: ImageProxy ->
+        if (!captureGovernor.shouldAnalyzeFrame(imageProxy.imageInfo.timestamp)) {
+          imageProxy.close()
+          return@Analyzer
+        }
         if (needUpdateGraphicOverlayImageSourceInfo) {
-          val isImageFlipped = lensFacing == CameraSelector.LENS_FACING_FRONT
           val rotationDegrees = imageProxy.imageInfo.rotationDegrees
+          val width = imageProxy.width
+          val height = imageProxy.height
+          // Posted ahead of the graphics of this frame, so they are drawn with the new size.
           if (rotationDegrees == 0 || rotationDegrees == 180) {
-            graphicOverlay!!.setImageSourceInfo(imageProxy.width, imageProxy.height, isImageFlipped)
+            overlay.post { overlay.setImageSourceInfo(width, height, isImageFlipped) }
           } else {
-            graphicOverlay!!.setImageSourceInfo(imageProxy.height, imageProxy.width, isImageFlipped)
+            overlay.post { overlay.setImageSourceInfo(height, width, isImageFlipped) }
           }
           needUpdateGraphicOverlayImageSourceInfo = false
         }
         try {
-          imageProcessor!!.processImageProxy(imageProxy, graphicOverlay)
+          processor.processImageProxy(imageProxy, overlay)
         } catch (e: MlKitException) {
           Log.e(TAG, "Failed to process image. Error: " + e.localizedMessage)
-          Toast.makeText(applicationContext, e.localizedMessage, Toast.LENGTH_SHORT).show()
+          runOnUiThread {
+            Toast.makeText(applicationContext, e.localizedMessage, Toast.LENGTH_SHORT).show()
+          }
         }
       }
     )
-    cameraProvider!!.bindToLifecycle(/* lifecycleOwner= */ this, cameraSelector!!, analysisUseCase)
+    provider.bindToLifecycle(/* lifecycleOwner= */ this, cameraSelector!!, analysisUseCase)
   }
 
   companion object {
@@ -417,5 +468,7 @@ class CameraXLivePreviewActivity :
     private const val FACE_MESH_DETECTION = "Face Mesh Detection (Beta)";
 
     private const val STATE_SELECTED_MODEL = "selected_model"
+    // The analysis resolution of CameraX when none is set, scaled down by the capture governor.
+    private val DEFAULT_ANALYSIS_RESOLUTION = Size(640, 480)
   }
 }
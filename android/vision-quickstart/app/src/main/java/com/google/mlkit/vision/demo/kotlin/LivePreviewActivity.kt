@@ -28,13 +28,11 @@ import android.view.View
 import android.widget.*
 import android.widget.AdapterView.OnItemSelectedListener
 import androidx.appcompat.app.AppCompatActivity
-import com.blankj.utilcode.util.GsonUtils
 import com.google.android.exoplayer2.ExoPlayer
 import com.google.android.exoplayer2.MediaItem
 import com.google.android.exoplayer2.Player
 import com.google.android.exoplayer2.ui.StyledPlayerView
 import com.google.android.gms.common.annotation.KeepName
-import com.google.gson.reflect.TypeToken
 import com.google.mlkit.common.model.LocalModel
 import com.google.mlkit.vision.demo.*
 import com.google.mlkit.vision.demo.kotlin.barcodescanner.BarcodeScannerProcessor
@@ -42,12 +40,14 @@ import com.google.mlkit.vision.demo.kotlin.facedetector.FaceDetectorProcessor
 import com.google.mlkit.vision.demo.kotlin.facemeshdetector.FaceMeshDetectorProcessor
 import com.google.mlkit.vision.demo.kotlin.labeldetector.LabelDetectorProcessor
 import com.google.mlkit.vision.demo.kotlin.objectdetector.ObjectDetectorProcessor
+import com.google.mlkit.vision.demo.kotlin.posedetector.MultiPersonPoseProcessor
 import com.google.mlkit.vision.demo.kotlin.posedetector.PoseDetectorProcessor
 import com.google.mlkit.vision.demo.kotlin.segmenter.SegmenterProcessor
 import com.google.mlkit.vision.demo.kotlin.textdetector.TextRecognitionProcessor
 import com.google.mlkit.vision.demo.preference.PreferenceUtils
 import com.google.mlkit.vision.demo.preference.SettingsActivity
 import com.google.mlkit.vision.demo.preference.SettingsActivity.LaunchSource
+import com.google.mlkit.vision.demo.video.PoseKeyframes
 import com.google.mlkit.vision.demo.video.VideoTextureViewActivity
 import com.google.mlkit.vision.label.custom.CustomImageLabelerOptions
 import com.google.mlkit.vision.label.defaults.ImageLabelerOptions
@@ -64,11 +64,14 @@ import java.io.IOException
 class LivePreviewActivity :
     AppCompatActivity(), OnItemSelectedListener, CompoundButton.OnCheckedChangeListener, Runnable,
     Player.Listener {
-    private var fromJson: HashMap<Long, ArrayList<PointF>>? = null
+    private var referenceTrack: ReferencePoseTrack? = null
+    private var referenceAngles = DoubleArray(0)
+    // Player position for processors scoring off the main thread, where the player can't be read.
+    @Volatile private var playbackPositionMs = 0L
     private var player: ExoPlayer? = null
     private var playerView: StyledPlayerView? = null
     private var skView: SkeletonTextureView? = null
-    private var cameraSource: CameraSource? = null
+    private var cameraSource: LiveCameraSource? = null
     private var preview: CameraSourcePreview? = null
     private var graphicOverlay: GraphicOverlay? = null
     private var tvScore: TextView? = null
@@ -120,6 +123,7 @@ class LivePreviewActivity :
         options.add(IMAGE_LABELING_CUSTOM)
         options.add(CUSTOM_AUTOML_LABELING)
         options.add(POSE_DETECTION)
+        options.add(MULTI_PERSON_POSE_DETECTION)
         options.add(SELFIE_SEGMENTATION)
         options.add(TEXT_RECOGNITION_LATIN)
         options.add(TEXT_RECOGNITION_CHINESE)
@@ -153,7 +157,7 @@ class LivePreviewActivity :
             startActivity(Intent(this, VideoTextureViewActivity::class.java))
         }
 
-        uploadConfigJson()
+        loadReferenceTrack()
     }
 
     private fun initPlayer() {
@@ -189,8 +193,8 @@ class LivePreviewActivity :
         referencePoint.add(PointF(860.23474f, 1385.1187f))
         referencePoint.add(PointF(951.6639f, 1669.7156f))
         referencePoint.add(PointF(78.929565f, 1056.8763f))
-        PoseAngleUtils.setCurrentPoint(referencePoint)
-        Log.d(TAG, "initReference: ${PoseAngleUtils.trunkPoseAngles}")
+        PoseAngleUtils.referencePose = ReferencePose.fromPoints(referencePoint)
+        Log.d(TAG, "initReference: ${PoseAngleUtils.referencePose}")
     }
 
     @Synchronized
@@ -224,7 +228,12 @@ class LivePreviewActivity :
     private fun createCameraSource(model: String) {
         // If there's no existing cameraSource, create one.
         if (cameraSource == null) {
-            cameraSource = CameraSource(this, graphicOverlay)
+            cameraSource =
+                if (PreferenceUtils.isCamera2BackendEnabled(this)) {
+                    Camera2Source(this, graphicOverlay)
+                } else {
+                    CameraSource(this, graphicOverlay)
+                }
         }
         try {
             when (model) {
@@ -369,6 +378,12 @@ class LivePreviewActivity :
                         false,
                         /* isStreamMode = */ true
                     )
+                    referenceTrack?.let { track ->
+                        poseDetectorProcessor.temporalPoseScorer = TemporalPoseScorer(
+                            track,
+                            playbackPositionMs = { playbackPositionMs + REFERENCE_LEAD_MS }
+                        )
+                    }
                     var count = 0
                     var currentTime = System.currentTimeMillis()
                     poseDetectorProcessor.score.observe(this) {
@@ -390,6 +405,22 @@ class LivePreviewActivity :
                         poseDetectorProcessor
                     )
                 }
+                MULTI_PERSON_POSE_DETECTION -> {
+                    val multiPersonPoseProcessor = MultiPersonPoseProcessor(
+                        this,
+                        referenceTrack,
+                        playbackPositionMs = { playbackPositionMs + REFERENCE_LEAD_MS }
+                    )
+                    multiPersonPoseProcessor.personScores.observe(this) { persons ->
+                        tvScore?.text = persons.filter { !it.score.isNaN() }
+                            .joinToString(" ") { "${it.personId}:${it.score.toInt()}" }
+                    }
+                    multiPersonPoseProcessor.latency.observe(this) {
+                        Log.v(TAG, "Multi-person latency: detection=${it.detectionMs}, " +
+                            "pose=${it.poseMs}, total=${it.totalMs}")
+                    }
+                    cameraSource!!.setMachineLearningFrameProcessor(multiPersonPoseProcessor)
+                }
                 SELFIE_SEGMENTATION -> {
                     cameraSource!!.setMachineLearningFrameProcessor(SegmenterProcessor(this))
                 }
@@ -448,24 +479,17 @@ class LivePreviewActivity :
 
     public override fun onDestroy() {
         super.onDestroy()
+        handler.removeCallbacks(this)
         if (cameraSource != null) {
             cameraSource?.release()
         }
     }
 
-    fun uploadConfigJson() {
-        val text = resources.openRawResource(R.raw.test001).bufferedReader()
-            .use { it.readText() }
-
-        Log.d(TAG, "getCourseList: $text")
-
-        val mapType = object : TypeToken<HashMap<Long, List<PointF>>>() {}
-//        val gson = Gson()
-//        val savePose : TypeToken<Map<Long, List<PosePoint>>> = gson.fromJson(text, mapType::class.java).
-
-        fromJson = GsonUtils.fromJson(text, mapType.type)
-
-        Log.d(TAG, "uploadConfigJson: ${fromJson?.get(3)}")
+    fun loadReferenceTrack() {
+        val keyframes = resources.openRawResource(R.raw.test001).use { PoseKeyframes.read(it) }
+        referenceTrack = ReferencePoseTrack(keyframes)
+        referenceAngles = DoubleArray(referenceTrack?.numAngles ?: 0)
+        Log.d(TAG, "loadReferenceTrack: ${keyframes.size()} keyframes")
     }
 
     companion object {
@@ -483,29 +507,33 @@ class LivePreviewActivity :
         private const val IMAGE_LABELING_CUSTOM = "Custom Image Labeling (Birds)"
         private const val CUSTOM_AUTOML_LABELING = "Custom AutoML Image Labeling (Flower)"
         private const val POSE_DETECTION = "Pose Detection"
+        private const val MULTI_PERSON_POSE_DETECTION = "Multi-person Pose Detection"
         private const val SELFIE_SEGMENTATION = "Selfie Segmentation"
         private const val FACE_MESH_DETECTION = "Face Mesh Detection (Beta)";
 
         private const val TAG = "LivePreviewActivity"
+
+        // The reference pose leads the video by a second, so there is time to follow it.
+        private const val REFERENCE_LEAD_MS = 1000L
+        // Roughly the frame interval of the coach video.
+        private const val REFERENCE_UPDATE_INTERVAL_MS = 33L
     }
 
     override fun onIsPlayingChanged(isPlaying: Boolean) {
+        handler.removeCallbacks(this)
         if (isPlaying) {
-            handler.postDelayed(this, 0L)
+            handler.post(this)
         }
     }
 
     private val handler = Handler(Looper.getMainLooper())
 
     override fun run() {
-        val currentPosition: Long? = player?.currentPosition?.div(1000)
-        currentPosition?.let { key ->
-            fromJson?.get(key + 1)?.let { points ->
-                Log.d(TAG, "run: $currentPosition")
-//                graphicOverlay?.let { skView?.drawSkeleton(points, it) }
-                PoseAngleUtils.setCurrentPoint(points)
-            }
+        val position = player?.currentPosition ?: return
+        playbackPositionMs = position
+        if (referenceTrack?.getAngles(position + REFERENCE_LEAD_MS, referenceAngles) == true) {
+            PoseAngleUtils.referencePose = ReferencePose.fromAngles(referenceAngles)
         }
-        handler.postDelayed(this, 500)
+        handler.postDelayed(this, REFERENCE_UPDATE_INTERVAL_MS)
     }
 }
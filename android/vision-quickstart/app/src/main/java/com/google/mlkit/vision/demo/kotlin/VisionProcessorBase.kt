@@ -19,11 +19,12 @@ package com.google.mlkit.vision.demo.kotlin
 import android.app.ActivityManager
 import android.content.Context
 import android.graphics.Bitmap
+import android.graphics.PixelFormat
+import android.media.Image
 import android.os.Build.VERSION_CODES
 import android.os.SystemClock
 import android.util.Log
 import android.widget.Toast
-import androidx.annotation.GuardedBy
 import androidx.annotation.RequiresApi
 import androidx.camera.core.ExperimentalGetImage
 import androidx.camera.core.ImageProxy
@@ -35,33 +36,86 @@ import com.google.android.odml.image.MlImage
 import com.google.mlkit.common.MlKitException
 import com.google.mlkit.vision.common.InputImage
 import com.google.mlkit.vision.demo.*
+import com.google.mlkit.vision.demo.FramePipeline.DropPolicy
+import com.google.mlkit.vision.demo.preference.PreferenceSnapshot
 import com.google.mlkit.vision.demo.preference.PreferenceUtils
 import java.lang.Math.max
 import java.lang.Math.min
 import java.nio.ByteBuffer
 import java.util.*
+import java.util.concurrent.Executors
 
 /**
  * Abstract base class for ML Kit frame processors. Subclasses need to implement {@link
  * #onSuccess(T, FrameMetadata, GraphicOverlay)} to define what they want to with the detection
  * results and {@link #detectInImage(VisionImage)} to specify the detector object.
  *
+ * [onSuccess] and [onFailure] run on a worker thread, one frame at a time. The graphics [onSuccess]
+ * adds to the overlay are shown together on the main thread once it returns, so it must not touch
+ * views itself.
+ *
+ * Live preview frames run through a [FramePipeline] with up to `maxFramesInFlight` frames at a
+ * time. With more than one, [detectInImage] is called for the next frame before the results of
+ * the previous one are delivered.
+ *
  * @param <T> The type of the detected feature.
  */
-abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
+abstract class VisionProcessorBase<T>
+@JvmOverloads
+constructor(
+  context: Context,
+  private val maxFramesInFlight: Int = 1,
+  dropPolicy: DropPolicy = DropPolicy.LATEST_WINS
+) : VisionImageProcessor {
 
   companion object {
     const val MANUAL_TESTING_LOG = "LogTagForTest"
     private const val TAG = "VisionProcessorBase"
+    // Sequence number of frames delivered right away instead of through the frame pipeline.
+    private const val NO_SEQUENCE = -1L
+  }
+
+  /** A live preview frame, a buffer from the Camera1 API or an image from the Camera2 API. */
+  private class CameraFrame(
+    val data: ByteBuffer?,
+    val image: Image?,
+    private val onFrameDone: Runnable,
+    val metadata: FrameMetadata,
+    val graphicOverlay: GraphicOverlay
+  ) {
+    /** Hands the buffer or image back to the camera source. */
+    fun release() {
+      onFrameDone.run()
+    }
   }
 
   private var activityManager: ActivityManager =
     context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
   private val fpsTimer = Timer()
   private val executor = ScopedExecutor(TaskExecutors.MAIN_THREAD)
+  // Results are processed and their graphics built here, the main thread only shows them.
+  private val resultThread = Executors.newSingleThreadExecutor()
+  private val resultExecutor = ScopedExecutor(resultThread)
+  // Preferences read per frame, refreshed only when they change.
+  private val preferences = PreferenceSnapshot.Tracker(context)
+  private val temperatureMonitor = TemperatureMonitor(context)
+  // Throttles live detection as the device heats up, null if turned off in the settings.
+  private val thermalThrottle =
+    if (PreferenceUtils.isThermalThrottleEnabled(context)) {
+      ThermalThrottle(context, temperatureMonitor)
+    } else {
+      null
+    }
+
+  /** What live detection currently gives up to let the device cool down. */
+  @Volatile
+  protected var thermalLevel = ThermalThrottle.Level.NONE
+    private set
+  // Counts live frames to detect one in every detectionStride, on the thread delivering them.
+  private var liveFrameCount = 0
 
   // Whether this processor is already shut down
-  private var isShutdown = false
+  @Volatile private var isShutdown = false
 
   // Used to calculate latency, running in the same thread, no sync needed.
   private var numRuns = 0
@@ -76,12 +130,33 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
   private var frameProcessedInOneSecondInterval = 0
   private var framesPerSecond = 0
 
-  // To keep the latest images and its metadata.
-  @GuardedBy("this") private var latestImage: ByteBuffer? = null
-  @GuardedBy("this") private var latestImageMetaData: FrameMetadata? = null
-  // To keep the images and metadata in process.
-  @GuardedBy("this") private var processingImage: ByteBuffer? = null
-  @GuardedBy("this") private var processingMetaData: FrameMetadata? = null
+  // Adapts the capture to the detector latency of live preview frames.
+  @Volatile private var captureGovernor: CaptureGovernor? = null
+
+  // Schedules the live preview frames from the Camera1 and Camera2 APIs.
+  private val framePipeline =
+    FramePipeline(
+      maxFramesInFlight,
+      dropPolicy,
+      /* queueCapacity= */ maxFramesInFlight,
+      object : FramePipeline.FrameHandler<CameraFrame> {
+        override fun process(frame: CameraFrame, sequence: Long) {
+          try {
+            when {
+              isShutdown -> frame.release()
+              frame.image != null -> processMediaImage(frame, frame.image, sequence)
+              else -> processImage(frame, frame.data!!, sequence)
+            }
+          } catch (e: RuntimeException) {
+            failFrame(frame, sequence, e)
+          }
+        }
+
+        override fun drop(frame: CameraFrame) {
+          frame.release()
+        }
+      }
+    )
 
   init {
     fpsTimer.scheduleAtFixedRate(
@@ -96,6 +171,19 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
     )
   }
 
+  /**
+   * Ends a live preview frame that failed before reaching the detector, so its slot in the
+   * pipeline is freed and the camera gets the frame back.
+   */
+  private fun failFrame(frame: CameraFrame, sequence: Long, e: RuntimeException) {
+    frame.release()
+    resultExecutor.execute {
+      framePipeline.complete(sequence) {
+        deliverFailure(e, frame.graphicOverlay, /* originalCameraImage= */ null)
+      }
+    }
+  }
+
   // -----------------Code for processing single still image----------------------------------------
   override fun processBitmap(bitmap: Bitmap?, graphicOverlay: GraphicOverlay) {
     val frameStartMs = SystemClock.elapsedRealtime()
@@ -107,7 +195,8 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
         graphicOverlay,
         /* originalCameraImage= */ null,
         /* shouldShowFps= */ false,
-        frameStartMs
+        frameStartMs,
+        NO_SEQUENCE
       )
       mlImage.close()
       return
@@ -118,45 +207,35 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
       graphicOverlay,
       /* originalCameraImage= */ null,
       /* shouldShowFps= */ false,
-      frameStartMs
+      frameStartMs,
+      NO_SEQUENCE
     )
   }
 
   // -----------------Code for processing live preview frame from Camera1 API-----------------------
-  @Synchronized
   override fun processByteBuffer(
     data: ByteBuffer?,
     frameMetadata: FrameMetadata?,
-    graphicOverlay: GraphicOverlay
+    graphicOverlay: GraphicOverlay,
+    onBufferDone: Runnable
   ) {
-    latestImage = data
-    latestImageMetaData = frameMetadata
-    if (processingImage == null && processingMetaData == null) {
-      processLatestImage(graphicOverlay)
-    }
-  }
-
-  @Synchronized
-  private fun processLatestImage(graphicOverlay: GraphicOverlay) {
-    processingImage = latestImage
-    processingMetaData = latestImageMetaData
-    latestImage = null
-    latestImageMetaData = null
-    if (processingImage != null && processingMetaData != null && !isShutdown) {
-      processImage(processingImage!!, processingMetaData!!, graphicOverlay)
+    if (shouldSkipLiveFrame()) {
+      onBufferDone.run()
+      return
     }
+    framePipeline.offer(
+      CameraFrame(data!!, image = null, onBufferDone, frameMetadata!!, graphicOverlay)
+    )
   }
 
-  private fun processImage(
-    data: ByteBuffer,
-    frameMetadata: FrameMetadata,
-    graphicOverlay: GraphicOverlay
-  ) {
+  private fun processImage(frame: CameraFrame, data: ByteBuffer, sequence: Long) {
     val frameStartMs = SystemClock.elapsedRealtime()
+    val frameMetadata = frame.metadata
+    val graphicOverlay = frame.graphicOverlay
     // If live viewport is on (that is the underneath surface view takes care of the camera preview
     // drawing), skip the unnecessary bitmap creation that used for the manual preview drawing.
     val bitmap =
-      if (PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.context)) null
+      if (preferences.get().isCameraLiveViewportEnabled) null
       else BitmapUtils.getBitmap(data, frameMetadata)
 
     if (isMlImageEnabled(graphicOverlay.context)) {
@@ -169,8 +248,16 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
           )
           .setRotation(frameMetadata.rotation)
           .build()
-      requestDetectInImage(mlImage, graphicOverlay, bitmap, /* shouldShowFps= */ true, frameStartMs)
-        .addOnSuccessListener(executor) { processLatestImage(graphicOverlay) }
+      requestDetectInImage(
+          mlImage,
+          graphicOverlay,
+          bitmap,
+          /* shouldShowFps= */ true,
+          frameStartMs,
+          sequence
+        )
+        // The camera must not refill the buffer until the detector is done with it.
+        .addOnCompleteListener { frame.release() }
 
       // This is optional. Java Garbage collection can also close it eventually.
       mlImage.close()
@@ -178,19 +265,80 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
     }
 
     requestDetectInImage(
-      InputImage.fromByteBuffer(
-        data,
-        frameMetadata.width,
-        frameMetadata.height,
-        frameMetadata.rotation,
-        InputImage.IMAGE_FORMAT_NV21
-      ),
-      graphicOverlay,
-      bitmap,
-      /* shouldShowFps= */ true,
-      frameStartMs
+        InputImage.fromByteBuffer(
+          data,
+          frameMetadata.width,
+          frameMetadata.height,
+          frameMetadata.rotation,
+          InputImage.IMAGE_FORMAT_NV21
+        ),
+        graphicOverlay,
+        bitmap,
+        /* shouldShowFps= */ true,
+        frameStartMs,
+        sequence
+      )
+      // The camera must not refill the buffer until the detector is done with it.
+      .addOnCompleteListener { frame.release() }
+  }
+
+  // -----------------Code for processing live preview frame from Camera2 API-----------------------
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  override fun processMediaImage(
+    image: Image,
+    rotationDegrees: Int,
+    graphicOverlay: GraphicOverlay,
+    onImageDone: Runnable
+  ) {
+    if (shouldSkipLiveFrame()) {
+      onImageDone.run()
+      return
+    }
+    val frameMetadata =
+      FrameMetadata.Builder()
+        .setWidth(image.width)
+        .setHeight(image.height)
+        .setRotation(rotationDegrees)
+        .build()
+    framePipeline.offer(
+      CameraFrame(data = null, image, onImageDone, frameMetadata, graphicOverlay)
     )
-      .addOnSuccessListener(executor) { processLatestImage(graphicOverlay) }
+  }
+
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  private fun processMediaImage(frame: CameraFrame, image: Image, sequence: Long) {
+    val frameStartMs = SystemClock.elapsedRealtime()
+    val rotationDegrees = frame.metadata.rotation
+    val graphicOverlay = frame.graphicOverlay
+
+    val bitmap =
+      if (preferences.get().isCameraLiveViewportEnabled) null
+      else BitmapUtils.getBitmap(image, rotationDegrees)
+
+    val task =
+      if (isMlImageEnabled(graphicOverlay.context)) {
+        // The detector reads the planes of the image itself, nothing is copied.
+        val mlImage = MediaMlImageBuilder(image).setRotation(rotationDegrees).build()
+        requestDetectInImage(
+          mlImage,
+          graphicOverlay,
+          /* originalCameraImage= */ bitmap,
+          /* shouldShowFps= */ true,
+          frameStartMs,
+          sequence
+        )
+      } else {
+        requestDetectInImage(
+          InputImage.fromMediaImage(image, rotationDegrees),
+          graphicOverlay,
+          /* originalCameraImage= */ bitmap,
+          /* shouldShowFps= */ true,
+          frameStartMs,
+          sequence
+        )
+      }
+    // The image stays in use until the detector is done with it.
+    task.addOnCompleteListener { frame.release() }
   }
 
   // -----------------Code for processing live preview frame from CameraX API-----------------------
@@ -201,8 +349,16 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
     if (isShutdown) {
       return
     }
+    if (shouldSkipLiveFrame()) {
+      image.close()
+      return
+    }
+    if (image.format == PixelFormat.RGBA_8888) {
+      processRgbaImageProxy(image, graphicOverlay, frameStartMs)
+      return
+    }
     var bitmap: Bitmap? = null
-    if (!PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.context)) {
+    if (!preferences.get().isCameraLiveViewportEnabled) {
       bitmap = BitmapUtils.getBitmap(image)
     }
 
@@ -214,7 +370,8 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
         graphicOverlay,
         /* originalCameraImage= */ bitmap,
         /* shouldShowFps= */ true,
-        frameStartMs
+        frameStartMs,
+        NO_SEQUENCE
       )
         // When the image is from CameraX analysis use case, must call image.close() on received
         // images when finished using them. Otherwise, new images may not be received or the camera
@@ -231,7 +388,8 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
       graphicOverlay,
       /* originalCameraImage= */ bitmap,
       /* shouldShowFps= */ true,
-      frameStartMs
+      frameStartMs,
+      NO_SEQUENCE
     )
       // When the image is from CameraX analysis use case, must call image.close() on received
       // images when finished using them. Otherwise, new images may not be received or the camera
@@ -239,13 +397,59 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
       .addOnCompleteListener { image.close() }
   }
 
+  /**
+   * Processes an RGBA_8888 frame from CameraX. Detectors don't take RGBA media images, so the
+   * frame is copied into an upright bitmap that is both detected on and drawn, and the image is
+   * closed right away.
+   */
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  @ExperimentalGetImage
+  private fun processRgbaImageProxy(
+    image: ImageProxy,
+    graphicOverlay: GraphicOverlay,
+    frameStartMs: Long
+  ) {
+    val bitmap = image.use { BitmapUtils.getBitmap(it) } ?: return
+    var originalCameraImage: Bitmap? = null
+    if (!preferences.get().isCameraLiveViewportEnabled) {
+      // One reference for the detector below, one for the drawn camera image.
+      BitmapPool.retain(bitmap)
+      originalCameraImage = bitmap
+    }
+
+    val task =
+      if (isMlImageEnabled(graphicOverlay.context)) {
+        val mlImage = BitmapMlImageBuilder(bitmap).build()
+        requestDetectInImage(
+            mlImage,
+            graphicOverlay,
+            originalCameraImage,
+            /* shouldShowFps= */ true,
+            frameStartMs,
+            NO_SEQUENCE
+          )
+          .also { mlImage.close() }
+      } else {
+        requestDetectInImage(
+          InputImage.fromBitmap(bitmap, /* rotationDegrees= */ 0),
+          graphicOverlay,
+          originalCameraImage,
+          /* shouldShowFps= */ true,
+          frameStartMs,
+          NO_SEQUENCE
+        )
+      }
+    task.addOnCompleteListener { BitmapPool.release(bitmap) }
+  }
+
   // -----------------Common processing logic-------------------------------------------------------
   private fun requestDetectInImage(
     image: InputImage,
     graphicOverlay: GraphicOverlay,
     originalCameraImage: Bitmap?,
     shouldShowFps: Boolean,
-    frameStartMs: Long
+    frameStartMs: Long,
+    sequence: Long
   ): Task<T> {
     Log.d(TAG, "requestDetectInImage: $image")
     return setUpListener(
@@ -253,7 +457,8 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
       graphicOverlay,
       originalCameraImage,
       shouldShowFps,
-      frameStartMs
+      frameStartMs,
+      sequence
     )
   }
 
@@ -262,14 +467,16 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
     graphicOverlay: GraphicOverlay,
     originalCameraImage: Bitmap?,
     shouldShowFps: Boolean,
-    frameStartMs: Long
+    frameStartMs: Long,
+    sequence: Long
   ): Task<T> {
     return setUpListener(
       detectInImage(image),
       graphicOverlay,
       originalCameraImage,
       shouldShowFps,
-      frameStartMs
+      frameStartMs,
+      sequence
     )
   }
 
@@ -278,100 +485,187 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
     graphicOverlay: GraphicOverlay,
     originalCameraImage: Bitmap?,
     shouldShowFps: Boolean,
-    frameStartMs: Long
+    frameStartMs: Long,
+    sequence: Long
   ): Task<T> {
     val detectorStartMs = SystemClock.elapsedRealtime()
-    return task
-      .addOnSuccessListener(
-        executor,
-        OnSuccessListener { results: T ->
-          val endMs = SystemClock.elapsedRealtime()
-          val currentFrameLatencyMs = endMs - frameStartMs
-          val currentDetectorLatencyMs = endMs - detectorStartMs
-          if (numRuns >= 500) {
-            resetLatencyStats()
-          }
-          numRuns++
-          frameProcessedInOneSecondInterval++
-          totalFrameMs += currentFrameLatencyMs
-          maxFrameMs = max(currentFrameLatencyMs, maxFrameMs)
-          minFrameMs = min(currentFrameLatencyMs, minFrameMs)
-          totalDetectorMs += currentDetectorLatencyMs
-          maxDetectorMs = max(currentDetectorLatencyMs, maxDetectorMs)
-          minDetectorMs = min(currentDetectorLatencyMs, minDetectorMs)
-
-          // Only log inference info once per second. When frameProcessedInOneSecondInterval is
-          // equal to 1, it means this is the first frame processed during the current second.
-          if (frameProcessedInOneSecondInterval == 1) {
-            Log.d(TAG, "Num of Runs: $numRuns")
-            Log.d(
-              TAG,
-              "Frame latency: max=" +
-                maxFrameMs +
-                ", min=" +
-                minFrameMs +
-                ", avg=" +
-                totalFrameMs / numRuns
-            )
-            Log.d(
-              TAG,
-              "Detector latency: max=" +
-                maxDetectorMs +
-                ", min=" +
-                minDetectorMs +
-                ", avg=" +
-                totalDetectorMs / numRuns
-            )
-            val mi = ActivityManager.MemoryInfo()
-            activityManager.getMemoryInfo(mi)
-            val availableMegs: Long = mi.availMem / 0x100000L
-            Log.d(TAG, "Memory available in system: $availableMegs MB")
-          }
-          graphicOverlay.clear()
-          if (originalCameraImage != null) {
-            graphicOverlay.add(CameraImageGraphic(graphicOverlay, originalCameraImage))
-          }
-          this@VisionProcessorBase.onSuccess(results, graphicOverlay)
-          if (!PreferenceUtils.shouldHideDetectionInfo(graphicOverlay.context)) {
-            graphicOverlay.add(
-              InferenceInfoGraphic(
-                graphicOverlay,
-                currentFrameLatencyMs,
-                currentDetectorLatencyMs,
-                if (shouldShowFps) framesPerSecond else null
-              )
-            )
-          }
-          graphicOverlay.postInvalidate()
+    return task.addOnCompleteListener(resultExecutor) { completedTask ->
+      val detectorLatencyMs = SystemClock.elapsedRealtime() - detectorStartMs
+      val delivery = Runnable {
+        if (completedTask.isSuccessful) {
+          deliverResults(
+            completedTask.result,
+            graphicOverlay,
+            originalCameraImage,
+            shouldShowFps,
+            frameStartMs,
+            detectorLatencyMs
+          )
+        } else {
+          deliverFailure(completedTask.exception!!, graphicOverlay, originalCameraImage)
         }
+      }
+      if (sequence == NO_SEQUENCE) {
+        delivery.run()
+      } else {
+        framePipeline.complete(sequence, delivery)
+      }
+    }
+  }
+
+  private fun deliverResults(
+    results: T,
+    graphicOverlay: GraphicOverlay,
+    originalCameraImage: Bitmap?,
+    shouldShowFps: Boolean,
+    frameStartMs: Long,
+    currentDetectorLatencyMs: Long
+  ) {
+    val endMs = SystemClock.elapsedRealtime()
+    val currentFrameLatencyMs = endMs - frameStartMs
+    if (numRuns >= 500) {
+      resetLatencyStats()
+    }
+    numRuns++
+    frameProcessedInOneSecondInterval++
+    totalFrameMs += currentFrameLatencyMs
+    maxFrameMs = max(currentFrameLatencyMs, maxFrameMs)
+    minFrameMs = min(currentFrameLatencyMs, minFrameMs)
+    totalDetectorMs += currentDetectorLatencyMs
+    maxDetectorMs = max(currentDetectorLatencyMs, maxDetectorMs)
+    minDetectorMs = min(currentDetectorLatencyMs, minDetectorMs)
+    if (shouldShowFps) {
+      captureGovernor?.recordDetectorLatency(currentDetectorLatencyMs)
+    }
+
+    // Only log inference info once per second. When frameProcessedInOneSecondInterval is
+    // equal to 1, it means this is the first frame processed during the current second.
+    if (frameProcessedInOneSecondInterval == 1) {
+      Log.d(TAG, "Num of Runs: $numRuns")
+      Log.d(
+        TAG,
+        "Frame latency: max=" +
+          maxFrameMs +
+          ", min=" +
+          minFrameMs +
+          ", avg=" +
+          totalFrameMs / numRuns
       )
-      .addOnFailureListener(
-        executor,
-        OnFailureListener { e: Exception ->
-          graphicOverlay.clear()
-          graphicOverlay.postInvalidate()
-          val error = "Failed to process. Error: " + e.localizedMessage
-          Toast.makeText(
-              graphicOverlay.context,
-              """
-          $error
-          Cause: ${e.cause}
-          """.trimIndent(),
-              Toast.LENGTH_SHORT
-            )
-            .show()
-          Log.d(TAG, error)
-          e.printStackTrace()
-          this@VisionProcessorBase.onFailure(e)
-        }
+      Log.d(
+        TAG,
+        "Detector latency: max=" +
+          maxDetectorMs +
+          ", min=" +
+          minDetectorMs +
+          ", avg=" +
+          totalDetectorMs / numRuns
       )
+      val mi = ActivityManager.MemoryInfo()
+      activityManager.getMemoryInfo(mi)
+      val availableMegs: Long = mi.availMem / 0x100000L
+      Log.d(TAG, "Memory available in system: $availableMegs MB")
+      temperatureMonitor.logTemperature()
+      if (shouldShowFps && thermalThrottle != null) {
+        updateThermalLevel(thermalThrottle.update())
+      }
+    }
+    // Build the graphics of this frame here, the overlay keeps showing the previous frame.
+    graphicOverlay.beginFrame()
+    val renderList: List<GraphicOverlay.Graphic>
+    try {
+      if (originalCameraImage != null) {
+        graphicOverlay.add(CameraImageGraphic(graphicOverlay, originalCameraImage))
+      }
+      onSuccess(results, graphicOverlay)
+      if (!preferences.get().shouldHideDetectionInfo) {
+        graphicOverlay.add(
+          InferenceInfoGraphic(
+            graphicOverlay,
+            currentFrameLatencyMs,
+            currentDetectorLatencyMs,
+            if (shouldShowFps) framesPerSecond else null
+          )
+        )
+      }
+    } finally {
+      renderList = graphicOverlay.endFrame()
+    }
+    // Not on the scoped executor, which would drop the frame after stop() without releasing its
+    // pooled bitmaps. stop() runs on the main thread too, so the check can't race with it.
+    TaskExecutors.MAIN_THREAD.execute {
+      if (isShutdown) {
+        graphicOverlay.discard(renderList)
+      } else {
+        graphicOverlay.show(renderList)
+      }
+    }
+  }
+
+  private fun deliverFailure(
+    e: Exception,
+    graphicOverlay: GraphicOverlay,
+    originalCameraImage: Bitmap?
+  ) {
+    BitmapPool.release(originalCameraImage)
+    val error = "Failed to process. Error: " + e.localizedMessage
+    executor.execute {
+      graphicOverlay.clear()
+      Toast.makeText(
+          graphicOverlay.context,
+          """
+      $error
+      Cause: ${e.cause}
+      """.trimIndent(),
+          Toast.LENGTH_SHORT
+        )
+        .show()
+    }
+    Log.d(TAG, error)
+    e.printStackTrace()
+    onFailure(e)
+  }
+
+  /**
+   * Returns whether a live frame is left out to run detection less often, as the thermal level
+   * asks.
+   */
+  private fun shouldSkipLiveFrame(): Boolean {
+    val stride = thermalLevel.detectionStride
+    if (stride == 1) {
+      return false
+    }
+    liveFrameCount = (liveFrameCount + 1) % stride
+    return liveFrameCount != 0
+  }
+
+  private fun updateThermalLevel(level: ThermalThrottle.Level) {
+    if (level != thermalLevel) {
+      thermalLevel = level
+      onThermalLevelChanged(level)
+    }
+  }
+
+  /**
+   * Called on the result thread when the thermal level changes, for processors switching to a
+   * faster model while the device is hot.
+   */
+  protected open fun onThermalLevelChanged(level: ThermalThrottle.Level) {}
+
+  override fun setCaptureGovernor(governor: CaptureGovernor?) {
+    governor?.attach(maxFramesInFlight)
+    captureGovernor = governor
   }
 
   override fun stop() {
     executor.shutdown()
+    resultExecutor.shutdown()
+    resultThread.shutdown()
+    framePipeline.shutdown()
     isShutdown = true
     resetLatencyStats()
     fpsTimer.cancel()
+    temperatureMonitor.stop()
+    preferences.close()
   }
 
   private fun resetLatencyStats() {
@@ -33,10 +33,12 @@ class FaceMeshDetectorProcessor(context: Context) :
   VisionProcessorBase<List<FaceMesh>>(context) {
 
   private val detector: FaceMeshDetector
+  // Read once, the detector keeps this use case for its lifetime.
+  private val useCase = PreferenceUtils.getFaceMeshUseCase(context)
 
   init {
     val optionsBuilder = FaceMeshDetectorOptions.Builder()
-    if (PreferenceUtils.getFaceMeshUseCase(context) == FaceMeshDetectorOptions.BOUNDING_BOX_ONLY) {
+    if (useCase == FaceMeshDetectorOptions.BOUNDING_BOX_ONLY) {
       optionsBuilder.setUseCase(FaceMeshDetectorOptions.BOUNDING_BOX_ONLY)
     }
     detector = FaceMeshDetection.getClient(optionsBuilder.build())
@@ -53,7 +55,7 @@ class FaceMeshDetectorProcessor(context: Context) :
 
   override fun onSuccess(faces: List<FaceMesh>, graphicOverlay: GraphicOverlay) {
     for (face in faces) {
-      graphicOverlay.add(FaceMeshGraphic(graphicOverlay, face))
+      graphicOverlay.add(FaceMeshGraphic(graphicOverlay, face, useCase))
     }
   }
 
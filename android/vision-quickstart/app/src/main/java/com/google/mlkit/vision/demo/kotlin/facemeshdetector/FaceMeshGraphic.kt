@@ -21,7 +21,6 @@ import android.graphics.Paint
 import android.graphics.RectF
 import com.google.mlkit.vision.common.PointF3D
 import com.google.mlkit.vision.demo.GraphicOverlay
-import com.google.mlkit.vision.demo.preference.PreferenceUtils
 import com.google.mlkit.vision.facemesh.FaceMesh
 import com.google.mlkit.vision.facemesh.FaceMeshDetectorOptions
 import com.google.mlkit.vision.facemesh.FaceMeshPoint
@@ -30,12 +29,14 @@ import com.google.mlkit.vision.facemesh.FaceMeshPoint
  * Graphic instance for rendering face position and mesh info within the associated graphic overlay
  * view.
  */
-class FaceMeshGraphic(overlay: GraphicOverlay, private val faceMesh: FaceMesh) :
-  GraphicOverlay.Graphic(overlay) {
+class FaceMeshGraphic(
+  overlay: GraphicOverlay,
+  private val faceMesh: FaceMesh,
+  private val useCase: Int
+) : GraphicOverlay.Graphic(overlay) {
 
   private val positionPaint: Paint
   private val boxPaint: Paint
-  private val useCase: Int
   private var zMin: Float
   private var zMax: Float
 
@@ -155,7 +156,6 @@ class FaceMeshGraphic(overlay: GraphicOverlay, private val faceMesh: FaceMesh) :
     boxPaint.style = Paint.Style.STROKE
     boxPaint.strokeWidth = BOX_STROKE_WIDTH
 
-    useCase = PreferenceUtils.getFaceMeshUseCase(applicationContext)
     zMin = java.lang.Float.MAX_VALUE
     zMax = java.lang.Float.MIN_VALUE
   }
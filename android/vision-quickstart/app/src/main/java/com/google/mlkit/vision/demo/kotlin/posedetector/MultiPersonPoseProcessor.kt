@@ -0,0 +1,346 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.kotlin.posedetector
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Rect
+import android.os.SystemClock
+import android.util.Log
+import androidx.lifecycle.MutableLiveData
+import com.google.android.gms.tasks.Task
+import com.google.android.gms.tasks.Tasks
+import com.google.mlkit.common.MlKitException
+import com.google.mlkit.vision.common.InputImage
+import com.google.mlkit.vision.demo.BitmapPool
+import com.google.mlkit.vision.demo.BitmapUtils
+import com.google.mlkit.vision.demo.FrameMetadata
+import com.google.mlkit.vision.demo.FramePipeline.DropPolicy
+import com.google.mlkit.vision.demo.GraphicOverlay
+import com.google.mlkit.vision.demo.PoseAngleUtils
+import com.google.mlkit.vision.demo.ReferencePoseTrack
+import com.google.mlkit.vision.demo.TemporalPoseScorer
+import com.google.mlkit.vision.demo.kotlin.VisionProcessorBase
+import com.google.mlkit.vision.objects.DetectedObject
+import com.google.mlkit.vision.objects.ObjectDetection
+import com.google.mlkit.vision.objects.ObjectDetector
+import com.google.mlkit.vision.objects.ObjectDetectorOptionsBase
+import com.google.mlkit.vision.objects.defaults.ObjectDetectorOptions
+import com.google.mlkit.vision.pose.PoseDetection
+import com.google.mlkit.vision.pose.PoseDetector
+import com.google.mlkit.vision.pose.defaults.PoseDetectorOptions
+import java.io.IOException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.RejectedExecutionHandler
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Multi-person pose scoring.
+ *
+ * Scores everyone in front of the camera against the reference, for group classes.
+ *
+ * Each frame runs the object detector for the people in it, see [PersonTracker] for how they
+ * keep their ids across frames. Every tracked person is cropped out of the frame and runs pose
+ * detection and scoring on its own slot, with its own stream mode pose detector and
+ * [TemporalPoseScorer]. The slots run concurrently on a pool bounded to [maxPersons] threads.
+ * Without a [referenceTrack] people are scored against [PoseAngleUtils.referencePose].
+ *
+ * The default object detector finds at most five objects and has no person class, so it treats
+ * every object as a person. Pass [objectDetectorOptions] of a custom model and its [personLabel]
+ * to only take people.
+ *
+ * Frames are processed one at a time, see [FRAMES_IN_FLIGHT], so the tracker and slot state of
+ * a frame are only touched by its own tasks.
+ */
+class MultiPersonPoseProcessor(
+    context: Context,
+    private val referenceTrack: ReferencePoseTrack?,
+    private val playbackPositionMs: () -> Long,
+    private val maxPersons: Int = DEFAULT_MAX_PERSONS,
+    objectDetectorOptions: ObjectDetectorOptionsBase = DEFAULT_OBJECT_DETECTOR_OPTIONS,
+    private val personLabel: String? = null
+) : VisionProcessorBase<MultiPersonPoseProcessor.FrameScores>(
+    context,
+    FRAMES_IN_FLIGHT,
+    DropPolicy.LATEST_WINS
+) {
+
+    /** Score of one person in a frame, [points] are its 15 points in image coordinates. */
+    class PersonScore(
+        val personId: Int,
+        val box: Rect,
+        val points: FloatArray?,
+        val score: Double,
+        val lagMs: Long
+    )
+
+    /** Time from the start of a frame to the end of each stage, in milliseconds. */
+    class Latency(val detectionMs: Long, val poseMs: Long, val totalMs: Long)
+
+    /** Internal class to hold the scores of a frame until they are delivered. */
+    class FrameScores(
+        val persons: List<PersonScore>,
+        val frameStartMs: Long,
+        val detectionMs: Long,
+        val poseMs: Long
+    )
+
+    /** Scores of the people in the latest frame. */
+    val personScores = MutableLiveData<List<PersonScore>>()
+    /** Latency of the latest frame, up to its scores being delivered. */
+    val latency = MutableLiveData<Latency>()
+
+    private val objectDetector: ObjectDetector = ObjectDetection.getClient(objectDetectorOptions)
+    private val tracker = PersonTracker(maxPersons)
+    // Leave a core to the camera and the object detector.
+    private val poseThreads =
+        min(maxPersons, max(1, Runtime.getRuntime().availableProcessors() - 1))
+    private val poseExecutor = ThreadPoolExecutor(
+        poseThreads,
+        poseThreads,
+        0L,
+        TimeUnit.MILLISECONDS,
+        // A frame queues at most a detection and a scoring task per person.
+        ArrayBlockingQueue(2 * maxPersons),
+        // Like CallerRunsPolicy, but tasks rejected after stop() still run instead of being
+        // dropped, so the frames in flight complete and give their camera buffers back.
+        RejectedExecutionHandler { task, _ -> task.run() }
+    )
+    private val slots = Array(maxPersons) { Slot() }
+    @Volatile private var isStopped = false
+    // The caller's bitmap while processBitmap runs, only touched on the calling thread. InputImage
+    // has no public accessor for the bitmap it wraps.
+    private var stillImage: Bitmap? = null
+
+    /** Per person state, owned by whoever holds the slot in [tracker]. */
+    private inner class Slot {
+        val detector: PoseDetector = PoseDetection.getClient(
+            PoseDetectorOptions.Builder()
+                .setDetectorMode(PoseDetectorOptions.STREAM_MODE)
+                .setExecutor(poseExecutor)
+                .build()
+        )
+        val points = FloatArray(PoseAngleUtils.NUM_POINTS * 2)
+        val angles = DoubleArray(PoseAngleUtils.NUM_ANGLES)
+        var personId = 0
+        var positionMs = 0L
+        val scorer = referenceTrack?.let {
+            TemporalPoseScorer(it, playbackPositionMs = { positionMs })
+        }
+    }
+
+    override fun stop() {
+        isStopped = true
+        super.stop()
+        try {
+            objectDetector.close()
+        } catch (e: IOException) {
+            Log.e(TAG, "Exception thrown while trying to close object detector!", e)
+        }
+        for (slot in slots) {
+            slot.detector.close()
+        }
+        poseExecutor.shutdown()
+        tracker.clear()
+    }
+
+    override fun processBitmap(bitmap: Bitmap?, graphicOverlay: GraphicOverlay) {
+        // The base calls detectInImage before returning.
+        stillImage = bitmap
+        try {
+            super.processBitmap(bitmap, graphicOverlay)
+        } finally {
+            stillImage = null
+        }
+    }
+
+    override fun detectInImage(image: InputImage): Task<FrameScores> {
+        val frameStartMs = SystemClock.elapsedRealtime()
+        // The camera reuses its buffer once this returns, the crops are cut from a pooled copy.
+        val frame = toBitmap(image)
+            ?: return Tasks.forException(
+                MlKitException(
+                    "Image format ${image.format} is not supported for multi-person pose detection",
+                    MlKitException.INVALID_ARGUMENT
+                )
+            )
+        val positionMs = playbackPositionMs()
+        val frameScores = objectDetector.process(image).onSuccessTask(poseExecutor) { objects ->
+            if (isStopped) {
+                // The tracker and the pose detectors are closed, fail the frame to release it.
+                throw MlKitException("Processor is stopped", MlKitException.CANCELLED)
+            }
+            val detectionMs = SystemClock.elapsedRealtime() - frameStartMs
+            val boxes = ArrayList<Rect>(objects!!.size)
+            val trackingIds = ArrayList<Int?>(objects.size)
+            for (detectedObject in objects) {
+                val box = personBox(detectedObject, frame) ?: continue
+                boxes.add(box)
+                trackingIds.add(detectedObject.trackingId)
+            }
+            val persons = tracker.update(boxes, trackingIds)
+            val tasks = persons.map { scorePerson(it, frame, positionMs) }
+            Tasks.whenAllSuccess<PersonScore>(tasks).continueWith(poseExecutor) { scores ->
+                FrameScores(
+                    scores.result!!,
+                    frameStartMs,
+                    detectionMs,
+                    SystemClock.elapsedRealtime() - frameStartMs
+                )
+            }
+        }
+        if (image.format != InputImage.IMAGE_FORMAT_BITMAP) {
+            // The crops are copies, the pooled frame is done with once they are cut.
+            frameScores.addOnCompleteListener { BitmapPool.release(frame) }
+        }
+        return frameScores
+    }
+
+    /** Returns the frame to cut the crops from, from [BitmapPool] unless it is [stillImage]. */
+    private fun toBitmap(image: InputImage): Bitmap? {
+        return when (image.format) {
+            InputImage.IMAGE_FORMAT_NV21 -> {
+                val data = image.byteBuffer!!
+                val bitmap = BitmapUtils.getBitmap(
+                    data,
+                    FrameMetadata.Builder()
+                        .setWidth(image.width)
+                        .setHeight(image.height)
+                        .setRotation(image.rotationDegrees)
+                        .build()
+                )
+                // Leave the buffer as it was for the object detector.
+                data.rewind()
+                bitmap
+            }
+            // Frames of the Camera2 live preview, the object detector still reads the planes.
+            InputImage.IMAGE_FORMAT_YUV_420_888 ->
+                image.mediaImage?.let { BitmapUtils.getBitmap(it, image.rotationDegrees) }
+            InputImage.IMAGE_FORMAT_BITMAP -> stillImage
+            else -> null
+        }
+    }
+
+    /** Returns the box of [detectedObject] clipped to [frame], or null if it is not a person. */
+    private fun personBox(detectedObject: DetectedObject, frame: Bitmap): Rect? {
+        if (personLabel != null && detectedObject.labels.none { it.text == personLabel }) {
+            return null
+        }
+        val box = Rect(detectedObject.boundingBox)
+        if (!box.intersect(0, 0, frame.width, frame.height) ||
+            box.width() < MIN_PERSON_SIZE || box.height() < MIN_PERSON_SIZE
+        ) {
+            return null
+        }
+        return box
+    }
+
+    private fun scorePerson(
+        person: PersonTracker.Person,
+        frame: Bitmap,
+        positionMs: Long
+    ): Task<PersonScore> {
+        val slot = slots[person.slot]
+        if (slot.personId != person.id) {
+            slot.personId = person.id
+            slot.scorer?.reset()
+        }
+        val box = Rect(person.box)
+        // Pad the box so limbs cut off by a tight box are still in the crop.
+        val crop = Rect(box)
+        crop.inset(
+            -(box.width() * CROP_PADDING).toInt(),
+            -(box.height() * CROP_PADDING).toInt()
+        )
+        crop.intersect(0, 0, frame.width, frame.height)
+        val cropped = Bitmap.createBitmap(frame, crop.left, crop.top, crop.width(), crop.height())
+        return slot.detector.process(InputImage.fromBitmap(cropped, 0))
+            .continueWith(poseExecutor) { task ->
+                if (!task.isSuccessful) {
+                    Log.e(TAG, "Pose detection failed for person ${person.id}", task.exception)
+                    return@continueWith PersonScore(person.id, box, null, Double.NaN, 0L)
+                }
+                if (!PoseAngleUtils.googleTo15Point(task.result!!.allPoseLandmarks, slot.points)) {
+                    return@continueWith PersonScore(person.id, box, null, Double.NaN, 0L)
+                }
+                for (i in 0 until PoseAngleUtils.NUM_POINTS) {
+                    slot.points[2 * i] += crop.left
+                    slot.points[2 * i + 1] += crop.top
+                }
+                PoseAngleUtils.getPoseAngles(slot.points, slot.angles)
+                var score = Double.NaN
+                var lagMs = 0L
+                val scorer = slot.scorer
+                if (scorer != null) {
+                    slot.positionMs = positionMs
+                    if (scorer.addFrame(slot.angles)) {
+                        score = scorer.score
+                        lagMs = scorer.lagMs
+                    }
+                } else {
+                    val referencePose = PoseAngleUtils.referencePose
+                    if (!referencePose.isEmpty()) {
+                        score = referencePose.getScore(slot.angles)
+                    }
+                }
+                PersonScore(person.id, box, slot.points.copyOf(), score, lagMs)
+            }
+    }
+
+    override fun onSuccess(results: FrameScores, graphicOverlay: GraphicOverlay) {
+        for (person in results.persons) {
+            graphicOverlay.add(PersonPoseGraphic(graphicOverlay, person))
+        }
+        personScores.postValue(results.persons)
+        latency.postValue(
+            Latency(
+                results.detectionMs,
+                results.poseMs,
+                SystemClock.elapsedRealtime() - results.frameStartMs
+            )
+        )
+    }
+
+    override fun onFailure(e: Exception) {
+        Log.e(TAG, "Multi-person pose detection failed!", e)
+    }
+
+    override fun isMlImageEnabled(context: Context?): Boolean {
+        // The crops are cut from the frame buffer, which an MlImage does not expose.
+        return false
+    }
+
+    companion object {
+        private const val TAG = "MultiPersonPoseProcessor"
+        const val DEFAULT_MAX_PERSONS = 6
+        // PersonTracker and the slots aren't thread-safe, the next frame may only start once the
+        // scores of the last one are delivered.
+        private const val FRAMES_IN_FLIGHT = 1
+        // Boxes smaller than this in either side are too far away for a usable pose.
+        private const val MIN_PERSON_SIZE = 32
+        private const val CROP_PADDING = 0.15f
+
+        private val DEFAULT_OBJECT_DETECTOR_OPTIONS: ObjectDetectorOptionsBase =
+            ObjectDetectorOptions.Builder()
+                .setDetectorMode(ObjectDetectorOptions.STREAM_MODE)
+                .enableMultipleObjects()
+                .build()
+    }
+}
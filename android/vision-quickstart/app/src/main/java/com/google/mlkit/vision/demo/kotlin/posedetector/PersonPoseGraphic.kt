@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.kotlin.posedetector
+
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.Paint
+import android.graphics.RectF
+import com.google.mlkit.vision.demo.GraphicOverlay
+import com.google.mlkit.vision.demo.GraphicOverlay.Graphic
+import kotlin.math.max
+import kotlin.math.min
+
+/** Draw the box, id, score and 15 point skeleton of a tracked person in preview. */
+class PersonPoseGraphic
+internal constructor(
+  overlay: GraphicOverlay,
+  private val person: MultiPersonPoseProcessor.PersonScore
+) : Graphic(overlay) {
+  private val paint = Paint()
+  private val textPaint = Paint()
+
+  init {
+    paint.color = COLORS[person.personId % COLORS.size]
+    paint.strokeWidth = STROKE_WIDTH
+    paint.style = Paint.Style.STROKE
+    textPaint.color = paint.color
+    textPaint.textSize = TEXT_SIZE
+    textPaint.setShadowLayer(5.0f, 0f, 0f, Color.BLACK)
+  }
+
+  override fun draw(canvas: Canvas) {
+    val rect = RectF(person.box)
+    val x0 = translateX(rect.left)
+    val x1 = translateX(rect.right)
+    rect.left = min(x0, x1)
+    rect.right = max(x0, x1)
+    rect.top = translateY(rect.top)
+    rect.bottom = translateY(rect.bottom)
+    canvas.drawRect(rect, paint)
+
+    val label =
+      if (person.score.isNaN()) "#${person.personId}"
+      else "#${person.personId}: ${person.score.toInt()}"
+    canvas.drawText(label, rect.left, rect.top - STROKE_WIDTH, textPaint)
+
+    val points = person.points ?: return
+    for (i in BONES.indices step 2) {
+      val start = BONES[i]
+      val end = BONES[i + 1]
+      canvas.drawLine(
+        translateX(points[2 * start]),
+        translateY(points[2 * start + 1]),
+        translateX(points[2 * end]),
+        translateY(points[2 * end + 1]),
+        paint
+      )
+    }
+  }
+
+  companion object {
+    private const val STROKE_WIDTH = 6.0f
+    private const val TEXT_SIZE = 54.0f
+    private val COLORS =
+      intArrayOf(Color.GREEN, Color.YELLOW, Color.CYAN, Color.MAGENTA, Color.RED, Color.BLUE)
+    // Pairs of connected points of PoseAngleUtils.googleTo15Point.
+    private val BONES = intArrayOf(
+      0, 1, 1, 2, 2, 3, 3, 4, 1, 5, 5, 6, 6, 7,
+      1, 14, 14, 8, 8, 9, 9, 10, 14, 11, 11, 12, 12, 13
+    )
+  }
+}
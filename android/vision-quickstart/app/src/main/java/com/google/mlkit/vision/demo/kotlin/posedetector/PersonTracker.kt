@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.kotlin.posedetector
+
+import android.graphics.Rect
+
+/**
+ * Keeps stable ids for the people in front of the camera across frames.
+ *
+ * A detection is matched to a person by the tracking id of the object detector when it has one,
+ * otherwise by the overlap of its box with the last box of the person. Every person holds one
+ * of [maxPersons] slots until it has been missed for more than [maxMissedFrames] frames, so per
+ * person resources can be kept in arrays indexed by [Person.slot]. Not thread safe.
+ */
+class PersonTracker(
+    val maxPersons: Int,
+    private val maxMissedFrames: Int = DEFAULT_MAX_MISSED_FRAMES,
+    private val minIou: Float = DEFAULT_MIN_IOU
+) {
+
+    /** A tracked person, [box] is its box in the latest frame it was seen in. */
+    class Person internal constructor(val id: Int, val slot: Int) {
+        val box = Rect()
+        internal var trackingId: Int? = null
+        internal var missedFrames = 0
+    }
+
+    private val persons = arrayOfNulls<Person>(maxPersons)
+    private var nextId = 1
+
+    /**
+     * Matches the detections of a frame to the tracked people.
+     *
+     * @param boxes boxes of the detections, in image coordinates.
+     * @param trackingIds tracking ids of the detections, null where the detector has none.
+     * @return the people seen in this frame. Detections left over when all slots are taken are
+     *     dropped, larger boxes win a free slot first.
+     */
+    fun update(boxes: List<Rect>, trackingIds: List<Int?>): List<Person> {
+        val matches = arrayOfNulls<Person>(boxes.size)
+        val matched = BooleanArray(maxPersons)
+
+        for (i in boxes.indices) {
+            val trackingId = trackingIds[i] ?: continue
+            for (slot in 0 until maxPersons) {
+                val person = persons[slot]
+                if (person != null && !matched[slot] && person.trackingId == trackingId) {
+                    matches[i] = person
+                    matched[slot] = true
+                    break
+                }
+            }
+        }
+
+        // Greedily pair the remaining detections and people by the largest overlap.
+        while (true) {
+            var bestIou = minIou
+            var bestBox = -1
+            var bestSlot = -1
+            for (i in boxes.indices) {
+                if (matches[i] != null) continue
+                for (slot in 0 until maxPersons) {
+                    val person = persons[slot]
+                    if (person == null || matched[slot]) continue
+                    val iou = iou(boxes[i], person.box)
+                    if (iou >= bestIou) {
+                        bestIou = iou
+                        bestBox = i
+                        bestSlot = slot
+                    }
+                }
+            }
+            if (bestBox < 0) break
+            matches[bestBox] = persons[bestSlot]
+            matched[bestSlot] = true
+        }
+
+        for (slot in 0 until maxPersons) {
+            val person = persons[slot] ?: continue
+            if (!matched[slot] && ++person.missedFrames > maxMissedFrames) {
+                persons[slot] = null
+            }
+        }
+
+        val unmatched = boxes.indices.filter { matches[it] == null }
+            .sortedByDescending { boxes[it].width().toLong() * boxes[it].height() }
+        for (i in unmatched) {
+            val slot = persons.indexOfFirst { it == null }
+            if (slot < 0) break
+            val person = Person(nextId++, slot)
+            persons[slot] = person
+            matches[i] = person
+        }
+
+        val seen = ArrayList<Person>(boxes.size)
+        for (i in boxes.indices) {
+            val person = matches[i] ?: continue
+            person.box.set(boxes[i])
+            person.trackingId = trackingIds[i]
+            person.missedFrames = 0
+            seen.add(person)
+        }
+        return seen
+    }
+
+    /** Forgets all people, e.g. when the camera is switched. */
+    fun clear() {
+        persons.fill(null)
+    }
+
+    private fun iou(a: Rect, b: Rect): Float {
+        val width = minOf(a.right, b.right) - maxOf(a.left, b.left)
+        val height = minOf(a.bottom, b.bottom) - maxOf(a.top, b.top)
+        if (width <= 0 || height <= 0) return 0f
+        val intersection = width.toFloat() * height
+        val union =
+            a.width().toFloat() * a.height() + b.width().toFloat() * b.height() - intersection
+        return intersection / union
+    }
+
+    companion object {
+        // About half a second at camera frame rates.
+        const val DEFAULT_MAX_MISSED_FRAMES = 15
+        const val DEFAULT_MIN_IOU = 0.3f
+    }
+}
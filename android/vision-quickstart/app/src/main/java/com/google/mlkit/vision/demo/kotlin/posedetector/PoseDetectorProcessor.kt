@@ -22,14 +22,21 @@ import androidx.lifecycle.MutableLiveData
 import com.google.android.gms.tasks.Task
 import com.google.android.odml.image.MlImage
 import com.google.mlkit.vision.common.InputImage
+import com.google.mlkit.vision.demo.FramePipeline.DropPolicy
 import com.google.mlkit.vision.demo.PoseAngleUtils
 import com.google.mlkit.vision.demo.GraphicOverlay
+import com.google.mlkit.vision.demo.ReferencePose
+import com.google.mlkit.vision.demo.TemporalPoseScorer
+import com.google.mlkit.vision.demo.ThermalThrottle
 import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierProcessor
 import com.google.mlkit.vision.demo.kotlin.VisionProcessorBase
+import com.google.mlkit.vision.demo.preference.PreferenceUtils
 import com.google.mlkit.vision.pose.Pose
 import com.google.mlkit.vision.pose.PoseDetection
 import com.google.mlkit.vision.pose.PoseDetector
 import com.google.mlkit.vision.pose.PoseDetectorOptionsBase
+import com.google.mlkit.vision.pose.accurate.AccuratePoseDetectorOptions
+import com.google.mlkit.vision.pose.defaults.PoseDetectorOptions
 import java.util.concurrent.Executor
 import java.util.concurrent.Executors
 
@@ -42,11 +49,31 @@ class PoseDetectorProcessor(
     private val rescaleZForVisualization: Boolean,
     private val runClassification: Boolean,
     private val isStreamMode: Boolean
-) : VisionProcessorBase<Pose>(context) {
+) : VisionProcessorBase<Pose>(context, FRAMES_IN_FLIGHT, DropPolicy.LATEST_WINS) {
 
     private val detector: PoseDetector
+    // Base model options to fall back to while the device is hot, null without an accurate model.
+    private val fastDetectorOptions: PoseDetectorOptions?
+    // Created the first time the device gets hot. Both guarded by this, so it isn't created after
+    // the detectors are closed.
+    private var fastDetector: PoseDetector? = null
+    private var isStopped = false
+    // The detector frames are sent to.
+    @Volatile private var activeDetector: PoseDetector
     private val classificationExecutor: Executor
     val score = MutableLiveData<Double>()
+    /** Estimated lag behind the reference video, only posted with a [temporalPoseScorer]. */
+    val lagMs = MutableLiveData<Long>()
+
+    /**
+     * When set, stream mode scores against its reference track with lag tolerance instead of
+     * against [PoseAngleUtils.referencePose]. Only used in [onSuccess].
+     */
+    var temporalPoseScorer: TemporalPoseScorer? = null
+
+    // Scoring buffers reused across frames, only touched in onSuccess.
+    private val posePoints = FloatArray(PoseAngleUtils.NUM_POINTS * 2)
+    private val poseAngles = DoubleArray(PoseAngleUtils.NUM_ANGLES)
 
     private var poseClassifierProcessor: PoseClassifierProcessor? = null
 
@@ -55,54 +82,86 @@ class PoseDetectorProcessor(
 
     init {
         detector = PoseDetection.getClient(options)
+        activeDetector = detector
+        fastDetectorOptions =
+            if (options is AccuratePoseDetectorOptions) {
+                createFastDetectorOptions(context, isStreamMode)
+            } else {
+                null
+            }
         classificationExecutor = Executors.newSingleThreadExecutor()
     }
 
     override fun stop() {
         super.stop()
+        closeDetectors()
+    }
+
+    @Synchronized
+    private fun closeDetectors() {
+        isStopped = true
         detector.close()
+        fastDetector?.close()
+    }
+
+    @Synchronized
+    override fun onThermalLevelChanged(level: ThermalThrottle.Level) {
+        val options = fastDetectorOptions ?: return
+        if (isStopped) {
+            return
+        }
+        activeDetector =
+            if (level.preferFastModel) {
+                fastDetector ?: PoseDetection.getClient(options).also { fastDetector = it }
+            } else {
+                detector
+            }
     }
 
     override fun detectInImage(image: InputImage): Task<Pose> {
-        return detector.process(image)
+        return activeDetector.process(image)
     }
 
     override fun detectInImage(image: MlImage): Task<Pose> {
-        return detector.process(image)
+        return activeDetector.process(image)
     }
 
     override fun onSuccess(
         pose: Pose,
         graphicOverlay: GraphicOverlay
     ) {
+        // Likelihood labels and depth colors cost the most to draw.
+        val reduceOverlays = thermalLevel.reduceOverlays
         graphicOverlay.add(
             PoseGraphic(
                 graphicOverlay,
                 pose,
-                showInFrameLikelihood,
-                visualizeZ,
-                rescaleZForVisualization)
+                showInFrameLikelihood && !reduceOverlays,
+                visualizeZ && !reduceOverlays,
+                rescaleZForVisualization && !reduceOverlays)
         )
 
-        val allPoseLandmarks = pose.allPoseLandmarks
         //左边：140.99289:147.85149---右边：121.878944:196.83575
         //左边：140.8273:39.963863---右边：113.53857:108.80207
-        if (allPoseLandmarks.size >= 33) {
-            val referencePoint = PoseAngleUtils.googleTo15Point(allPoseLandmarks)
+        if (PoseAngleUtils.googleTo15Point(pose.allPoseLandmarks, posePoints)) {
             if (isStreamMode) {
-                val start = System.currentTimeMillis()
-                Log.d(TAG, "onSuccess: ")
-                score.postValue(
-                    PoseAngleUtils.getPoseScoreAngle(
-                        PoseAngleUtils.trunkPoseAngles,
-                        PoseAngleUtils.getPoseAngles(referencePoint)
-                    )
-                )
-                Log.d(TAG, "onSuccess time: ${System.currentTimeMillis() - start}")
+                PoseAngleUtils.getPoseAngles(posePoints, poseAngles)
+                val scorer = temporalPoseScorer
+                if (scorer != null) {
+                    if (scorer.addFrame(poseAngles)) {
+                        score.postValue(scorer.score)
+                        lagMs.postValue(scorer.lagMs)
+                    }
+                } else {
+                    val referencePose = PoseAngleUtils.referencePose
+                    // Nothing to compare with until the first reference pose is set.
+                    if (!referencePose.isEmpty()) {
+                        score.postValue(referencePose.getScore(poseAngles))
+                    }
+                }
             } else {
-                PoseAngleUtils.setCurrentPoint(PoseAngleUtils.googleTo15Point(allPoseLandmarks))
+                PoseAngleUtils.referencePose = ReferencePose.fromPoints(posePoints)
             }
-//        }
         }
     }
 
@@ -117,5 +176,22 @@ class PoseDetectorProcessor(
 
     companion object {
         private val TAG = "PoseDetectorProcessor"
+
+        private fun createFastDetectorOptions(
+            context: Context,
+            isStreamMode: Boolean
+        ): PoseDetectorOptions {
+            val detectorMode =
+                if (isStreamMode) PoseDetectorOptions.STREAM_MODE
+                else PoseDetectorOptions.SINGLE_IMAGE_MODE
+            val builder = PoseDetectorOptions.Builder().setDetectorMode(detectorMode)
+            if (PreferenceUtils.preferGPUForPoseDetection(context)) {
+                builder.setPreferredHardwareConfigs(PoseDetectorOptions.CPU_GPU)
+            }
+            return builder.build()
+        }
+        // The detector already works on the next frame while the results of one are drawn. Poses
+        // are detected in frame order and delivered in order, so the scorers see them in order.
+        private const val FRAMES_IN_FLIGHT = 2
     }
 }
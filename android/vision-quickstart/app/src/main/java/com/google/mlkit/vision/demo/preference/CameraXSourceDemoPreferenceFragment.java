@@ -38,6 +38,15 @@ public class CameraXSourceDemoPreferenceFragment extends CameraXLivePreviewPrefe
 
     preferenceCategory.removePreference(
         findPreference(getString(R.string.pref_key_camera_live_viewport)));
+    // CameraXSource sets up its own image analysis.
+    preferenceCategory.removePreference(
+        findPreference(getString(R.string.pref_key_camerax_backpressure_strategy)));
+    preferenceCategory.removePreference(
+        findPreference(getString(R.string.pref_key_camerax_output_image_format)));
+    preferenceCategory.removePreference(
+        findPreference(getString(R.string.pref_key_capture_governor)));
+    preferenceCategory.removePreference(
+        findPreference(getString(R.string.pref_key_thermal_throttle)));
     // Remove the PreferenceCategories for hiding camera detection info.
     preferenceScreen.removePreference(preferenceScreen.getPreference(1));
 
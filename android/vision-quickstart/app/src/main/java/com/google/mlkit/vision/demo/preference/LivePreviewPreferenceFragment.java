@@ -48,6 +48,10 @@ public class LivePreviewPreferenceFragment extends PreferenceFragment {
         findPreference(getString(R.string.pref_key_camerax_rear_camera_target_resolution)));
     cameraPreference.removePreference(
         findPreference(getString(R.string.pref_key_camerax_front_camera_target_resolution)));
+    cameraPreference.removePreference(
+        findPreference(getString(R.string.pref_key_camerax_backpressure_strategy)));
+    cameraPreference.removePreference(
+        findPreference(getString(R.string.pref_key_camerax_output_image_format)));
     setUpCameraPreviewSizePreference(
         R.string.pref_key_rear_camera_preview_size,
         R.string.pref_key_rear_camera_picture_size,
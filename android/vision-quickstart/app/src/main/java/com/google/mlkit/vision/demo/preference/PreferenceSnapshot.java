@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.preference;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.preference.PreferenceManager;
+
+/**
+ * Immutable snapshot of the preferences read on every frame, so the hot path reads plain fields
+ * instead of looking up shared preferences. Use a {@link Tracker} to keep one current.
+ */
+public final class PreferenceSnapshot {
+
+  /** See {@link PreferenceUtils#isCameraLiveViewportEnabled}. */
+  public final boolean isCameraLiveViewportEnabled;
+  /** See {@link PreferenceUtils#shouldHideDetectionInfo}. */
+  public final boolean shouldHideDetectionInfo;
+
+  private PreferenceSnapshot(Context context) {
+    isCameraLiveViewportEnabled = PreferenceUtils.isCameraLiveViewportEnabled(context);
+    shouldHideDetectionInfo = PreferenceUtils.shouldHideDetectionInfo(context);
+  }
+
+  /**
+   * Keeps a {@link PreferenceSnapshot} current. The snapshot is read once on creation and again
+   * only when a preference changes. Call {@link #close} when done.
+   */
+  public static final class Tracker implements OnSharedPreferenceChangeListener {
+    private final Context context;
+    private final SharedPreferences sharedPreferences;
+    private volatile PreferenceSnapshot snapshot;
+
+    public Tracker(Context context) {
+      this.context = context.getApplicationContext();
+      sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this.context);
+      snapshot = new PreferenceSnapshot(this.context);
+      // Shared preferences only keep a weak reference to the listener, the owner keeps this alive.
+      sharedPreferences.registerOnSharedPreferenceChangeListener(this);
+    }
+
+    /** Returns the current snapshot, read it once per frame. */
+    public PreferenceSnapshot get() {
+      return snapshot;
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+      snapshot = new PreferenceSnapshot(context);
+    }
+
+    public void close() {
+      sharedPreferences.unregisterOnSharedPreferenceChangeListener(this);
+    }
+  }
+}
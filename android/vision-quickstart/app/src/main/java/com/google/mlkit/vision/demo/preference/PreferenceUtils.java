@@ -24,6 +24,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.annotation.StringRes;
 import androidx.camera.core.CameraSelector;
+import androidx.camera.core.ImageAnalysis;
 import com.google.android.gms.common.images.Size;
 import com.google.common.base.Preconditions;
 import com.google.mlkit.common.model.LocalModel;
@@ -94,6 +95,20 @@ public class PreferenceUtils {
     }
   }
 
+  public static int getCameraXBackpressureStrategy(Context context) {
+    return getModeTypePreferenceValue(
+        context,
+        R.string.pref_key_camerax_backpressure_strategy,
+        ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST);
+  }
+
+  public static int getCameraXOutputImageFormat(Context context) {
+    return getModeTypePreferenceValue(
+        context,
+        R.string.pref_key_camerax_output_image_format,
+        ImageAnalysis.OUTPUT_IMAGE_FORMAT_YUV_420_888);
+  }
+
   public static boolean shouldHideDetectionInfo(Context context) {
     SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
     String prefKey = context.getString(R.string.pref_key_info_hide);
@@ -360,6 +375,24 @@ public class PreferenceUtils {
     return sharedPreferences.getBoolean(prefKey, false);
   }
 
+  public static boolean isCamera2BackendEnabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_camera2_backend);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static boolean isCaptureGovernorEnabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_capture_governor);
+    return sharedPreferences.getBoolean(prefKey, true);
+  }
+
+  public static boolean isThermalThrottleEnabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_thermal_throttle);
+    return sharedPreferences.getBoolean(prefKey, true);
+  }
+
   public static int getFaceMeshUseCase(Context context) {
     SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
     String prefKey = context.getString(R.string.pref_key_face_mesh_use_case);
@@ -17,18 +17,20 @@
 package com.google.mlkit.vision.demo.video;
 
 import android.content.Context;
-import android.graphics.PointF;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.google.android.gms.tasks.Task;
 import com.google.android.odml.image.MlImage;
-import com.google.gson.Gson;
 import com.google.mlkit.vision.common.InputImage;
 import com.google.mlkit.vision.demo.PoseAngleUtils;
 import com.google.mlkit.vision.demo.GraphicOverlay;
+import com.google.mlkit.vision.demo.ReferencePose;
 import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierProcessor;
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierRegistry;
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseSampleIndex;
 import com.google.mlkit.vision.demo.kotlin.posedetector.PoseGraphic;
 import com.google.mlkit.vision.pose.Pose;
 import com.google.mlkit.vision.pose.PoseDetection;
@@ -37,10 +39,8 @@ import com.google.mlkit.vision.pose.PoseDetectorOptionsBase;
 import com.google.mlkit.vision.pose.PoseLandmark;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
@@ -51,7 +51,6 @@ import java.util.concurrent.Executors;
 public class PoseDetectorVideoProcessor
         extends VisionVideoProcessorBase<PoseDetectorVideoProcessor.PoseWithClassification> {
     private static final String TAG = "PoseDetectorProcessor";
-    public LinkedHashMap<Long, List<PointF>> savePose = new LinkedHashMap<>();
 
     private final PoseDetector detector;
 
@@ -60,9 +59,13 @@ public class PoseDetectorVideoProcessor
     private final boolean rescaleZForVisualization;
     private final boolean runClassification;
     private final boolean isStreamMode;
-    private final Context context;
     private final Executor classificationExecutor;
+    // Completes once the shared pose samples are loaded, null if classification is off.
+    @Nullable
+    private final Task<PoseSampleIndex> poseSamplesReady;
 
+    // stop() may be called more than once, but the samples must only be released once.
+    private boolean poseSamplesAcquired;
     private PoseClassifierProcessor poseClassifierProcessor;
 
     /**
@@ -101,14 +104,27 @@ public class PoseDetectorVideoProcessor
         detector = PoseDetection.getClient(options);
         this.runClassification = runClassification;
         this.isStreamMode = isStreamMode;
-        this.context = context;
         classificationExecutor = Executors.newSingleThreadExecutor();
+        poseSamplesReady = runClassification ? PoseClassifierRegistry.acquire(context) : null;
+        poseSamplesAcquired = runClassification;
     }
 
     @Override
     public void stop() {
         super.stop();
         detector.close();
+        stopRecording();
+        // The classifier processor is only touched on classificationExecutor.
+        classificationExecutor.execute(
+                () -> {
+                    if (poseClassifierProcessor != null) {
+                        poseClassifierProcessor.close();
+                    }
+                });
+        if (poseSamplesAcquired) {
+            poseSamplesAcquired = false;
+            PoseClassifierRegistry.release();
+        }
     }
 
     @Override
@@ -119,14 +135,7 @@ public class PoseDetectorVideoProcessor
                         classificationExecutor,
                         task -> {
                             Pose pose = task.getResult();
-                            List<String> classificationResult = new ArrayList<>();
-                            if (runClassification) {
-                                if (poseClassifierProcessor == null) {
-                                    poseClassifierProcessor = new PoseClassifierProcessor(context, isStreamMode);
-                                }
-                                classificationResult = poseClassifierProcessor.getPoseResult(pose);
-                            }
-                            return new PoseDetectorVideoProcessor.PoseWithClassification(pose, classificationResult);
+                            return new PoseDetectorVideoProcessor.PoseWithClassification(pose, classify(pose));
                         });
     }
 
@@ -138,18 +147,30 @@ public class PoseDetectorVideoProcessor
                         classificationExecutor,
                         task -> {
                             Pose pose = task.getResult();
-                            List<String> classificationResult = new ArrayList<>();
-                            if (runClassification) {
-                                if (poseClassifierProcessor == null) {
-                                    poseClassifierProcessor = new PoseClassifierProcessor(context, isStreamMode);
-                                }
-                                classificationResult = poseClassifierProcessor.getPoseResult(pose);
-                            }
-                            return new PoseDetectorVideoProcessor.PoseWithClassification(pose, classificationResult);
+                            return new PoseDetectorVideoProcessor.PoseWithClassification(pose, classify(pose));
                         });
     }
 
-    Gson go = new Gson();
+    // Runs on classificationExecutor. Frames arriving before the pose samples are ready are
+    // shown without classification rather than being blocked.
+    private List<String> classify(Pose pose) {
+        if (!runClassification) {
+            return new ArrayList<>();
+        }
+        if (poseClassifierProcessor == null) {
+            if (!poseSamplesReady.isSuccessful()) {
+                return new ArrayList<>();
+            }
+            poseClassifierProcessor =
+                    new PoseClassifierProcessor(poseSamplesReady.getResult(), isStreamMode);
+        }
+        return poseClassifierProcessor.getPoseResult(pose);
+    }
+
+    // Only touched on the main thread.
+    @Nullable
+    private PoseKeyframeRecorder keyframeRecorder;
+    private final float[] referencePoints = new float[PoseAngleUtils.NUM_POINTS * 2];
 
     @Override
     protected void onSuccess(
@@ -163,23 +184,28 @@ public class PoseDetectorVideoProcessor
                         visualizeZ,
                         rescaleZForVisualization));
         List<PoseLandmark> allPoseLandmarks = poseWithClassification.pose.getAllPoseLandmarks();
-        if (allPoseLandmarks.size() >= 33) {
-            ArrayList<PointF> referencePoint = PoseAngleUtils.INSTANCE.googleTo15Point(allPoseLandmarks);
-            if (isSave) {
-                savePose.put(timeKey, referencePoint);
-                Log.d(TAG, "onSuccess: " + go.toJson(savePose));
+        if (PoseAngleUtils.INSTANCE.googleTo15Point(allPoseLandmarks, referencePoints)) {
+            if (isSave && keyframeRecorder != null) {
+                keyframeRecorder.append(timeKey, referencePoints);
             }
-            PoseAngleUtils.INSTANCE.setCurrentPoint(referencePoint);
+            PoseAngleUtils.INSTANCE.setReferencePose(ReferencePose.fromPoints(referencePoints));
         }
     }
 
-    public void saveToJson(String path) throws IOException {
-        File file = new File("/sdcard/DCIM" , path);
-        FileOutputStream stream = new FileOutputStream(file);
-        try {
-            stream.write(go.toJson(savePose).getBytes());
-        } finally {
-            stream.close();
+    /**
+     * Starts recording the reference pose of every frame flagged with {@code isSave} to
+     * {@code file}, replacing any recording in progress. See {@link PoseKeyframes} to read it.
+     */
+    public void startRecording(File file) throws IOException {
+        stopRecording();
+        keyframeRecorder = new PoseKeyframeRecorder(file);
+    }
+
+    /** Finishes the recording in progress, if any. */
+    public void stopRecording() {
+        if (keyframeRecorder != null) {
+            keyframeRecorder.close();
+            keyframeRecorder = null;
         }
     }
 
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.video;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Records reference pose keyframes extracted from a video to a file as they arrive.
+ *
+ * <p>Each keyframe is appended as one line {@code timeKey,x0,y0,x1,y1,...} and flushed to the
+ * file right away, so the cost of a keyframe doesn't grow with the recording and the keyframes
+ * recorded so far survive if the app dies. Writes happen on a background thread. Use
+ * {@link PoseKeyframes#read} to read a recording back, it ignores a line cut off by a crash.
+ */
+public class PoseKeyframeRecorder implements Closeable {
+    private static final String TAG = "PoseKeyframeRecorder";
+
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+    private final FileOutputStream outputStream;
+    private final Writer writer;
+    // Only touched on writeExecutor.
+    private final StringBuilder line = new StringBuilder();
+    private boolean failed;
+
+    /** Starts a new recording, replacing {@code file} if it exists. */
+    public PoseKeyframeRecorder(File file) throws IOException {
+        outputStream = new FileOutputStream(file);
+        writer = new BufferedWriter(
+                new OutputStreamWriter(outputStream, Charset.forName("UTF-8")));
+    }
+
+    /**
+     * Appends the keyframe at {@code timeKey}. Doesn't block on the file.
+     *
+     * @param points x, y pairs of the points, as written by {@code PoseAngleUtils.googleTo15Point}.
+     */
+    public void append(long timeKey, float[] points) {
+        float[] coordinates = points.clone();
+        writeExecutor.execute(() -> write(timeKey, coordinates));
+    }
+
+    private void write(long timeKey, float[] coordinates) {
+        if (failed) {
+            return;
+        }
+        line.setLength(0);
+        line.append(timeKey);
+        for (float coordinate : coordinates) {
+            line.append(',').append(coordinate);
+        }
+        line.append('\n');
+        try {
+            writer.write(line.toString());
+            // Hand the line over to the OS, so it is kept even if the app dies.
+            writer.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to record keyframe at " + timeKey, e);
+            failed = true;
+        }
+    }
+
+    /** Syncs and closes the file once the pending keyframes are written. Doesn't block. */
+    @Override
+    public void close() {
+        writeExecutor.execute(() -> {
+            try {
+                writer.flush();
+                outputStream.getFD().sync();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to sync keyframes", e);
+            } finally {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to close keyframes", e);
+                }
+            }
+        });
+        writeExecutor.shutdown();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.video;
+
+import android.graphics.PointF;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Reference pose keyframes as recorded by {@link PoseKeyframeRecorder}, kept in primitive arrays.
+ *
+ * <p>Keyframes are sorted by time key. If a time key was recorded more than once, the last
+ * keyframe recorded for it wins.
+ */
+public final class PoseKeyframes {
+    private final long[] timeKeys;
+    // Point coordinates of all keyframes, pointsPerKeyframe x, y pairs per keyframe.
+    private final float[] coordinates;
+    private final int pointsPerKeyframe;
+
+    private PoseKeyframes(long[] timeKeys, float[] coordinates, int pointsPerKeyframe) {
+        this.timeKeys = timeKeys;
+        this.coordinates = coordinates;
+        this.pointsPerKeyframe = pointsPerKeyframe;
+    }
+
+    public static PoseKeyframes read(File file) throws IOException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return read(inputStream);
+        }
+    }
+
+    /**
+     * Reads a recording. A trailing line without a line break is skipped, as it may have been
+     * cut off when the app died while recording.
+     */
+    public static PoseKeyframes read(InputStream inputStream) throws IOException {
+        StringBuilder text = new StringBuilder();
+        Reader reader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
+        char[] buffer = new char[8192];
+        for (int read; (read = reader.read(buffer)) != -1; ) {
+            text.append(buffer, 0, read);
+        }
+
+        int numLines = 0;
+        int numFields = -1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                numLines++;
+            } else if (numLines == 0 && text.charAt(i) == ',') {
+                numFields = numFields < 0 ? 2 : numFields + 1;
+            }
+        }
+        if (numLines == 0) {
+            return new PoseKeyframes(new long[0], new float[0], 0);
+        }
+        if (numFields < 0 || numFields % 2 == 0) {
+            throw new IOException("Not a pose keyframe recording");
+        }
+        int pointsPerKeyframe = (numFields - 1) / 2;
+        int coordinatesPerKeyframe = pointsPerKeyframe * 2;
+
+        long[] timeKeys = new long[numLines];
+        float[] coordinates = new float[numLines * coordinatesPerKeyframe];
+        int lineStart = 0;
+        for (int keyframe = 0; keyframe < numLines; keyframe++) {
+            int lineEnd = text.indexOf("\n", lineStart);
+            int fieldStart = lineStart;
+            for (int field = 0; field < numFields; field++) {
+                int fieldEnd = field == numFields - 1 ? lineEnd : text.indexOf(",", fieldStart);
+                if (fieldEnd < 0 || fieldEnd > lineEnd) {
+                    throw new IOException("Malformed keyframe on line " + (keyframe + 1));
+                }
+                String value = text.substring(fieldStart, fieldEnd);
+                try {
+                    if (field == 0) {
+                        timeKeys[keyframe] = Long.parseLong(value);
+                    } else {
+                        coordinates[keyframe * coordinatesPerKeyframe + field - 1] =
+                                Float.parseFloat(value);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed keyframe on line " + (keyframe + 1), e);
+                }
+                fieldStart = fieldEnd + 1;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return sorted(timeKeys, coordinates, pointsPerKeyframe);
+    }
+
+    private static PoseKeyframes sorted(
+            long[] timeKeys, float[] coordinates, int pointsPerKeyframe) {
+        int numKeyframes = timeKeys.length;
+        int coordinatesPerKeyframe = pointsPerKeyframe * 2;
+        // Keyframes are recorded in playback order, so this is usually sorted already.
+        Integer[] order = new Integer[numKeyframes];
+        for (int i = 0; i < numKeyframes; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> timeKeys[a] != timeKeys[b]
+                ? Long.compare(timeKeys[a], timeKeys[b])
+                : Integer.compare(a, b));
+
+        long[] sortedTimeKeys = new long[numKeyframes];
+        float[] sortedCoordinates = new float[coordinates.length];
+        int size = 0;
+        for (int i = 0; i < numKeyframes; i++) {
+            int keyframe = order[i];
+            // Later duplicates overwrite earlier ones.
+            if (size == 0 || sortedTimeKeys[size - 1] != timeKeys[keyframe]) {
+                size++;
+            }
+            sortedTimeKeys[size - 1] = timeKeys[keyframe];
+            System.arraycopy(coordinates, keyframe * coordinatesPerKeyframe,
+                    sortedCoordinates, (size - 1) * coordinatesPerKeyframe,
+                    coordinatesPerKeyframe);
+        }
+        return new PoseKeyframes(
+                Arrays.copyOf(sortedTimeKeys, size),
+                Arrays.copyOf(sortedCoordinates, size * coordinatesPerKeyframe),
+                pointsPerKeyframe);
+    }
+
+    public int size() {
+        return timeKeys.length;
+    }
+
+    public int getPointsPerKeyframe() {
+        return pointsPerKeyframe;
+    }
+
+    public long getTimeKey(int keyframe) {
+        return timeKeys[keyframe];
+    }
+
+    public float getX(int keyframe, int point) {
+        return coordinates[(keyframe * pointsPerKeyframe + point) * 2];
+    }
+
+    public float getY(int keyframe, int point) {
+        return coordinates[(keyframe * pointsPerKeyframe + point) * 2 + 1];
+    }
+
+    /** Returns the points of a keyframe, as recorded from {@code PoseAngleUtils.googleTo15Point}. */
+    public ArrayList<PointF> getPoints(int keyframe) {
+        ArrayList<PointF> points = new ArrayList<>(pointsPerKeyframe);
+        for (int point = 0; point < pointsPerKeyframe; point++) {
+            points.add(new PointF(getX(keyframe, point), getY(keyframe, point)));
+        }
+        return points;
+    }
+}
@@ -28,11 +28,17 @@ import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 import com.google.mlkit.vision.pose.PoseDetectorOptionsBase;
 import com.google.mlkit.vision.pose.defaults.PoseDetectorOptions;
 
+import java.io.File;
+import java.io.IOException;
+
 public abstract class VideoBaseActivity extends Activity {
     private static final String TAG = VideoBaseActivity.class.getSimpleName();
 
     private static final int REQUEST_CHOOSE_VIDEO = 1001;
     private static final String SELFIE_POSE = "Pose";
+    // Reference pose keyframes extracted from the video, see PoseKeyframes. The processor is
+    // recreated on every resume, so each recording goes to a file of its own.
+    private static final String KEYFRAMES_DIRECTORY = "keyframes";
 
     private GraphicOverlay graphicOverlay;
     private ExoPlayer player;
@@ -224,6 +230,7 @@ public abstract class VideoBaseActivity extends Activity {
                             rescaleZ,
                             false,
                             /* isStreamMode = */ true);
+                    startRecording();
                     break;
                 default:
             }
@@ -237,6 +244,28 @@ public abstract class VideoBaseActivity extends Activity {
         }
     }
 
+    private void startRecording() {
+        File file = newKeyframesFile();
+        try {
+            imageProcessor.startRecording(file);
+            Log.i(TAG, "Recording keyframes to " + file);
+        } catch (IOException e) {
+            // Keep showing poses, only the reference keyframes are lost.
+            Log.e(TAG, "Can not record keyframes to " + file, e);
+        }
+    }
+
+    /** Returns a new file in the app's own storage, which needs no storage permission. */
+    private File newKeyframesFile() {
+        File directory = getExternalFilesDir(KEYFRAMES_DIRECTORY);
+        if (directory == null) {
+            // External storage isn't available, fall back to internal storage.
+            directory = new File(getFilesDir(), KEYFRAMES_DIRECTORY);
+            directory.mkdirs();
+        }
+        return new File(directory, "keyframes_" + System.currentTimeMillis() + ".csv");
+    }
+
     private void stopImageProcessor() {
         if (imageProcessor != null) {
             imageProcessor.stop();
@@ -16,8 +16,6 @@ import androidx.annotation.NonNull;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.Player;
 
-import java.io.IOException;
-
 public class VideoTextureViewActivity extends VideoBaseActivity implements TextureView.SurfaceTextureListener, Player.Listener {
     private static final String TAG = "VideoTextureViewActivit";
     private Long key = 0L;
@@ -68,11 +66,8 @@ public class VideoTextureViewActivity extends VideoBaseActivity implements Textu
     public void onPlaybackStateChanged(int playbackState) {
         if (playbackState == Player.STATE_ENDED) {
             Log.d(TAG, "onPlaybackStateChanged: 播放结束");
-            try {
-                imageProcessor.saveToJson("test001.json");
-            } catch (IOException e) {
-                Log.d(TAG, "onPlaybackStateChanged: " + e.getMessage());
-                e.printStackTrace();
+            if (imageProcessor != null) {
+                imageProcessor.stopRecording();
             }
         }
     }
@@ -44,13 +44,14 @@ import com.google.android.odml.image.MediaMlImageBuilder;
 import com.google.android.odml.image.MlImage;
 import com.google.mlkit.common.MlKitException;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.BitmapPool;
 import com.google.mlkit.vision.demo.BitmapUtils;
 import com.google.mlkit.vision.demo.CameraImageGraphic;
 import com.google.mlkit.vision.demo.FrameMetadata;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.InferenceInfoGraphic;
 import com.google.mlkit.vision.demo.ScopedExecutor;
-import com.google.mlkit.vision.demo.preference.PreferenceUtils;
+import com.google.mlkit.vision.demo.preference.PreferenceSnapshot;
 
 import java.nio.ByteBuffer;
 import java.util.Timer;
@@ -71,6 +72,8 @@ public abstract class VisionVideoProcessorBase<T> implements VisionVideoProcesso
     private final ActivityManager activityManager;
     private final Timer fpsTimer = new Timer();
     private final ScopedExecutor executor;
+    // Preferences read per frame, refreshed only when they change.
+    private final PreferenceSnapshot.Tracker preferences;
 
     private OnProcessingCompleteListener onProcessingCompleteListener;
 
@@ -106,6 +109,7 @@ public abstract class VisionVideoProcessorBase<T> implements VisionVideoProcesso
 
     protected VisionVideoProcessorBase(Context context) {
         activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        preferences = new PreferenceSnapshot.Tracker(context);
         executor = new ScopedExecutor(TaskExecutors.MAIN_THREAD);
         fpsTimer.scheduleAtFixedRate(
                 new TimerTask() {
@@ -184,7 +188,7 @@ public abstract class VisionVideoProcessorBase<T> implements VisionVideoProcesso
         // If live viewport is on (that is the underneath surface view takes care of the camera preview
         // drawing), skip the unnecessary bitmap creation that used for the manual preview drawing.
         Bitmap bitmap =
-                PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())
+                preferences.get().isCameraLiveViewportEnabled
                         ? null
                         : BitmapUtils.getBitmap(data, frameMetadata);
 
@@ -232,7 +236,7 @@ public abstract class VisionVideoProcessorBase<T> implements VisionVideoProcesso
         }
 
         Bitmap bitmap = null;
-        if (!PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())) {
+        if (!preferences.get().isCameraLiveViewportEnabled) {
             bitmap = BitmapUtils.getBitmap(image);
         }
 
@@ -361,6 +365,7 @@ public abstract class VisionVideoProcessorBase<T> implements VisionVideoProcesso
                         e -> {
                             graphicOverlay.clear();
                             graphicOverlay.postInvalidate();
+                            BitmapPool.release(originalCameraImage);
                             String error = "Failed to process. Error: " + e.getLocalizedMessage();
                             Toast.makeText(
                                             graphicOverlay.getContext(),
@@ -384,6 +389,7 @@ public abstract class VisionVideoProcessorBase<T> implements VisionVideoProcesso
         isShutdown = true;
         resetLatencyStats();
         fpsTimer.cancel();
+        preferences.close();
     }
 
     private void resetLatencyStats() {
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class FpsRangeSelectorTest {
+
+  @Test
+  public void select_prefersClosestUpperBoundThenSmallestLowerBound() {
+    int[] lowerBounds = {15, 30, 7, 24};
+    int[] upperBounds = {15, 30, 30, 24};
+
+    assertEquals(2, FpsRangeSelector.select(lowerBounds, upperBounds, 30));
+    assertEquals(3, FpsRangeSelector.select(lowerBounds, upperBounds, 24));
+  }
+
+  @Test
+  public void select_breaksTiesTowardsSmallerUpperBound() {
+    assertEquals(0, FpsRangeSelector.select(new int[] {15, 15}, new int[] {20, 30}, 25));
+    assertEquals(1, FpsRangeSelector.select(new int[] {15, 15}, new int[] {30, 20}, 25));
+  }
+
+  @Test
+  public void select_ignoresOrderOfRanges() {
+    // A smaller lower bound listed before a closer upper bound made the previous scan miss the
+    // closer one.
+    assertEquals(1, FpsRangeSelector.select(new int[] {7, 15}, new int[] {24, 30}, 30));
+    assertEquals(0, FpsRangeSelector.select(new int[] {15, 7}, new int[] {30, 24}, 30));
+  }
+
+  @Test
+  public void select_matchesForCamera1ScaledRanges() {
+    int[] lowerBounds = {15, 30, 7, 24};
+    int[] upperBounds = {15, 30, 30, 24};
+    int[] scaledLowerBounds = new int[lowerBounds.length];
+    int[] scaledUpperBounds = new int[upperBounds.length];
+    for (int i = 0; i < lowerBounds.length; i++) {
+      scaledLowerBounds[i] = lowerBounds[i] * 1000;
+      scaledUpperBounds[i] = upperBounds[i] * 1000;
+    }
+
+    for (int fps = 5; fps <= 60; fps++) {
+      assertEquals(
+          FpsRangeSelector.select(lowerBounds, upperBounds, fps),
+          FpsRangeSelector.select(scaledLowerBounds, scaledUpperBounds, fps * 1000));
+    }
+  }
+
+  @Test
+  public void select_returnsMinusOneWithoutRanges() {
+    assertEquals(-1, FpsRangeSelector.select(new int[0], new int[0], 30));
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class EMASmoothingTest {
+  private static final int WINDOW_SIZE = 10;
+  private static final float ALPHA = 0.2f;
+  private static final int NUM_CLASSES = 6;
+  private static final float TOLERANCE = 1e-5f;
+
+  @Test
+  public void getSmoothedResult_matchesWindowedSum() {
+    EMASmoothing smoothing = new EMASmoothing(WINDOW_SIZE, ALPHA, NUM_CLASSES);
+    ArrayDeque<float[]> window = new ArrayDeque<>();
+    Random random = new Random(42);
+    float[] smoothed = new float[NUM_CLASSES];
+    long nowMs = 1000;
+    long lastMs = 0;
+    for (int frame = 0; frame < 20_000; frame++) {
+      // Mostly consecutive frames, with the occasional gap that resets the window.
+      nowMs += random.nextInt(50) == 0 ? 500 : 33;
+      if (nowMs - lastMs > 100) {
+        window.clear();
+      }
+      lastMs = nowMs;
+      float[] confidences = new float[NUM_CLASSES];
+      for (int classId = 0; classId < NUM_CLASSES; classId++) {
+        // Classes drop out of the window now and then, their result must be exactly zero.
+        confidences[classId] = random.nextInt(3) == 0 ? 0 : random.nextInt(11);
+      }
+      window.addFirst(confidences);
+      if (window.size() > WINDOW_SIZE) {
+        window.removeLast();
+      }
+
+      smoothing.getSmoothedResult(confidences, nowMs, smoothed);
+
+      for (int classId = 0; classId < NUM_CLASSES; classId++) {
+        assertEquals(
+            "frame " + frame + ", class " + classId,
+            windowedSum(window, classId),
+            smoothed[classId],
+            TOLERANCE);
+      }
+    }
+  }
+
+  /** The smoothed confidence as summed over the whole window, newest first. */
+  private static float windowedSum(ArrayDeque<float[]> window, int classId) {
+    float factor = 1;
+    float topSum = 0;
+    float bottomSum = 0;
+    for (Iterator<float[]> it = window.iterator(); it.hasNext(); ) {
+      topSum += factor * it.next()[classId];
+      bottomSum += factor;
+      factor = (float) (factor * (1.0 - ALPHA));
+    }
+    return topSum / bottomSum;
+  }
+}